@@ -0,0 +1,90 @@
+package com.gmail.sharpcastle33.did.benchmark;
+
+import com.gmail.sharpcastle33.did.config.CaveStyle;
+import com.gmail.sharpcastle33.did.generator.CaveGenContext;
+import com.gmail.sharpcastle33.did.generator.Centroid;
+import com.gmail.sharpcastle33.did.generator.CentroidBuffer;
+import com.gmail.sharpcastle33.did.generator.LayoutGenerator;
+import com.gmail.sharpcastle33.did.generator.ModuleGenerator;
+import com.gmail.sharpcastle33.did.generator.WorldSink;
+import com.gmail.sharpcastle33.did.headless.HeadlessEnvironment;
+import com.sk89q.worldedit.math.Vector3;
+import org.bukkit.Bukkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Level;
+
+/**
+ * Shared setup for the benchmarks. Everything runs against the bundled default cave style with a fixed seed, writing
+ * to a sink that discards the blocks, so that results are comparable between releases.
+ */
+public final class BenchmarkEnvironment {
+	public static final long SEED = 0x5eed;
+	public static final String STYLE_NAME = "default";
+
+	private static CaveStyle style;
+
+	private BenchmarkEnvironment() {
+	}
+
+	public static synchronized CaveStyle getStyle() {
+		if (style == null) {
+			HeadlessEnvironment environment;
+			try {
+				environment = HeadlessEnvironment.bootstrap(Collections.singletonList(HeadlessEnvironment.extractDefaultCaveStyles()), new File("schematics"));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			// the generator logs every phase, which would drown out the results
+			Bukkit.getLogger().setLevel(Level.SEVERE);
+			style = Objects.requireNonNull(environment.getCaveStyle(STYLE_NAME), "Missing bundled cave style " + STYLE_NAME);
+		}
+		return style;
+	}
+
+	public static CaveGenContext newContext() {
+		return CaveGenContext.create(WorldSink.discarding(), getStyle(), SEED);
+	}
+
+	public static Vector3 getStartPos() {
+		return Vector3.at(0, getStyle().getStartY(), 0);
+	}
+
+	public static int getCaveRadius() {
+		return (getStyle().getMinSize() + getStyle().getMaxSize()) / 2;
+	}
+
+	public static int getLayoutLength() {
+		return (getStyle().getMinLength() + getStyle().getMaxLength()) / 2;
+	}
+
+	/**
+	 * Lays out the rooms of a cave and returns its centroids, as they are before carving.
+	 */
+	public static CentroidBuffer generateCentroids() {
+		CaveGenContext ctx = newContext();
+		LayoutGenerator.Layout layout = LayoutGenerator.generateCave(ctx, getLayoutLength(), 'C');
+		List<Centroid> centroids = new ArrayList<>();
+		ModuleGenerator.read(ctx, layout, getStartPos(), Vector3.UNIT_X, getCaveRadius(), centroids, new ArrayList<>());
+		return CentroidBuffer.of(centroids);
+	}
+
+	/**
+	 * Carves the given centroids into the context, like the carving phase of a generation.
+	 */
+	public static void carve(CaveGenContext ctx, CentroidBuffer centroids) {
+		for (int room = 0; room < centroids.getRoomCount(); room++) {
+			int minRoomY = centroids.getRoomMinY(room);
+			int maxRoomY = centroids.getRoomMaxY(room);
+			for (int i = centroids.getRoomStart(room); i < centroids.getRoomEnd(room); i++) {
+				ModuleGenerator.deleteCentroid(ctx, centroids, i, minRoomY, maxRoomY);
+			}
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package com.gmail.sharpcastle33.did.benchmark;
+
+import com.gmail.sharpcastle33.did.Util;
+import com.gmail.sharpcastle33.did.generator.CaveGenContext;
+import com.gmail.sharpcastle33.did.generator.Centroid;
+import com.gmail.sharpcastle33.did.provider.BlockProvider;
+import com.sk89q.worldedit.math.Vector3;
+import com.sk89q.worldedit.world.block.BlockStateHolder;
+import com.sk89q.worldedit.world.block.BlockTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockProviderBenchmark {
+	private static final int SAMPLES = 1024;
+
+	@Param({"single", "weighted"})
+	public String provider;
+
+	private BlockProvider blockProvider;
+	private CaveGenContext ctx;
+	private Centroid centroid;
+
+	@Setup
+	public void setUp() {
+		ctx = BenchmarkEnvironment.newContext();
+		centroid = new Centroid(Vector3.ZERO, BenchmarkEnvironment.getCaveRadius(), Collections.emptyList(), 0);
+		if ("single".equals(provider)) {
+			blockProvider = new BlockProvider.Single(Util.requireDefaultState(BlockTypes.STONE));
+		} else {
+			BlockStateHolder<?>[] blocks = {
+					Util.requireDefaultState(BlockTypes.STONE),
+					Util.requireDefaultState(BlockTypes.ANDESITE),
+					Util.requireDefaultState(BlockTypes.DIORITE),
+					Util.requireDefaultState(BlockTypes.GRANITE),
+					Util.requireDefaultState(BlockTypes.COBBLESTONE),
+					Util.requireDefaultState(BlockTypes.GRAVEL),
+					Util.requireDefaultState(BlockTypes.COAL_ORE),
+					Util.requireDefaultState(BlockTypes.IRON_ORE),
+			};
+			blockProvider = new BlockProvider.Weighted(blocks, new int[] {40, 20, 10, 10, 8, 6, 4, 2});
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public void get(Blackhole blackhole) {
+		for (int i = 0; i < SAMPLES; i++) {
+			blackhole.consume(blockProvider.get(ctx, centroid));
+		}
+	}
+}
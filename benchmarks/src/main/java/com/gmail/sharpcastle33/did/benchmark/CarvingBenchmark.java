@@ -0,0 +1,65 @@
+package com.gmail.sharpcastle33.did.benchmark;
+
+import com.gmail.sharpcastle33.did.generator.CaveGenContext;
+import com.gmail.sharpcastle33.did.generator.CentroidBuffer;
+import com.gmail.sharpcastle33.did.generator.PostProcessor;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Carving and smoothing a whole cave of the default style. Each invocation starts from a fresh context, since both
+ * passes change the blocks the next pass would see.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CarvingBenchmark {
+	private CentroidBuffer centroids;
+	private CaveGenContext emptyCtx;
+	private CaveGenContext carvedCtx;
+
+	@Setup(Level.Trial)
+	public void setUpCave() {
+		centroids = BenchmarkEnvironment.generateCentroids();
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpContexts() {
+		emptyCtx = BenchmarkEnvironment.newContext();
+		carvedCtx = BenchmarkEnvironment.newContext();
+		BenchmarkEnvironment.carve(carvedCtx, centroids);
+	}
+
+	@Benchmark
+	public CaveGenContext deleteCentroids() {
+		BenchmarkEnvironment.carve(emptyCtx, centroids);
+		return emptyCtx;
+	}
+
+	@Benchmark
+	public CaveGenContext smooth() throws MaxChangedBlocksException {
+		for (int room = 0; room < centroids.getRoomCount(); room++) {
+			int minRoomY = centroids.getRoomMinY(room);
+			int maxRoomY = centroids.getRoomMaxY(room);
+			for (int i = centroids.getRoomStart(room); i < centroids.getRoomEnd(room); i++) {
+				PostProcessor.smooth(carvedCtx, centroids, i, minRoomY, maxRoomY);
+			}
+		}
+		return carvedCtx;
+	}
+}
@@ -0,0 +1,58 @@
+package com.gmail.sharpcastle33.did.benchmark;
+
+import com.gmail.sharpcastle33.did.Util;
+import com.gmail.sharpcastle33.did.generator.Centroid;
+import com.sk89q.worldedit.math.Vector3;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connecting scattered centroids, as cavern and shelf rooms do. The small sizes use the exact spanning tree and the
+ * large ones the nearest neighbor approximation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnsureConnectedBenchmark {
+	private static final int RADIUS = 3;
+	private static final int SPREAD = 200;
+
+	@Param({"16", "64", "256", "1024"})
+	public int centroidCount;
+
+	private List<Centroid> centroids;
+
+	@Setup
+	public void setUp() {
+		Random rand = new Random(BenchmarkEnvironment.SEED);
+		centroids = new ArrayList<>(centroidCount);
+		for (int i = 0; i < centroidCount; i++) {
+			centroids.add(new Centroid(Vector3.at(rand.nextInt(SPREAD), rand.nextInt(SPREAD / 4), rand.nextInt(SPREAD)), RADIUS, Collections.emptyList(), 0));
+		}
+	}
+
+	@Benchmark
+	public List<Centroid> ensureConnected() {
+		List<Centroid> result = new ArrayList<>(centroids);
+		Util.ensureConnected(result, RADIUS, pos -> new Centroid(pos, RADIUS, Collections.emptyList(), 0));
+		return result;
+	}
+}
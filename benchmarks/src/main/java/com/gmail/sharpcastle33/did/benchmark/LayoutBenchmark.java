@@ -0,0 +1,40 @@
+package com.gmail.sharpcastle33.did.benchmark;
+
+import com.gmail.sharpcastle33.did.generator.CaveGenContext;
+import com.gmail.sharpcastle33.did.generator.LayoutGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayoutBenchmark {
+	private CaveGenContext ctx;
+	private int length;
+
+	@Setup
+	public void setUp() {
+		ctx = BenchmarkEnvironment.newContext();
+		length = BenchmarkEnvironment.getLayoutLength();
+	}
+
+	@Benchmark
+	public LayoutGenerator.Layout generateCave() {
+		// the same layout every time
+		ctx.rand.setSeed(BenchmarkEnvironment.SEED);
+		return LayoutGenerator.generateCave(ctx, length, 'C');
+	}
+}
@@ -0,0 +1,82 @@
+package com.gmail.sharpcastle33.did.benchmark;
+
+import com.gmail.sharpcastle33.did.generator.PackedBlockStorage;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockType;
+import com.sk89q.worldedit.world.block.BlockTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PackedBlockStorageBenchmark {
+	private static final int OPERATIONS = 4096;
+	// spans several subchunks, like a room does
+	private static final int REGION_SIZE = 64;
+
+	@Param({"2", "16", "256"})
+	public int paletteSize;
+
+	private BlockState[] blocks;
+	private BlockVector3[] positions;
+	private PackedBlockStorage storage;
+
+	@Setup
+	public void setUp() {
+		BenchmarkEnvironment.getStyle();
+		List<BlockState> states = new ArrayList<>();
+		for (BlockType type : new BlockType[] {BlockTypes.ANDESITE, BlockTypes.GRAVEL, BlockTypes.COBBLESTONE, BlockTypes.OAK_STAIRS, BlockTypes.REDSTONE_WIRE}) {
+			states.addAll(type.getAllStates());
+		}
+		blocks = states.subList(0, paletteSize).toArray(new BlockState[0]);
+
+		Random rand = new Random(BenchmarkEnvironment.SEED);
+		positions = new BlockVector3[OPERATIONS];
+		for (int i = 0; i < OPERATIONS; i++) {
+			positions[i] = BlockVector3.at(rand.nextInt(REGION_SIZE), rand.nextInt(REGION_SIZE), rand.nextInt(REGION_SIZE));
+		}
+
+		storage = new PackedBlockStorage(BenchmarkEnvironment.getStyle().getBaseBlock().toImmutableState());
+		// fill the palette before measuring, so that resizing isn't part of the results
+		for (int i = 0; i < OPERATIONS; i++) {
+			storage.setBlock(positions[i], blocks[i % blocks.length]);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(OPERATIONS)
+	public void setBlock() {
+		for (int i = 0; i < OPERATIONS; i++) {
+			storage.setBlock(positions[i], blocks[(i + 1) % blocks.length]);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(OPERATIONS)
+	public void getBlock(Blackhole blackhole) {
+		for (int i = 0; i < OPERATIONS; i++) {
+			blackhole.consume(storage.getBlock(positions[i]));
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.gmail.sharpcastle33.did.benchmark;
+
+import com.gmail.sharpcastle33.did.generator.CaveGenContext;
+import com.gmail.sharpcastle33.did.generator.CentroidBuffer;
+import com.gmail.sharpcastle33.did.generator.painter.PainterStep;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applying a single painter step to every centroid of a carved cave of the default style.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PainterBenchmark {
+	@Param({"replace_all", "replace_floor", "replace_ceiling", "floor_layer", "ceiling_layer"})
+	public String stepType;
+
+	private CentroidBuffer centroids;
+	private PainterStep step;
+	private CaveGenContext ctx;
+
+	@Setup(Level.Trial)
+	public void setUpCave() {
+		centroids = BenchmarkEnvironment.generateCentroids();
+		MemoryConfiguration config = new MemoryConfiguration();
+		config.set("type", stepType);
+		if (stepType.endsWith("_layer")) {
+			config.set("block", "minecraft:snow");
+		} else {
+			config.set("old", BenchmarkEnvironment.getStyle().getBaseBlock().getAsString());
+			config.set("new", "minecraft:gravel");
+		}
+		step = PainterStep.deserialize(config);
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpContext() {
+		ctx = BenchmarkEnvironment.newContext();
+		BenchmarkEnvironment.carve(ctx, centroids);
+	}
+
+	@Benchmark
+	public CaveGenContext apply() throws MaxChangedBlocksException {
+		for (int i = 0; i < centroids.size(); i++) {
+			step.apply(ctx, centroids.get(i), pos -> true);
+		}
+		return ctx;
+	}
+}
@@ -0,0 +1,121 @@
+package com.gmail.sharpcastle33.did;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+/**
+ * Picks indices in proportion to positive integer weights in constant time.
+ *
+ * <p>When the total weight is small, a direct lookup table is used. This takes exactly one
+ * {@code rand.nextInt(totalWeight)} and picks the same index as a linear scan over the weights would, so switching an
+ * existing weighted choice to this class does not change what a given seed generates. Larger totals use Vose's alias
+ * method instead.
+ */
+public final class AliasTable {
+	private static final int MAX_LOOKUP_SIZE = 4096;
+
+	private final int totalWeight;
+	private final int[] cumulativeWeights;
+	private final int[] lookup;
+	private final double[] probability;
+	private final int[] alias;
+
+	public AliasTable(int[] weights) {
+		if (weights.length == 0) {
+			throw new IllegalArgumentException("No weights");
+		}
+		cumulativeWeights = new int[weights.length];
+		int total = 0;
+		for (int i = 0; i < weights.length; i++) {
+			if (weights[i] <= 0) {
+				throw new IllegalArgumentException("Weights must be positive");
+			}
+			total = Math.addExact(total, weights[i]);
+			cumulativeWeights[i] = total;
+		}
+		this.totalWeight = total;
+
+		if (total <= MAX_LOOKUP_SIZE) {
+			lookup = new int[total];
+			int value = 0;
+			for (int i = 0; i < weights.length; i++) {
+				for (int j = 0; j < weights[i]; j++) {
+					lookup[value++] = i;
+				}
+			}
+			probability = null;
+			alias = null;
+		} else {
+			lookup = null;
+			int n = weights.length;
+			probability = new double[n];
+			alias = new int[n];
+			double[] scaled = new double[n];
+			Deque<Integer> small = new ArrayDeque<>();
+			Deque<Integer> large = new ArrayDeque<>();
+			for (int i = 0; i < n; i++) {
+				scaled[i] = (double) weights[i] * n / total;
+				if (scaled[i] < 1) {
+					small.push(i);
+				} else {
+					large.push(i);
+				}
+			}
+			while (!small.isEmpty() && !large.isEmpty()) {
+				int less = small.pop();
+				int more = large.pop();
+				probability[less] = scaled[less];
+				alias[less] = more;
+				scaled[more] = scaled[more] + scaled[less] - 1;
+				if (scaled[more] < 1) {
+					small.push(more);
+				} else {
+					large.push(more);
+				}
+			}
+			while (!large.isEmpty()) {
+				probability[large.pop()] = 1;
+			}
+			while (!small.isEmpty()) {
+				probability[small.pop()] = 1;
+			}
+		}
+	}
+
+	public int size() {
+		return cumulativeWeights.length;
+	}
+
+	public int getTotalWeight() {
+		return totalWeight;
+	}
+
+	public int sample(Random rand) {
+		if (lookup != null) {
+			return lookup[rand.nextInt(totalWeight)];
+		}
+		int column = rand.nextInt(probability.length);
+		return rand.nextDouble() < probability[column] ? column : alias[column];
+	}
+
+	/**
+	 * Gets the index a linear scan over the weights would pick for the given value in {@code [0, totalWeight)}.
+	 */
+	public int indexOf(int value) {
+		if (lookup != null) {
+			return lookup[value];
+		}
+		int low = 0;
+		int high = cumulativeWeights.length - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cumulativeWeights[mid] > value) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
+}
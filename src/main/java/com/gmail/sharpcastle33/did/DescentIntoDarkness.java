@@ -6,7 +6,15 @@ import com.gmail.sharpcastle33.did.config.CaveStyles;
 import com.gmail.sharpcastle33.did.config.ConfigUtil;
 import com.gmail.sharpcastle33.did.config.DataPacks;
 import com.gmail.sharpcastle33.did.config.InvalidConfigException;
+import com.gmail.sharpcastle33.did.config.SchematicCache;
+import com.gmail.sharpcastle33.did.instancing.BlueprintCache;
 import com.gmail.sharpcastle33.did.instancing.CaveTrackerManager;
+import com.gmail.sharpcastle33.did.instancing.DemandTracker;
+import com.gmail.sharpcastle33.did.instancing.GenerationCostModel;
+import com.gmail.sharpcastle33.did.instancing.GenerationExecutor;
+import com.gmail.sharpcastle33.did.instancing.GenerationWatchdog;
+import com.gmail.sharpcastle33.did.instancing.GenerationWorkerPool;
+import com.gmail.sharpcastle33.did.instancing.TickMonitor;
 import com.gmail.sharpcastle33.did.listeners.CaveEntranceListener;
 import com.gmail.sharpcastle33.did.listeners.CommandListener;
 import com.gmail.sharpcastle33.did.listeners.HiddenOre;
@@ -14,13 +22,12 @@ import com.gmail.sharpcastle33.did.listeners.MobSpawnManager;
 import com.gmail.sharpcastle33.did.listeners.OreListener;
 import com.gmail.sharpcastle33.did.listeners.PacketListener;
 import com.gmail.sharpcastle33.did.listeners.PlayerListener;
+import com.gmail.sharpcastle33.did.metrics.MetricsExporter;
+import com.gmail.sharpcastle33.did.metrics.PluginMetrics;
 import com.google.common.base.Charsets;
 import com.onarandombox.MultiverseCore.api.Core;
 import com.sk89q.worldedit.bukkit.BukkitAdapter;
 import com.sk89q.worldedit.extent.clipboard.Clipboard;
-import com.sk89q.worldedit.extent.clipboard.io.ClipboardFormat;
-import com.sk89q.worldedit.extent.clipboard.io.ClipboardFormats;
-import com.sk89q.worldedit.extent.clipboard.io.ClipboardReader;
 import com.sk89q.worldedit.world.block.BlockStateHolder;
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
@@ -40,18 +47,15 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Field;
 import java.util.Calendar;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.TimeZone;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 
@@ -63,8 +67,11 @@ public class DescentIntoDarkness extends JavaPlugin {
 	private Scoreboard scoreboard;
 
 	private FileConfiguration config = getConfig();
-	private final Map<String, Clipboard> schematics = new HashMap<>();
+	private final SchematicCache schematicCache = new SchematicCache();
 	private final CaveStyles caveStyles = new CaveStyles();
+	private final PluginMetrics metrics = new PluginMetrics();
+	private final MetricsExporter metricsExporter = new MetricsExporter(metrics.getRegistry());
+	private final Executor mainThreadExecutor = task -> Bukkit.getScheduler().runTask(this, task);
 
 	public static DescentIntoDarkness instance;
 	public static Core multiverseCore;
@@ -123,6 +130,7 @@ public class DescentIntoDarkness extends JavaPlugin {
 		Bukkit.getScheduler().scheduleSyncRepeatingTask(instance, mobSpawnManager, 0, 1);
 		Bukkit.getPluginManager().registerEvents(mobSpawnManager, instance);
 		Bukkit.getScheduler().scheduleSyncRepeatingTask(instance, caveTrackerManager::update, 0, 20);
+		Bukkit.getScheduler().scheduleSyncRepeatingTask(instance, caveTrackerManager.getTickMonitor(), 0, 1);
 		Bukkit.getScheduler().scheduleSyncRepeatingTask(instance, caveTrackerManager::save, 900, 900);
 
 		PacketListener.register();
@@ -132,8 +140,10 @@ public class DescentIntoDarkness extends JavaPlugin {
 
 	@Override
 	public void onDisable() {
+		metricsExporter.stop();
 		HiddenOre.saveHiddenOreData();
 		if (caveTrackerManager != null) {
+			caveTrackerManager.shutdown();
 			caveTrackerManager.save();
 		}
 	}
@@ -154,14 +164,46 @@ public class DescentIntoDarkness extends JavaPlugin {
 		}
 		config.addDefault("customBiomeIdStart", Biomes.DEFAULT_CUSTOM_BIOME_ID_START);
 		config.addDefault("showDebugPollution", false);
+		config.addDefault("schematicCacheMaxBlocks", SchematicCache.DEFAULT_MAX_BLOCKS);
+		config.addDefault("generationBudget.windowSeconds", GenerationCostModel.DEFAULT_WINDOW_SECONDS);
+		config.addDefault("generationBudget.millisPerWindow", GenerationCostModel.DEFAULT_MILLIS_PER_WINDOW);
+		config.addDefault("generationBudget.defaultEstimateMillis", GenerationCostModel.DEFAULT_ESTIMATE_MILLIS);
+		config.addDefault("generationWatchdog.maxSeconds", GenerationWatchdog.DEFAULT_MAX_SECONDS);
+		config.addDefault("generationWatchdog.maxBlocksChanged", GenerationWatchdog.DEFAULT_MAX_BLOCKS_CHANGED);
+		config.addDefault("generationExecutor.workers", GenerationExecutor.DEFAULT_WORKERS);
+		config.addDefault("generationExecutor.maxQueued", GenerationExecutor.DEFAULT_MAX_QUEUED);
+		config.addDefault("throttle.enabled", TickMonitor.DEFAULT_ENABLED);
+		config.addDefault("throttle.sampleTicks", TickMonitor.DEFAULT_SAMPLE_TICKS);
+		config.addDefault("throttle.overloadedTickMillis", TickMonitor.DEFAULT_OVERLOADED_TICK_MILLIS);
+		config.addDefault("throttle.idleTickMillis", TickMonitor.DEFAULT_IDLE_TICK_MILLIS);
+		config.addDefault("throttle.pauseMillis", TickMonitor.DEFAULT_PAUSE_MILLIS);
+		config.addDefault("throttle.maxPauseMillis", TickMonitor.DEFAULT_MAX_PAUSE_MILLIS);
+		config.addDefault("throttle.maxFlushDelayMillis", TickMonitor.DEFAULT_MAX_FLUSH_DELAY_MILLIS);
+		config.addDefault("throttle.overloadedWorkers", TickMonitor.DEFAULT_OVERLOADED_WORKERS);
+		config.addDefault("warmPool.maxCaves", CaveTrackerManager.DEFAULT_WARM_POOL_MAX_CAVES);
+		config.addDefault("warmPool.lookaheadHours", CaveTrackerManager.DEFAULT_WARM_POOL_LOOKAHEAD_HOURS);
+		config.addDefault("warmPool.dailyDecay", DemandTracker.DEFAULT_DAILY_DECAY);
+		config.addDefault("joinQueue.timeoutSeconds", CaveTrackerManager.DEFAULT_JOIN_QUEUE_TIMEOUT_SECONDS);
+		config.addDefault("joinQueue.preemptBackground", CaveTrackerManager.DEFAULT_JOIN_QUEUE_PREEMPT_BACKGROUND);
+		config.addDefault("blueprints.enabled", BlueprintCache.DEFAULT_ENABLED);
+		config.addDefault("blueprints.maxPerStyle", BlueprintCache.DEFAULT_MAX_PER_STYLE);
+		config.addDefault("blueprints.rotate", BlueprintCache.DEFAULT_ROTATE);
+		config.addDefault("checkpoints.enabled", CaveTrackerManager.DEFAULT_CHECKPOINTS_ENABLED);
+		config.addDefault("workerProcess.enabled", GenerationWorkerPool.DEFAULT_ENABLED);
+		config.addDefault("workerProcess.javaPath", GenerationWorkerPool.DEFAULT_JAVA_PATH);
+		config.addDefault("workerProcess.maxHeapMB", GenerationWorkerPool.DEFAULT_MAX_HEAP_MB);
+		config.addDefault("metrics.file.enabled", MetricsExporter.DEFAULT_FILE_ENABLED);
+		config.addDefault("metrics.file.intervalSeconds", MetricsExporter.DEFAULT_FILE_INTERVAL_SECONDS);
+		config.addDefault("metrics.http.enabled", MetricsExporter.DEFAULT_HTTP_ENABLED);
+		config.addDefault("metrics.http.port", MetricsExporter.DEFAULT_HTTP_PORT);
 		config.options().copyDefaults(true);
 		saveConfig();
 		reload();
 	}
 
 	public void reload() {
-		schematics.clear();
 		reloadConfig();
+		schematicCache.setMaxBlocks(config.getLong("schematicCacheMaxBlocks", SchematicCache.DEFAULT_MAX_BLOCKS));
 
 		DataPacks.reload();
 		Biomes.reload();
@@ -171,6 +213,8 @@ public class DescentIntoDarkness extends JavaPlugin {
 		} catch (InvalidConfigException e) {
 			Bukkit.getLogger().log(Level.SEVERE, "Failed to load cave styles", e);
 		}
+		schematicCache.preload(caveStyles.getReferencedSchematics());
+		metricsExporter.reload(this, config, new File(new File(getDataFolder(), "runtime"), "metrics.prom"));
 
 		Bukkit.getLogger().info("Reloaded DescentIntoDarkness config");
 	}
@@ -248,35 +292,13 @@ public class DescentIntoDarkness extends JavaPlugin {
 		return caveStyles;
 	}
 
+	@Nullable
 	public Clipboard getSchematic(String name) {
-		Clipboard schematic = schematics.get(name);
-		if (schematic != null) {
-			return schematic;
-		}
-		File schemDir = new File(getDataFolder(), "schematics");
-		if (!schemDir.exists()) {
-			//noinspection ResultOfMethodCallIgnored
-			schemDir.mkdirs();
-		}
-
-		File schemFile = new File(schemDir, name + ".schem");
-		if (!schemFile.exists()) {
-			return null;
-		}
-
-		ClipboardFormat format = ClipboardFormats.findByFile(schemFile);
-		if (format == null) {
-			return null;
-		}
-		try (ClipboardReader reader = format.getReader(new FileInputStream(schemFile))) {
-			schematic = reader.read();
-		} catch (IOException e) {
-			e.printStackTrace();
-			return null;
-		}
+		return schematicCache.get(name);
+	}
 
-		schematics.put(name, schematic);
-		return schematic;
+	public SchematicCache getSchematicCache() {
+		return schematicCache;
 	}
 
 	public CaveTrackerManager getCaveTrackerManager() {
@@ -287,6 +309,10 @@ public class DescentIntoDarkness extends JavaPlugin {
 		return mobSpawnManager;
 	}
 
+	public PluginMetrics getMetrics() {
+		return metrics;
+	}
+
 	public Scoreboard getScoreboard() {
 		if (scoreboard == null) {
 			ScoreboardManager scoreboardManager = Bukkit.getScoreboardManager();
@@ -298,25 +324,12 @@ public class DescentIntoDarkness extends JavaPlugin {
 		return scoreboard;
 	}
 
-	public void runSyncNow(Runnable task) {
-		try {
-			runSyncLater(task).get();
-		} catch (InterruptedException | ExecutionException e) {
-			Bukkit.getLogger().log(Level.SEVERE, "Exception occurred when running synchronous task", e);
-		}
-	}
-
-	public <T> T supplySyncNow(Supplier<T> task) {
-		if (Bukkit.isPrimaryThread()) {
-			Bukkit.getLogger().log(Level.SEVERE, "Calling supplySyncNow from main thread, causing a deadlock!");
-			Thread.dumpStack();
-		}
-		try {
-			return supplySyncLater(task).get();
-		} catch (InterruptedException | ExecutionException e) {
-			Bukkit.getLogger().log(Level.SEVERE, "Exception occurred when running synchronous task", e);
-			throw new RuntimeException(e);
-		}
+	/**
+	 * Runs tasks on the main thread in the next tick. Use this with the async methods of {@link CompletableFuture} to
+	 * hand results from other threads to the main thread without blocking.
+	 */
+	public Executor getMainThreadExecutor() {
+		return mainThreadExecutor;
 	}
 
 	public CompletableFuture<Void> runSyncLater(Runnable task) {
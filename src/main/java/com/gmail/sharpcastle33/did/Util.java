@@ -32,7 +32,6 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
@@ -234,48 +233,76 @@ public class Util {
 		}
 	}
 
+	/**
+	 * Interleaves the bits of the given coordinates, so that sorting by the result keeps nearby positions close
+	 * together. Coordinates are wrapped to 21 bits, so only positions within 2^20 of each other are ordered correctly.
+	 */
+	public static long mortonCode(int x, int y, int z) {
+		return spreadBits(x + (1 << 20)) | (spreadBits(y + (1 << 20)) << 1) | (spreadBits(z + (1 << 20)) << 2);
+	}
+
+	private static long spreadBits(int value) {
+		long bits = value & 0x1fffffL;
+		bits = (bits | bits << 32) & 0x1f00000000ffffL;
+		bits = (bits | bits << 16) & 0x1f0000ff0000ffL;
+		bits = (bits | bits << 8) & 0x100f00f00f00f00fL;
+		bits = (bits | bits << 4) & 0x10c30c30c30c30c3L;
+		bits = (bits | bits << 2) & 0x1249249249249249L;
+		return bits;
+	}
+
+	/**
+	 * Inverse of {@link #mortonCode}.
+	 */
+	public static BlockVector3 fromMortonCode(long code) {
+		return BlockVector3.at(compactBits(code) - (1 << 20), compactBits(code >>> 1) - (1 << 20), compactBits(code >>> 2) - (1 << 20));
+	}
+
+	private static int compactBits(long bits) {
+		bits &= 0x1249249249249249L;
+		bits = (bits | bits >>> 2) & 0x10c30c30c30c30c3L;
+		bits = (bits | bits >>> 4) & 0x100f00f00f00f00fL;
+		bits = (bits | bits >>> 8) & 0x1f0000ff0000ffL;
+		bits = (bits | bits >>> 16) & 0x1f00000000ffffL;
+		bits = (bits | bits >>> 32) & 0x1fffffL;
+		return (int) bits;
+	}
+
+	private static final int ENSURE_CONNECTED_EXACT_LIMIT = 64;
+	private static final int ENSURE_CONNECTED_NEIGHBORS = 8;
+
 	public static void ensureConnected(List<Centroid> centroidsInOut, int connectingCentroidRadius, Function<Vector3, Centroid> centroidSupplier) {
-		// find the minimum spanning tree of the centroids using Kruskal's algorithm, to ensure they are connected
-		List<Pair<Centroid, Centroid>> edges = new ArrayList<>();
-		for (int i = 0; i < centroidsInOut.size() - 1; i++) {
-			for (int j = i + 1; j < centroidsInOut.size(); j++) {
-				edges.add(Pair.of(centroidsInOut.get(i), centroidsInOut.get(j)));
-			}
+		// find the minimum spanning tree of the centroids using Kruskal's algorithm, to ensure they are connected.
+		// For large inputs only the nearest neighbours of each centroid are considered, falling back to all pairs if
+		// that isn't enough to connect them.
+		int n = centroidsInOut.size();
+		if (n < 2) {
+			return;
 		}
-		edges.sort(Comparator.comparingDouble(edge -> edge.getLeft().pos.distance(edge.getRight().pos) - edge.getLeft().size - edge.getRight().size));
-		Map<Centroid, Integer> nodeGroups = new HashMap<>();
-		int groupCount = 0;
-		ListIterator<Pair<Centroid, Centroid>> edgesItr = edges.listIterator();
-		while (edgesItr.hasNext()) {
-			Pair<Centroid, Centroid> edge = edgesItr.next();
-			Integer groupA = nodeGroups.get(edge.getLeft());
-			Integer groupB = nodeGroups.get(edge.getRight());
-			if (groupA != null && groupA.equals(groupB)) {
-				edgesItr.remove();
-			} else {
-				if (groupA != null && groupB != null) {
-					nodeGroups.replaceAll((key, val) -> val.equals(groupB) ? groupA : val);
-				} else {
-					Integer group = groupA == null ? groupB == null ? groupCount++ : groupB : groupA;
-					nodeGroups.put(edge.getLeft(), group);
-					nodeGroups.put(edge.getRight(), group);
-				}
-			}
+		Centroid[] centroids = centroidsInOut.toArray(new Centroid[0]);
+		List<int[]> tree = null;
+		if (n > ENSURE_CONNECTED_EXACT_LIMIT) {
+			tree = spanningTree(centroids, nearestNeighborEdges(centroids, ENSURE_CONNECTED_NEIGHBORS));
+		}
+		if (tree == null) {
+			tree = spanningTree(centroids, allEdges(centroids));
 		}
 
-		for (Pair<Centroid, Centroid> edge : edges) {
-			double distance = edge.getLeft().pos.distance(edge.getRight().pos);
-			double actualDistance = distance - edge.getLeft().size - edge.getRight().size;
+		for (int[] edge : tree) {
+			Centroid left = centroids[edge[0]];
+			Centroid right = centroids[edge[1]];
+			double distance = left.pos.distance(right.pos);
+			double actualDistance = distance - left.size - right.size;
 			if (actualDistance < 0) {
 				continue;
 			}
 			actualDistance = Math.max(1, actualDistance);
-			Vector3 dir = edge.getRight().pos.subtract(edge.getLeft().pos).divide(distance);
+			Vector3 dir = right.pos.subtract(left.pos).divide(distance);
 
 			int numSegments = (int) Math.ceil(actualDistance / connectingCentroidRadius) + 1;
 			double segmentLength = actualDistance / numSegments;
 
-			Vector3 startPos = edge.getLeft().pos.add(dir.multiply(edge.getLeft().size));
+			Vector3 startPos = left.pos.add(dir.multiply(left.size));
 			Vector3 segment = dir.multiply(segmentLength);
 			for (int i = 1; i < numSegments; i++) {
 				centroidsInOut.add(centroidSupplier.apply(startPos.add(segment.multiply(i))));
@@ -283,6 +310,161 @@ public class Util {
 		}
 	}
 
+	private static double edgeWeight(Centroid a, Centroid b) {
+		return a.pos.distance(b.pos) - a.size - b.size;
+	}
+
+	private static List<int[]> allEdges(Centroid[] centroids) {
+		List<int[]> edges = new ArrayList<>();
+		for (int i = 0; i < centroids.length - 1; i++) {
+			for (int j = i + 1; j < centroids.length; j++) {
+				edges.add(new int[] {i, j});
+			}
+		}
+		return edges;
+	}
+
+	/**
+	 * Finds the k nearest neighbours of each centroid using a uniform grid, returning the edges to them.
+	 */
+	private static List<int[]> nearestNeighborEdges(Centroid[] centroids, int k) {
+		int n = centroids.length;
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+		for (Centroid centroid : centroids) {
+			minX = Math.min(minX, centroid.pos.getX());
+			minY = Math.min(minY, centroid.pos.getY());
+			minZ = Math.min(minZ, centroid.pos.getZ());
+			maxX = Math.max(maxX, centroid.pos.getX());
+			maxY = Math.max(maxY, centroid.pos.getY());
+			maxZ = Math.max(maxZ, centroid.pos.getZ());
+		}
+		// aim for around k centroids per cell
+		double volume = Math.max(1, (maxX - minX) * (maxY - minY) * (maxZ - minZ));
+		double cellSize = Math.max(1, Math.cbrt(volume * k / n));
+		int maxRing = (int) Math.ceil(Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ)) / cellSize) + 1;
+
+		int[] cellX = new int[n], cellY = new int[n], cellZ = new int[n];
+		Map<Long, List<Integer>> grid = new HashMap<>();
+		for (int i = 0; i < n; i++) {
+			cellX[i] = (int) Math.floor((centroids[i].pos.getX() - minX) / cellSize);
+			cellY[i] = (int) Math.floor((centroids[i].pos.getY() - minY) / cellSize);
+			cellZ[i] = (int) Math.floor((centroids[i].pos.getZ() - minZ) / cellSize);
+			grid.computeIfAbsent(gridKey(cellX[i], cellY[i], cellZ[i]), key -> new ArrayList<>()).add(i);
+		}
+
+		List<int[]> edges = new ArrayList<>();
+		int[] nearest = new int[k];
+		double[] nearestDistSq = new double[k];
+		for (int i = 0; i < n; i++) {
+			Vector3 pos = centroids[i].pos;
+			int found = 0;
+			for (int ring = 0; ring <= maxRing; ring++) {
+				for (int dx = -ring; dx <= ring; dx++) {
+					for (int dy = -ring; dy <= ring; dy++) {
+						for (int dz = -ring; dz <= ring; dz++) {
+							if (Math.max(Math.abs(dx), Math.max(Math.abs(dy), Math.abs(dz))) != ring) {
+								continue;
+							}
+							List<Integer> cell = grid.get(gridKey(cellX[i] + dx, cellY[i] + dy, cellZ[i] + dz));
+							if (cell == null) {
+								continue;
+							}
+							for (int j : cell) {
+								if (j == i) {
+									continue;
+								}
+								double distSq = pos.distanceSq(centroids[j].pos);
+								if (found < k) {
+									found++;
+								} else if (distSq >= nearestDistSq[found - 1]) {
+									continue;
+								}
+								// insertion into the sorted list of nearest neighbours
+								int index = found - 1;
+								while (index > 0 && nearestDistSq[index - 1] > distSq) {
+									nearest[index] = nearest[index - 1];
+									nearestDistSq[index] = nearestDistSq[index - 1];
+									index--;
+								}
+								nearest[index] = j;
+								nearestDistSq[index] = distSq;
+							}
+						}
+					}
+				}
+				// anything in further rings is at least this far away
+				double minOutsideDist = ring * cellSize;
+				if (found == k && nearestDistSq[k - 1] <= minOutsideDist * minOutsideDist) {
+					break;
+				}
+			}
+			for (int index = 0; index < found; index++) {
+				int j = nearest[index];
+				edges.add(i < j ? new int[] {i, j} : new int[] {j, i});
+			}
+		}
+		return edges;
+	}
+
+	private static long gridKey(int x, int y, int z) {
+		return ((long) (x & 0x1fffff) << 42) | ((long) (y & 0x1fffff) << 21) | (z & 0x1fffff);
+	}
+
+	/**
+	 * Runs Kruskal's algorithm over the given edges, returning the edges of the spanning tree in the order they were
+	 * added, or null if the edges don't connect all the centroids.
+	 */
+	@Nullable
+	private static List<int[]> spanningTree(Centroid[] centroids, List<int[]> edges) {
+		double[] weights = new double[edges.size()];
+		Integer[] order = new Integer[edges.size()];
+		for (int i = 0; i < order.length; i++) {
+			int[] edge = edges.get(i);
+			weights[i] = edgeWeight(centroids[edge[0]], centroids[edge[1]]);
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.<Integer>comparingDouble(i -> weights[i])
+				.thenComparingInt(i -> edges.get(i)[0])
+				.thenComparingInt(i -> edges.get(i)[1]));
+
+		int[] parent = new int[centroids.length];
+		int[] componentSize = new int[centroids.length];
+		for (int i = 0; i < parent.length; i++) {
+			parent[i] = i;
+			componentSize[i] = 1;
+		}
+		List<int[]> tree = new ArrayList<>(centroids.length - 1);
+		for (int index : order) {
+			int[] edge = edges.get(index);
+			int rootA = findRoot(parent, edge[0]);
+			int rootB = findRoot(parent, edge[1]);
+			if (rootA == rootB) {
+				continue;
+			}
+			if (componentSize[rootA] < componentSize[rootB]) {
+				int temp = rootA;
+				rootA = rootB;
+				rootB = temp;
+			}
+			parent[rootB] = rootA;
+			componentSize[rootA] += componentSize[rootB];
+			tree.add(edge);
+			if (tree.size() == centroids.length - 1) {
+				return tree;
+			}
+		}
+		return null;
+	}
+
+	private static int findRoot(int[] parent, int node) {
+		while (parent[node] != node) {
+			parent[node] = parent[parent[node]];
+			node = parent[node];
+		}
+		return node;
+	}
+
 	public static boolean saveSafely(File file, FileSaver saver) {
 		File swapFile = new File(file.getParentFile(), file.getName() + ".swp");
 		File backupFile = new File(file.getParentFile(), file.getName() + ".bak");
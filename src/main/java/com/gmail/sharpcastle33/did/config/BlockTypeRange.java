@@ -14,11 +14,26 @@ import java.util.stream.Collectors;
 
 public final class BlockTypeRange<T extends Comparable<T>> {
 	private final List<Entry<T>> entries;
+	// for integer ranges, the result of get() for every y in the world height
+	@Nullable
+	private BlockProvider[] denseTable;
 
 	private BlockTypeRange(List<Entry<T>> entries) {
 		this.entries = entries;
 	}
 
+	/**
+	 * Constant time lookup for integer ranges.
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public BlockProvider getInt(int yLevel) {
+		if (denseTable != null && yLevel >= 0 && yLevel < denseTable.length) {
+			return denseTable[yLevel];
+		}
+		return get((T) (Integer) yLevel);
+	}
+
 	@Nullable
 	public BlockProvider get(T yLevel) {
 		for (Entry<T> entry : entries) {
@@ -58,7 +73,12 @@ public final class BlockTypeRange<T extends Comparable<T>> {
 	}
 
 	public static BlockTypeRange<Integer> deserializeInt(Object val) {
-		return deserialize(val, ConfigUtil::parseInt, 0, 255);
+		BlockTypeRange<Integer> range = deserialize(val, ConfigUtil::parseInt, 0, 255);
+		range.denseTable = new BlockProvider[256];
+		for (int y = 0; y < range.denseTable.length; y++) {
+			range.denseTable[y] = range.get(y);
+		}
+		return range;
 	}
 
 	public static BlockTypeRange<Double> deserializeDouble(Object val) {
@@ -56,6 +56,7 @@ public class CaveStyle {
 	private int centroidVaryHorizontal;
 	private int centroidVaryMinY;
 	private int centroidVaryMaxY;
+	private boolean mortonOrder;
 	private String biome;
 	private boolean nether;
 	private final List<Room> rooms = new ArrayList<>();
@@ -70,7 +71,7 @@ public class CaveStyle {
 		this.name = name;
 	}
 
-	public static CaveStyle deserialize(String name, ConfigurationSection map) {
+	public static CaveStyle deserialize(String name, ConfigurationSection map, boolean validateBiome) {
 		CaveStyle style = new CaveStyle(name);
 
 		style.displayName = Objects.requireNonNull(map.getString("displayName", name)).replace('&', '\u00a7');
@@ -173,8 +174,9 @@ public class CaveStyle {
 		if (style.centroidVaryMaxY < style.centroidVaryMinY) {
 			throw new InvalidConfigException("Invalid centroidVaryY range");
 		}
+		style.mortonOrder = map.getBoolean("mortonOrder", false);
 		style.biome = map.getString("biome", "minecraft:ocean");
-		if (!Biomes.biomeExists(style.biome)) {
+		if (validateBiome && !Biomes.biomeExists(style.biome)) {
 			throw new InvalidConfigException("No such biome: " + style.biome);
 		}
 		style.nether = map.getBoolean("nether");
@@ -264,30 +266,27 @@ public class CaveStyle {
 	}
 
 	public BlockProvider getAirBlock(int y, Centroid currentCentroid, int minRoomY, int maxRoomY) {
-		double yInCentroid = (double) (y - currentCentroid.pos.getBlockY() + currentCentroid.size) / (currentCentroid.size + currentCentroid.size);
-		for (String tag : currentCentroid.tags) {
-			BlockTypeRange<Double> range = tagAirBlocks.get(tag);
-			if (range != null) {
-				BlockProvider block = range.get(yInCentroid);
-				if (block != null) {
-					return block;
-				}
+		return getAirBlocks(currentCentroid.tags).get(y, currentCentroid, minRoomY, maxRoomY);
+	}
+
+	/**
+	 * Resolves which air block ranges apply to centroids with the given tags. The result only depends on the tags, so
+	 * it can be reused for every centroid in a room.
+	 */
+	public AirBlocks getAirBlocks(List<String> tags) {
+		List<BlockTypeRange<Double>> tagRanges = new ArrayList<>();
+		List<BlockTypeRange<Double>> roomRanges = new ArrayList<>();
+		for (String tag : tags) {
+			BlockTypeRange<Double> tagRange = tagAirBlocks.get(tag);
+			if (tagRange != null) {
+				tagRanges.add(tagRange);
 			}
-		}
-
-		double yInRoom = (double) (y - minRoomY) / (maxRoomY - minRoomY);
-		for (String tag : currentCentroid.tags) {
-			BlockTypeRange<Double> range = roomAirBlocks.get(tag);
-			if (range != null) {
-				BlockProvider block = range.get(yInRoom);
-				if (block != null) {
-					return block;
-				}
+			BlockTypeRange<Double> roomRange = roomAirBlocks.get(tag);
+			if (roomRange != null) {
+				roomRanges.add(roomRange);
 			}
 		}
-
-		BlockProvider block = airBlock.get(y);
-		return block == null ? BlockProvider.AIR : block;
+		return new AirBlocks(tagRanges, roomRanges, airBlock);
 	}
 
 	public BlockStateHolder<?> getBaseBlock() {
@@ -358,6 +357,14 @@ public class CaveStyle {
 		return centroidVaryMaxY;
 	}
 
+	/**
+	 * Whether generation passes should visit centroids in Morton order of their subchunk, rather than the order they
+	 * were generated in. Changes which cave a given seed generates.
+	 */
+	public boolean usesMortonOrder() {
+		return mortonOrder;
+	}
+
 	public int getStartY() {
 		return startY;
 	}
@@ -401,4 +408,41 @@ public class CaveStyle {
 	public Set<Material> getCannotPlace() {
 		return cannotPlace;
 	}
+
+	public static final class AirBlocks {
+		private final List<BlockTypeRange<Double>> tagRanges;
+		private final List<BlockTypeRange<Double>> roomRanges;
+		private final BlockTypeRange<Integer> airBlock;
+
+		private AirBlocks(List<BlockTypeRange<Double>> tagRanges, List<BlockTypeRange<Double>> roomRanges, BlockTypeRange<Integer> airBlock) {
+			this.tagRanges = tagRanges;
+			this.roomRanges = roomRanges;
+			this.airBlock = airBlock;
+		}
+
+		public BlockProvider get(int y, Centroid currentCentroid, int minRoomY, int maxRoomY) {
+			if (!tagRanges.isEmpty()) {
+				double yInCentroid = (double) (y - currentCentroid.pos.getBlockY() + currentCentroid.size) / (currentCentroid.size + currentCentroid.size);
+				for (BlockTypeRange<Double> range : tagRanges) {
+					BlockProvider block = range.get(yInCentroid);
+					if (block != null) {
+						return block;
+					}
+				}
+			}
+
+			if (!roomRanges.isEmpty()) {
+				double yInRoom = (double) (y - minRoomY) / (maxRoomY - minRoomY);
+				for (BlockTypeRange<Double> range : roomRanges) {
+					BlockProvider block = range.get(yInRoom);
+					if (block != null) {
+						return block;
+					}
+				}
+			}
+
+			BlockProvider block = airBlock.getInt(y);
+			return block == null ? BlockProvider.AIR : block;
+		}
+	}
 }
@@ -1,24 +1,33 @@
 package com.gmail.sharpcastle33.did.config;
 
 import com.gmail.sharpcastle33.did.DescentIntoDarkness;
+import com.gmail.sharpcastle33.did.generator.structure.SchematicStructure;
+import com.gmail.sharpcastle33.did.generator.structure.Structure;
 import org.bukkit.Bukkit;
 import org.bukkit.DyeColor;
 import org.bukkit.configuration.Configuration;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.MemoryConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.InvalidDescriptionException;
+import org.bukkit.plugin.PluginDescriptionFile;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
@@ -33,29 +42,55 @@ public class CaveStyles {
 	private final Map<DyeColor, CaveStyleGroup> groups = new HashMap<>();
 	private Configuration caveStylesConfig;
 	private NavigableMap<String, CaveStyle> caveStyles = null;
+	// replaced as a whole on reload, so that other threads always see the fingerprints of one complete load
+	private volatile Map<String, StyleFingerprint> fingerprints = Collections.emptyMap();
+	@Nullable
+	private static String pluginVersion;
+	private boolean validateBiomes = true;
+
+	/**
+	 * Sets whether biome names are checked when loading styles. Biomes can only be checked inside the server.
+	 */
+	public void setValidateBiomes(boolean validateBiomes) {
+		this.validateBiomes = validateBiomes;
+	}
 
 	public void reload(ConfigurationSection config) {
-		groups.clear();
-		ConfigurationSection caveStylesGroupsSection = config.getConfigurationSection("caveStyleGroups");
-		if (caveStylesGroupsSection != null) {
-			for (String colorName : caveStylesGroupsSection.getKeys(false)) {
-				DyeColor color = ConfigUtil.tryParseEnum(DyeColor.class, colorName);
-				ConfigurationSection groupSection = caveStylesGroupsSection.getConfigurationSection(colorName);
-				if (color != null && groupSection != null) {
-					groups.put(color, new CaveStyleGroup(groupSection));
-				}
-			}
-		}
+		reload(config, DescentIntoDarkness.instance.getDataFolder(), true);
+	}
 
+	/**
+	 * Loads the cave styles from the given data folder without writing the default style to it, for use outside the
+	 * server.
+	 */
+	public void reload(ConfigurationSection config, File dataFolder) {
+		reload(config, dataFolder, false);
+	}
+
+	/**
+	 * Loads the cave styles from the given files only, for use outside the server. The files must define the default
+	 * style.
+	 */
+	public void reload(ConfigurationSection config, List<File> caveStyleFiles) {
+		loadGroups(config);
 		Bukkit.getLogger().info("Loading cave styles...");
-		File caveStylesDir = new File(DescentIntoDarkness.instance.getDataFolder(), "caveStyles");
-		//noinspection ResultOfMethodCallIgnored
-		caveStylesDir.mkdirs();
+		loadCaveStyleFiles(caveStyleFiles);
+	}
 
-		try {
-			Files.copy(Objects.requireNonNull(DescentIntoDarkness.instance.getResource("defaultCaveStyles.yml")), new File(caveStylesDir, "default.yml").toPath(), StandardCopyOption.REPLACE_EXISTING);
-		} catch (IOException e) {
-			Bukkit.getLogger().log(Level.SEVERE, "Failed to write default cave style", e);
+	private void reload(ConfigurationSection config, File dataFolder, boolean writeDefaultStyle) {
+		loadGroups(config);
+
+		Bukkit.getLogger().info("Loading cave styles...");
+		File caveStylesDir = new File(dataFolder, "caveStyles");
+		if (writeDefaultStyle) {
+			//noinspection ResultOfMethodCallIgnored
+			caveStylesDir.mkdirs();
+
+			try {
+				Files.copy(Objects.requireNonNull(DescentIntoDarkness.instance.getResource("defaultCaveStyles.yml")), new File(caveStylesDir, "default.yml").toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e) {
+				Bukkit.getLogger().log(Level.SEVERE, "Failed to write default cave style", e);
+			}
 		}
 
 		List<File> caveStyleFiles;
@@ -65,6 +100,24 @@ public class CaveStyles {
 			e.printStackTrace();
 			return;
 		}
+		loadCaveStyleFiles(caveStyleFiles);
+	}
+
+	private void loadGroups(ConfigurationSection config) {
+		groups.clear();
+		ConfigurationSection caveStylesGroupsSection = config.getConfigurationSection("caveStyleGroups");
+		if (caveStylesGroupsSection != null) {
+			for (String colorName : caveStylesGroupsSection.getKeys(false)) {
+				DyeColor color = ConfigUtil.tryParseEnum(DyeColor.class, colorName);
+				ConfigurationSection groupSection = caveStylesGroupsSection.getConfigurationSection(colorName);
+				if (color != null && groupSection != null) {
+					groups.put(color, new CaveStyleGroup(groupSection));
+				}
+			}
+		}
+	}
+
+	private void loadCaveStyleFiles(List<File> caveStyleFiles) {
 		caveStylesConfig = new MemoryConfiguration();
 		for (File caveStyleFile : caveStyleFiles) {
 			YamlConfiguration localConfig = ConfigUtil.loadConfiguration(caveStyleFile);
@@ -78,6 +131,100 @@ public class CaveStyles {
 		getCaveStylesByName();
 	}
 
+	private static StyleFingerprint fingerprint(ConfigurationSection section, CaveStyle style) {
+		YamlConfiguration serialized = new YamlConfiguration();
+		section.getValues(true).forEach((key, value) -> {
+			if (!(value instanceof ConfigurationSection)) {
+				serialized.set(key, value);
+			}
+		});
+		byte[] configHash = createDigest().digest(serialized.saveToString().getBytes(StandardCharsets.UTF_8));
+		return new StyleFingerprint(configHash, new ArrayList<>(getReferencedSchematics(style)));
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Gets the version of the plugin. Outside the server it is read from the plugin.yml on the class path, which comes
+	 * from the plugin jar for a worker process.
+	 */
+	private static synchronized String getPluginVersion() {
+		if (pluginVersion == null) {
+			if (DescentIntoDarkness.instance != null) {
+				pluginVersion = DescentIntoDarkness.instance.getDescription().getVersion();
+				return pluginVersion;
+			}
+			try (InputStream in = CaveStyles.class.getResourceAsStream("/plugin.yml")) {
+				pluginVersion = in == null ? "" : new PluginDescriptionFile(in).getVersion();
+			} catch (IOException | InvalidDescriptionException e) {
+				Bukkit.getLogger().log(Level.WARNING, "Failed to read the plugin version", e);
+				pluginVersion = "";
+			}
+		}
+		return pluginVersion;
+	}
+
+	/**
+	 * Gets the SHA-256 hash of the config of the given cave style after inheritance, the contents of the schematics it
+	 * places and the plugin version, which changes whenever the style or one of its schematics is edited or the plugin
+	 * is updated. Safe to call from any thread once the styles are loaded.
+	 */
+	@Nullable
+	public String getFingerprint(String styleName) {
+		getCaveStylesByName();
+		StyleFingerprint fingerprint = fingerprints.get(styleName);
+		if (fingerprint == null) {
+			return null;
+		}
+		// the schematics are hashed here rather than on load, since they can be replaced without reloading the styles
+		MessageDigest digest = createDigest();
+		digest.update(fingerprint.configHash);
+		SchematicCache schematicCache = SchematicCache.getInstance();
+		for (String schematic : fingerprint.schematics) {
+			digest.update(schematic.getBytes(StandardCharsets.UTF_8));
+			byte[] fileHash = schematicCache.getFileHash(schematic);
+			if (fileHash != null) {
+				digest.update(fileHash);
+			}
+		}
+		digest.update(getPluginVersion().getBytes(StandardCharsets.UTF_8));
+		byte[] hash = digest.digest();
+		StringBuilder sb = new StringBuilder(hash.length * 2);
+		for (byte b : hash) {
+			sb.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+		}
+		return sb.toString();
+	}
+
+	public Set<String> getReferencedSchematics() {
+		Set<String> schematics = new LinkedHashSet<>();
+		for (CaveStyle style : getCaveStylesByName().values()) {
+			schematics.addAll(getReferencedSchematics(style));
+		}
+		return schematics;
+	}
+
+	private static Set<String> getReferencedSchematics(CaveStyle style) {
+		Set<String> schematics = new LinkedHashSet<>();
+		for (Structure structure : style.getStructures()) {
+			if (structure instanceof SchematicStructure) {
+				schematics.addAll(((SchematicStructure) structure).getSchematicNames());
+			}
+		}
+		for (Structure portal : style.getPortals()) {
+			if (portal instanceof SchematicStructure) {
+				schematics.addAll(((SchematicStructure) portal).getSchematicNames());
+			}
+		}
+		return schematics;
+	}
+
 	public Map<DyeColor, CaveStyleGroup> getGroups() {
 		return groups;
 	}
@@ -85,6 +232,8 @@ public class CaveStyles {
 	public NavigableMap<String, CaveStyle> getCaveStylesByName() {
 		if (caveStyles == null) {
 			caveStyles = new TreeMap<>();
+			Map<String, StyleFingerprint> newFingerprints = new HashMap<>();
+			fingerprints = Collections.emptyMap();
 
 			try {
 				Set<String> styleStack = new HashSet<>();
@@ -107,11 +256,14 @@ public class CaveStyles {
 					if (value == null) {
 						throw new InvalidConfigException("Cave style \"" + styleName + "\" has invalid type");
 					}
-					caveStyles.put(styleName, CaveStyle.deserialize(styleName, value));
+					CaveStyle style = CaveStyle.deserialize(styleName, value, validateBiomes);
+					caveStyles.put(styleName, style);
+					newFingerprints.put(styleName, fingerprint(value, style));
 				} catch (InvalidConfigException e) {
 					Bukkit.getLogger().log(Level.SEVERE, "Failed to load cave style " + styleName, e);
 				}
 			}
+			fingerprints = Collections.unmodifiableMap(newFingerprints);
 		}
 		return caveStyles;
 	}
@@ -310,5 +462,19 @@ public class CaveStyles {
 		public boolean isEmpty() {
 			return weights.isEmpty();
 		}
+
+		public Map<String, Integer> asMap() {
+			return Collections.unmodifiableMap(weights);
+		}
+	}
+
+	private static final class StyleFingerprint {
+		private final byte[] configHash;
+		private final List<String> schematics;
+
+		private StyleFingerprint(byte[] configHash, List<String> schematics) {
+			this.configHash = configHash;
+			this.schematics = schematics;
+		}
 	}
 }
@@ -4,6 +4,7 @@ import com.comphenix.protocol.reflect.ExactReflection;
 import com.gmail.sharpcastle33.did.compat.NobilityItems;
 import com.gmail.sharpcastle33.did.provider.BlockPredicate;
 import com.gmail.sharpcastle33.did.provider.BlockProvider;
+import com.gmail.sharpcastle33.did.provider.CompiledBlockPredicate;
 import com.google.common.collect.Lists;
 import com.sk89q.worldedit.WorldEdit;
 import com.sk89q.worldedit.bukkit.BukkitAdapter;
@@ -27,6 +28,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -54,8 +56,7 @@ public class ConfigUtil {
 
 	public static BlockPredicate parseBlockPredicate(Object val) {
 		if (val instanceof String) {
-			BlockStateHolder<?> wantedBlock = parseBlock((String) val);
-			return wantedBlock::equalsFuzzy;
+			return CompiledBlockPredicate.fuzzy(Collections.singletonList(parseBlock((String) val)));
 		} else if (val instanceof List<?>) {
 			List<?> list = (List<?>) val;
 			List<BlockStateHolder<?>> blocks = new ArrayList<>();
@@ -65,12 +66,12 @@ public class ConfigUtil {
 				}
 				blocks.add(parseBlock((String) o));
 			}
-			return block -> blocks.stream().anyMatch(it -> it.equalsFuzzy(block));
+			return CompiledBlockPredicate.fuzzy(blocks);
 		} else if (isConfigurationSection(val)) {
 			ConfigurationSection map = asConfigurationSection(val);
 			boolean inverted = map.getBoolean("inverted", false);
-			BlockPredicate predicate = parseBlockPredicate(require(map, "block"));
-			return block -> predicate.test(block) != inverted;
+			CompiledBlockPredicate predicate = CompiledBlockPredicate.compile(parseBlockPredicate(require(map, "block")));
+			return inverted ? predicate.inverted() : predicate;
 		} else {
 			throw new InvalidConfigException("Invalid block predicate: " + val);
 		}
@@ -97,6 +98,9 @@ public class ConfigUtil {
 				if (!(blocks instanceof List<?>)) {
 					throw new InvalidConfigException("Block provider type \"roomWeighted\" requires a list of blocks");
 				}
+				if (((List<?>) blocks).isEmpty()) {
+					throw new InvalidConfigException("Block provider list is empty");
+				}
 				List<BlockProvider> providers = new ArrayList<>();
 				List<Integer> weights = new ArrayList<>();
 				for (Object block : (List<?>) blocks) {
@@ -1,9 +1,13 @@
 package com.gmail.sharpcastle33.did.config;
 
 import com.gmail.sharpcastle33.did.provider.BlockPredicate;
+import com.gmail.sharpcastle33.did.provider.CompiledBlockPredicate;
 import org.bukkit.configuration.ConfigurationSection;
 
 public final class MobSpawnEntry {
+	private static final BlockPredicate DEFAULT_CAN_SPAWN_ON = CompiledBlockPredicate.compile(block -> block.getMaterial().isSolid());
+	private static final BlockPredicate DEFAULT_CAN_SPAWN_IN = CompiledBlockPredicate.compile(block -> !block.getMaterial().isMovementBlocker() && !block.getMaterial().isLiquid());
+
 	private final String name;
 	private final String mob;
 	private final int singleMobCost;
@@ -153,8 +157,8 @@ public final class MobSpawnEntry {
 		double xSize = map.getDouble("xSize", 0);
 		double ySize = map.getDouble("ySize", 0);
 		double zSize = map.getDouble("zSize",0);
-		BlockPredicate canSpawnOn = map.contains("canSpawnOn") ? ConfigUtil.parseBlockPredicate(map.get("canSpawnOn")) : block -> block.getMaterial().isSolid();
-		BlockPredicate canSpawnIn = map.contains("canSpawnIn") ? ConfigUtil.parseBlockPredicate(map.get("canSpawnIn")) : block -> !block.getMaterial().isMovementBlocker() && !block.getMaterial().isLiquid();
+		BlockPredicate canSpawnOn = map.contains("canSpawnOn") ? ConfigUtil.parseBlockPredicate(map.get("canSpawnOn")) : DEFAULT_CAN_SPAWN_ON;
+		BlockPredicate canSpawnIn = map.contains("canSpawnIn") ? ConfigUtil.parseBlockPredicate(map.get("canSpawnIn")) : DEFAULT_CAN_SPAWN_IN;
 		boolean centeredSpawn = map.getBoolean("centeredSpawn", false);
 		boolean randomRotation = map.getBoolean("randomRotation", true);
 		return new MobSpawnEntry(name, mob, singleMobCost, minPackCost, maxPackCost, weight, minDistance, maxDistance, cooldown, despawnRange, xSize, ySize, zSize, canSpawnOn, canSpawnIn, centeredSpawn, randomRotation);
@@ -0,0 +1,323 @@
+package com.gmail.sharpcastle33.did.config;
+
+import com.gmail.sharpcastle33.did.DescentIntoDarkness;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.extent.clipboard.io.ClipboardFormat;
+import com.sk89q.worldedit.extent.clipboard.io.ClipboardFormats;
+import com.sk89q.worldedit.extent.clipboard.io.ClipboardReader;
+import com.sk89q.worldedit.math.BlockVector3;
+import org.bukkit.Bukkit;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+
+/**
+ * Holds parsed schematics, keyed by file path and modification time. The cache is bounded by the total number of
+ * blocks held, evicting the least recently used schematics first. Safe to use from any thread.
+ */
+public class SchematicCache {
+	public static final long DEFAULT_MAX_BLOCKS = 16 * 1024 * 1024;
+
+	private final LinkedHashMap<String, CachedSchematic> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, CompletableFuture<Clipboard>> loading = new HashMap<>();
+	private final Map<String, FileHash> fileHashes = new HashMap<>();
+	private long maxBlocks = DEFAULT_MAX_BLOCKS;
+	private long cachedBlocks;
+
+	private long hits;
+	private long misses;
+	private long loads;
+	private long loadFailures;
+	private long evictions;
+	private long totalLoadNanos;
+
+	@Nullable
+	private static SchematicCache standaloneInstance;
+	@Nullable
+	private final File schematicDir;
+
+	public SchematicCache() {
+		this(null);
+	}
+
+	/**
+	 * Creates a cache reading schematics from the given folder, or from the plugin's schematics folder if null.
+	 */
+	public SchematicCache(@Nullable File schematicDir) {
+		this.schematicDir = schematicDir;
+	}
+
+	/**
+	 * Gets the schematic cache of the plugin, or the cache set with {@link #setStandaloneInstance} when running
+	 * outside the server.
+	 */
+	public static SchematicCache getInstance() {
+		if (standaloneInstance != null) {
+			return standaloneInstance;
+		}
+		return DescentIntoDarkness.instance.getSchematicCache();
+	}
+
+	public static void setStandaloneInstance(@Nullable SchematicCache standaloneInstance) {
+		SchematicCache.standaloneInstance = standaloneInstance;
+	}
+
+	public File getSchematicDir() {
+		File schemDir = schematicDir != null ? schematicDir : new File(DescentIntoDarkness.instance.getDataFolder(), "schematics");
+		if (!schemDir.exists()) {
+			//noinspection ResultOfMethodCallIgnored
+			schemDir.mkdirs();
+		}
+		return schemDir;
+	}
+
+	public File getSchematicFile(String name) {
+		return new File(getSchematicDir(), name + ".schem");
+	}
+
+	public boolean exists(String name) {
+		return getSchematicFile(name).exists();
+	}
+
+	public synchronized void setMaxBlocks(long maxBlocks) {
+		this.maxBlocks = maxBlocks;
+		evict();
+	}
+
+	@Nullable
+	public Clipboard get(String name) {
+		return get(name, true);
+	}
+
+	@Nullable
+	private Clipboard get(String name, boolean countUsage) {
+		File file = getSchematicFile(name);
+		if (!file.exists()) {
+			return null;
+		}
+		String path = file.getAbsolutePath();
+		long lastModified = file.lastModified();
+
+		CompletableFuture<Clipboard> future;
+		boolean shouldLoad = false;
+		synchronized (this) {
+			CachedSchematic cached = cache.get(path);
+			if (cached != null && cached.lastModified == lastModified) {
+				if (countUsage) {
+					hits++;
+				}
+				return cached.data;
+			}
+			if (countUsage) {
+				misses++;
+			}
+			future = loading.get(path);
+			if (future == null) {
+				future = new CompletableFuture<>();
+				loading.put(path, future);
+				shouldLoad = true;
+			}
+		}
+
+		if (shouldLoad) {
+			Clipboard data = null;
+			Throwable failure = null;
+			try {
+				data = load(file);
+				return data;
+			} catch (Throwable e) {
+				failure = e;
+				throw e;
+			} finally {
+				// always complete the future, or the other threads waiting for this schematic would block forever
+				synchronized (this) {
+					loading.remove(path);
+					if (data == null) {
+						loadFailures++;
+					} else {
+						put(path, new CachedSchematic(data, lastModified, getBlockCount(data)));
+					}
+				}
+				if (failure != null) {
+					future.completeExceptionally(failure);
+				} else {
+					future.complete(data);
+				}
+			}
+		}
+
+		return future.join();
+	}
+
+	/**
+	 * Gets the SHA-256 hash of the contents of the given schematic file, or null if it doesn't exist or can't be read.
+	 * The hash is kept until the file is modified.
+	 */
+	@Nullable
+	public byte[] getFileHash(String name) {
+		File file = getSchematicFile(name);
+		if (!file.exists()) {
+			return null;
+		}
+		String path = file.getAbsolutePath();
+		long lastModified = file.lastModified();
+		synchronized (this) {
+			FileHash cached = fileHashes.get(path);
+			if (cached != null && cached.lastModified == lastModified) {
+				return cached.hash;
+			}
+		}
+
+		byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file.toPath()));
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		} catch (IOException e) {
+			Bukkit.getLogger().log(Level.SEVERE, "Failed to read schematic " + file.getName(), e);
+			return null;
+		}
+		synchronized (this) {
+			fileHashes.put(path, new FileHash(hash, lastModified));
+		}
+		return hash;
+	}
+
+	/**
+	 * Parses the given schematics in parallel in the background, without counting towards the usage statistics.
+	 */
+	public CompletableFuture<Void> preload(Collection<String> names) {
+		long startTime = System.nanoTime();
+		List<CompletableFuture<Clipboard>> futures = new ArrayList<>(names.size());
+		for (String name : names) {
+			futures.add(DescentIntoDarkness.instance.supplyAsync(() -> get(name, false)));
+		}
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete((v, throwable) -> {
+			if (throwable != null) {
+				Bukkit.getLogger().log(Level.SEVERE, "Failed to preload schematics", throwable);
+			} else {
+				Bukkit.getLogger().info(String.format("Preloaded %d schematics in %dms", names.size(), (System.nanoTime() - startTime) / 1000000));
+			}
+		});
+	}
+
+	@Nullable
+	private Clipboard load(File file) {
+		long startTime = System.nanoTime();
+		try {
+			ClipboardFormat format = ClipboardFormats.findByFile(file);
+			if (format == null) {
+				Bukkit.getLogger().log(Level.SEVERE, "Unknown schematic format: " + file.getName());
+				return null;
+			}
+			try (ClipboardReader reader = format.getReader(new FileInputStream(file))) {
+				return reader.read();
+			} catch (IOException e) {
+				Bukkit.getLogger().log(Level.SEVERE, "Failed to read schematic " + file.getName(), e);
+				return null;
+			}
+		} finally {
+			synchronized (this) {
+				loads++;
+				totalLoadNanos += System.nanoTime() - startTime;
+			}
+		}
+	}
+
+	private void put(String path, CachedSchematic schematic) {
+		CachedSchematic old = cache.put(path, schematic);
+		if (old != null) {
+			cachedBlocks -= old.blockCount;
+		}
+		cachedBlocks += schematic.blockCount;
+		evict();
+	}
+
+	private void evict() {
+		// always keep the most recently used schematic, even if it alone exceeds the limit
+		Iterator<CachedSchematic> itr = cache.values().iterator();
+		while (cachedBlocks > maxBlocks && cache.size() > 1 && itr.hasNext()) {
+			cachedBlocks -= itr.next().blockCount;
+			itr.remove();
+			evictions++;
+		}
+	}
+
+	private static long getBlockCount(Clipboard data) {
+		BlockVector3 size = data.getRegion().getDimensions();
+		return (long) size.getX() * size.getY() * size.getZ();
+	}
+
+	public synchronized Stats getStats() {
+		return new Stats(cache.size(), cachedBlocks, maxBlocks, hits, misses, loads, loadFailures, evictions, totalLoadNanos);
+	}
+
+	private static class CachedSchematic {
+		private final Clipboard data;
+		private final long lastModified;
+		private final long blockCount;
+
+		private CachedSchematic(Clipboard data, long lastModified, long blockCount) {
+			this.data = data;
+			this.lastModified = lastModified;
+			this.blockCount = blockCount;
+		}
+	}
+
+	private static class FileHash {
+		private final byte[] hash;
+		private final long lastModified;
+
+		private FileHash(byte[] hash, long lastModified) {
+			this.hash = hash;
+			this.lastModified = lastModified;
+		}
+	}
+
+	public static class Stats {
+		public final int size;
+		public final long cachedBlocks;
+		public final long maxBlocks;
+		public final long hits;
+		public final long misses;
+		public final long loads;
+		public final long loadFailures;
+		public final long evictions;
+		public final long totalLoadNanos;
+
+		private Stats(int size, long cachedBlocks, long maxBlocks, long hits, long misses, long loads, long loadFailures, long evictions, long totalLoadNanos) {
+			this.size = size;
+			this.cachedBlocks = cachedBlocks;
+			this.maxBlocks = maxBlocks;
+			this.hits = hits;
+			this.misses = misses;
+			this.loads = loads;
+			this.loadFailures = loadFailures;
+			this.evictions = evictions;
+			this.totalLoadNanos = totalLoadNanos;
+		}
+
+		public double getHitRate() {
+			long total = hits + misses;
+			return total == 0 ? 0 : (double) hits / total;
+		}
+
+		public double getAverageLoadMillis() {
+			return loads == 0 ? 0 : totalLoadNanos / 1000000.0 / loads;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package com.gmail.sharpcastle33.did.generator;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Lets other threads ask a running generation to stop. The generation checks the token in its loops, see
+ * {@link CaveGenContext#checkCanceled}.
+ */
+public final class CancellationToken {
+	@Nullable
+	private volatile String reason;
+
+	/**
+	 * Cancels the generation, keeping the first reason given if it was already canceled.
+	 */
+	public synchronized void cancel(String reason) {
+		if (this.reason == null) {
+			this.reason = reason;
+		}
+	}
+
+	public boolean isCanceled() {
+		return reason != null;
+	}
+
+	@Nullable
+	public String getReason() {
+		return reason;
+	}
+}
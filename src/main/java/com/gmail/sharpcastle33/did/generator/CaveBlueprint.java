@@ -0,0 +1,171 @@
+package com.gmail.sharpcastle33.did.generator;
+
+import com.gmail.sharpcastle33.did.Util;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.math.BlockVector2;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.math.Vector3;
+import com.sk89q.worldedit.math.transform.AffineTransform;
+import com.sk89q.worldedit.world.block.BlockState;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The blocks of a finished cave, which can be stamped into another instance slot instead of generating a new cave.
+ * Positions are stored relative to the chunk-aligned origin of the slot the cave was generated in, so that a
+ * blueprint can be stamped into any slot, rotated by quarter turns and mirrored.
+ */
+public final class CaveBlueprint {
+	private static final int FORMAT_VERSION = 2;
+
+	private final String styleName;
+	private final long seed;
+	private final BlockVector3 origin;
+	private final BlockVector3 relativeSpawnPos;
+	private final List<BlockVector2> relativeChunks;
+	private final PackedBlockStorage blocks;
+
+	private CaveBlueprint(String styleName, long seed, BlockVector3 origin, BlockVector3 relativeSpawnPos, List<BlockVector2> relativeChunks, PackedBlockStorage blocks) {
+		this.styleName = styleName;
+		this.seed = seed;
+		this.origin = origin;
+		this.relativeSpawnPos = relativeSpawnPos;
+		this.relativeChunks = relativeChunks;
+		this.blocks = blocks;
+	}
+
+	/**
+	 * Captures the blocks the context has generated so far. Must be called before the context is closed, and the
+	 * context must not be written to afterwards. The origin must be chunk-aligned.
+	 */
+	public static CaveBlueprint capture(CaveGenContext ctx, BlockVector3 origin, BlockVector3 spawnPos) {
+		BlockVector2 originChunk = BlockVector2.at(origin.getX() >> 4, origin.getZ() >> 4);
+		List<BlockVector2> relativeChunks = new ArrayList<>(ctx.getAccessedChunks().size());
+		for (BlockVector2 chunk : ctx.getAccessedChunks()) {
+			relativeChunks.add(chunk.subtract(originChunk));
+		}
+		return new CaveBlueprint(ctx.style.getName(), ctx.caveSeed, origin, spawnPos.subtract(origin), relativeChunks, ctx.getBlockStorage());
+	}
+
+	/**
+	 * Writes the blueprint into the context with its origin at the given chunk-aligned position, mirrored along the x
+	 * axis if {@code mirror} is set and rotated around the origin by the given number of quarter turns. Returns the
+	 * transformed spawn position.
+	 */
+	public BlockVector3 stamp(CaveGenContext ctx, BlockVector3 newOrigin, int quarterTurns, boolean mirror) throws MaxChangedBlocksException {
+		AffineTransform transform = new AffineTransform().rotateY(90 * Math.floorMod(quarterTurns, 4));
+		if (mirror) {
+			transform = transform.scale(-1, 1, 1);
+		}
+		AffineTransform finalTransform = transform;
+
+		ctx.setPhase("stamping blueprint");
+		BlockVector2 newOriginChunk = BlockVector2.at(newOrigin.getX() >> 4, newOrigin.getZ() >> 4);
+		for (BlockVector2 chunk : relativeChunks) {
+			Vector3 center = finalTransform.apply(Vector3.at(chunk.getX() * 16 + 8, 0, chunk.getZ() * 16 + 8));
+			ctx.ensureChunkGenerated(newOriginChunk.add(Math.floorDiv((int) Math.floor(center.getX()), 16), Math.floorDiv((int) Math.floor(center.getZ()), 16)));
+		}
+
+		Map<BlockState, BlockState> transformedBlocks = new HashMap<>();
+		try {
+			blocks.forEachBlock((x, y, z, block) -> {
+				BlockState transformedBlock = transformedBlocks.computeIfAbsent(block, k -> Util.transformBlock(k, finalTransform).toImmutableState());
+				try {
+					ctx.setBlock(transformPos(finalTransform, newOrigin, x - origin.getX(), y - origin.getY(), z - origin.getZ()), transformedBlock);
+				} catch (MaxChangedBlocksException e) {
+					throw new StampException(e);
+				}
+			});
+		} catch (StampException e) {
+			throw e.getCause();
+		}
+
+		return transformPos(transform, newOrigin, relativeSpawnPos.getX(), relativeSpawnPos.getY(), relativeSpawnPos.getZ());
+	}
+
+	private static BlockVector3 transformPos(AffineTransform transform, BlockVector3 newOrigin, int x, int y, int z) {
+		// transform block centers, so that rotating and mirroring maps whole blocks (and chunks) onto each other
+		Vector3 pos = transform.apply(Vector3.at(x + 0.5, y + 0.5, z + 0.5));
+		return newOrigin.add((int) Math.floor(pos.getX()), (int) Math.floor(pos.getY()), (int) Math.floor(pos.getZ()));
+	}
+
+	public String getStyleName() {
+		return styleName;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void write(OutputStream output) throws IOException {
+		GZIPOutputStream gzip = new GZIPOutputStream(output);
+		DataOutputStream out = new DataOutputStream(gzip);
+		out.writeInt(FORMAT_VERSION);
+		out.writeUTF(styleName);
+		out.writeLong(seed);
+		writePos(out, origin);
+		writePos(out, relativeSpawnPos);
+		out.writeInt(relativeChunks.size());
+		for (BlockVector2 chunk : relativeChunks) {
+			out.writeInt(chunk.getX());
+			out.writeInt(chunk.getZ());
+		}
+		blocks.write(out);
+		out.flush();
+		gzip.finish();
+	}
+
+	public static CaveBlueprint read(InputStream input) throws IOException {
+		DataInputStream in = new DataInputStream(new GZIPInputStream(input));
+		int version = in.readInt();
+		if (version != FORMAT_VERSION) {
+			throw new IOException("Unsupported blueprint version " + version);
+		}
+		String styleName = in.readUTF();
+		long seed = in.readLong();
+		BlockVector3 origin = readPos(in);
+		BlockVector3 relativeSpawnPos = readPos(in);
+		int chunkCount = in.readInt();
+		if (chunkCount < 0) {
+			throw new IOException("Invalid chunk count " + chunkCount);
+		}
+		List<BlockVector2> relativeChunks = new ArrayList<>(chunkCount);
+		for (int i = 0; i < chunkCount; i++) {
+			relativeChunks.add(BlockVector2.at(in.readInt(), in.readInt()));
+		}
+		PackedBlockStorage blocks = PackedBlockStorage.read(in);
+		return new CaveBlueprint(styleName, seed, origin, relativeSpawnPos, Collections.unmodifiableList(relativeChunks), blocks);
+	}
+
+	private static void writePos(DataOutputStream out, BlockVector3 pos) throws IOException {
+		out.writeInt(pos.getX());
+		out.writeInt(pos.getY());
+		out.writeInt(pos.getZ());
+	}
+
+	private static BlockVector3 readPos(DataInputStream in) throws IOException {
+		return BlockVector3.at(in.readInt(), in.readInt(), in.readInt());
+	}
+
+	private static class StampException extends RuntimeException {
+		private StampException(MaxChangedBlocksException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized MaxChangedBlocksException getCause() {
+			return (MaxChangedBlocksException) super.getCause();
+		}
+	}
+}
@@ -2,7 +2,6 @@ package com.gmail.sharpcastle33.did.generator;
 
 import com.gmail.sharpcastle33.did.Util;
 import com.gmail.sharpcastle33.did.config.CaveStyle;
-import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.WorldEdit;
 import com.sk89q.worldedit.WorldEditException;
@@ -10,6 +9,7 @@ import com.sk89q.worldedit.extent.AbstractDelegateExtent;
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.math.BlockVector2;
 import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.math.Vector3;
 import com.sk89q.worldedit.math.transform.Identity;
 import com.sk89q.worldedit.math.transform.Transform;
 import com.sk89q.worldedit.regions.CuboidRegion;
@@ -22,16 +22,23 @@ import com.sk89q.worldedit.world.block.BlockTypes;
 import org.bukkit.Bukkit;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 public class CaveGenContext implements AutoCloseable {
-	private final EditSession session;
+	private final WorldSink sink;
 	public final CaveStyle style;
 	public final Random rand;
 	public final long caveSeed;
@@ -42,24 +49,55 @@ public class CaveGenContext implements AutoCloseable {
 	private final Deque<Transform> inverseBlockTransformStack = new LinkedList<>(Collections.singletonList(new Identity()));
 	private final Deque<Transform> locationTransformStack = new LinkedList<>(Collections.singletonList(new Identity()));
 	private final Deque<Transform> inverseLocationTransformStack = new LinkedList<>(Collections.singletonList(new Identity()));
+	private final Map<BlockVector3, ConnectionRule> connectionUpdates = new LinkedHashMap<>();
+	private final Map<Object, int[]> roomChoices = new IdentityHashMap<>();
+	private final Map<List<String>, CaveStyle.AirBlocks> airBlocksByTags = new IdentityHashMap<>();
 	private Region limit = null;
-	private boolean canceled = false;
+	private long blocksChanged;
+	private int structuresPlaced;
+	private CancellationToken cancellationToken = new CancellationToken();
+	private long maxBlocksChanged;
+	@Nullable
+	private GenerationThrottle throttle;
+	private volatile long throttledNanos;
+	private volatile String phase = "starting";
+	private final GenerationProfile profile = new GenerationProfile();
 	@Nullable
 	private BlockVector3 spawnPos;
+	@Nullable
+	private CentroidBuffer centroids;
+	@Nullable
+	private Consumer<GenerationCheckpoint> checkpointConsumer;
+	private String styleFingerprint = "";
 
-	private CaveGenContext(EditSession session, CaveStyle style, long caveSeed) {
-		this.session = session;
+	private CaveGenContext(WorldSink sink, CaveStyle style, long caveSeed, Random rand, PackedBlockStorage blockStorage) {
+		this.sink = sink;
 		this.style = style;
-		this.rand = new Random(caveSeed);
+		this.rand = rand;
 		this.caveSeed = caveSeed;
-		this.blockStorage = new PackedBlockStorage(style.getBaseBlock().toImmutableState());
+		this.blockStorage = blockStorage;
 	}
 
+	/**
+	 * Adds the chunks accessed so far to the given set, and keeps adding chunks to it as they are accessed.
+	 */
 	public CaveGenContext outputAccessedChunksTo(Set<BlockVector2> chunks) {
+		chunks.addAll(accessedChunks);
 		this.accessedChunks = chunks;
 		return this;
 	}
 
+	/**
+	 * Passes a checkpoint to the given consumer at the end of each phase, from which the generation can be resumed with
+	 * {@link #resume}. The checkpoint shares state with the context, so it must be saved before the consumer returns.
+	 * The fingerprint identifies the style config, so that stale checkpoints can be discarded.
+	 */
+	public CaveGenContext checkpointTo(@Nullable Consumer<GenerationCheckpoint> checkpointConsumer, String styleFingerprint) {
+		this.checkpointConsumer = checkpointConsumer;
+		this.styleFingerprint = styleFingerprint;
+		return this;
+	}
+
 	public CaveGenContext setDebug(boolean debug) {
 		this.debug = debug;
 		return this;
@@ -75,12 +113,61 @@ public class CaveGenContext implements AutoCloseable {
 	}
 
 	public static CaveGenContext create(World world, CaveStyle style, long caveSeed) {
-		EditSession session = WorldEdit.getInstance().newEditSession(world);
-		return new CaveGenContext(session, style, caveSeed);
+		return create(WorldSink.of(WorldEdit.getInstance().newEditSession(world)), style, caveSeed);
+	}
+
+	public static CaveGenContext create(WorldSink sink, CaveStyle style, long caveSeed) {
+		return new CaveGenContext(sink, style, caveSeed, new Random(caveSeed), new PackedBlockStorage(style.getBaseBlock().toImmutableState()));
+	}
+
+	/**
+	 * Creates a context in the state of the given checkpoint, and writes the blocks generated before the checkpoint
+	 * to the world again. Continue the generation with {@link CaveGenerator#resumeCave}.
+	 */
+	public static CaveGenContext resume(World world, CaveStyle style, GenerationCheckpoint checkpoint) {
+		return resume(WorldSink.of(WorldEdit.getInstance().newEditSession(world)), style, checkpoint);
+	}
+
+	public static CaveGenContext resume(WorldSink sink, CaveStyle style, GenerationCheckpoint checkpoint) {
+		if (!style.getName().equals(checkpoint.getStyleName())) {
+			throw new IllegalArgumentException("Checkpoint is for cave style " + checkpoint.getStyleName() + ", not " + style.getName());
+		}
+		CaveGenContext ctx = new CaveGenContext(sink, style, checkpoint.getSeed(), checkpoint.getRandom(), checkpoint.getBlocks());
+		ctx.setPhase("restoring checkpoint");
+		ctx.blocksChanged = checkpoint.getBlocksChanged();
+		ctx.structuresPlaced = checkpoint.getStructuresPlaced();
+		ctx.spawnPos = checkpoint.getSpawnPos();
+		ctx.centroids = checkpoint.getCentroids();
+		for (BlockVector2 chunk : checkpoint.getAccessedChunks()) {
+			ctx.ensureChunkGenerated(chunk);
+		}
+		ctx.blockStorage.forEachBlock(sink::setBlock);
+		return ctx;
+	}
+
+	/**
+	 * Passes a checkpoint to the checkpoint consumer, if there is one. {@code nextPostProcessStep} is the first post
+	 * processing step that has not run yet.
+	 */
+	void checkpoint(int nextPostProcessStep, String caveString, List<List<Vector3>> roomLocations) {
+		if (checkpointConsumer == null || centroids == null || cancellationToken.isCanceled()) {
+			return;
+		}
+		if (locationTransformStack.size() != 1 || !connectionUpdates.isEmpty()) {
+			throw new IllegalStateException("Cannot checkpoint in the middle of a phase");
+		}
+		checkpointConsumer.accept(new GenerationCheckpoint(style.getName(), styleFingerprint, caveSeed, nextPostProcessStep, caveString, rand,
+				blocksChanged, structuresPlaced, spawnPos, new ArrayList<>(accessedChunks), blockStorage, centroids, roomLocations));
 	}
 
 	private void ensureChunkGenerated(BlockVector3 blockPos) {
-		BlockVector2 chunkPos = BlockVector2.at(blockPos.getX() >> 4, blockPos.getZ() >> 4);
+		ensureChunkGenerated(BlockVector2.at(blockPos.getX() >> 4, blockPos.getZ() >> 4));
+	}
+
+	/**
+	 * Fills the given chunk with the base block, unless the cave has already accessed it.
+	 */
+	public void ensureChunkGenerated(BlockVector2 chunkPos) {
 		if (accessedChunks.add(chunkPos)) {
 			fillChunk(chunkPos);
 		}
@@ -93,6 +180,8 @@ public class CaveGenContext implements AutoCloseable {
 	}
 
 	public boolean setBlock(BlockVector3 pos, BlockStateHolder<?> block) throws MaxChangedBlocksException {
+		checkCanceled();
+		profile.voxelTouches++;
 		block = Util.toRealImmutable(block);
 		pos = getInverseLocationTransform().apply(pos.toVector3()).toBlockPoint();
 		block = Util.transformBlock(block, getInverseBlockTransform());
@@ -103,15 +192,70 @@ public class CaveGenContext implements AutoCloseable {
 			return false;
 		}
 		ensureChunkGenerated(pos);
-		if (session.setBlock(pos, block)) {
+		if (sink.setBlock(pos, block)) {
 			blockStorage.setBlock(pos, block.toImmutableState());
+			blocksChanged++;
 			return true;
 		} else {
 			return false;
 		}
 	}
 
+	/**
+	 * Sets the blocks from yStart to yEnd (inclusive) at the given local x and z. Equivalent to calling
+	 * {@link #setBlock} for each position, but the column is only transformed once, and is written to the block storage
+	 * in one call if it is still vertical in world space.
+	 */
+	public void setColumn(int x, int z, int yStart, int yEnd, BlockStateHolder<?> block) throws MaxChangedBlocksException {
+		if (yEnd < yStart) {
+			return;
+		}
+		checkCanceled();
+		BlockVector3 start = getInverseLocationTransform().apply(Vector3.at(x, yStart, z)).toBlockPoint();
+		BlockVector3 end = getInverseLocationTransform().apply(Vector3.at(x, yEnd, z)).toBlockPoint();
+		if (start.getX() != end.getX() || start.getZ() != end.getZ() || Math.abs(end.getY() - start.getY()) != yEnd - yStart
+				|| (limit != null && !(limit instanceof CuboidRegion))) {
+			for (int y = yStart; y <= yEnd; y++) {
+				setBlock(BlockVector3.at(x, y, z), block);
+			}
+			return;
+		}
+
+		int worldX = start.getX();
+		int worldZ = start.getZ();
+		int minY = Math.max(1, Math.min(start.getY(), end.getY()));
+		int maxY = Math.min(254, Math.max(start.getY(), end.getY()));
+		if (limit != null) {
+			BlockVector3 limitMin = limit.getMinimumPoint();
+			BlockVector3 limitMax = limit.getMaximumPoint();
+			if (worldX < limitMin.getX() || worldX > limitMax.getX() || worldZ < limitMin.getZ() || worldZ > limitMax.getZ()) {
+				return;
+			}
+			minY = Math.max(minY, limitMin.getY());
+			maxY = Math.min(maxY, limitMax.getY());
+		}
+		if (minY > maxY) {
+			return;
+		}
+
+		BlockState worldBlock = Util.transformBlock(Util.toRealImmutable(block), getInverseBlockTransform()).toImmutableState();
+		profile.voxelTouches += maxY - minY + 1;
+		ensureChunkGenerated(BlockVector3.at(worldX, minY, worldZ));
+		// like setBlock, only keep the blocks the sink accepted, writing each run of accepted blocks to the storage at once
+		int runStart = minY;
+		for (int y = minY; y <= maxY + 1; y++) {
+			if (y > maxY || !sink.setBlock(worldX, y, worldZ, worldBlock)) {
+				if (runStart < y) {
+					blockStorage.setColumn(worldX, worldZ, runStart, y - 1, worldBlock);
+					blocksChanged += y - runStart;
+				}
+				runStart = y + 1;
+			}
+		}
+	}
+
 	public BlockState getBlock(BlockVector3 pos) {
+		profile.voxelTouches++;
 		pos = getInverseLocationTransform().apply(pos.toVector3()).toBlockPoint();
 		if (pos.getBlockY() < 0 || pos.getBlockY() > 255) {
 			return Util.requireDefaultState(BlockTypes.AIR);
@@ -128,6 +272,61 @@ public class CaveGenContext implements AutoCloseable {
 		return block;
 	}
 
+	/**
+	 * Gets the air blocks for the given centroid. Centroids in the same room share their tag list, so this is resolved
+	 * once per room.
+	 */
+	public CaveStyle.AirBlocks getAirBlocks(Centroid centroid) {
+		return airBlocksByTags.computeIfAbsent(centroid.tags, style::getAirBlocks);
+	}
+
+	/**
+	 * Gets a choice that only depends on the room, such as the variant picked by a room-weighted block provider. The
+	 * chooser is called at most once per key and room index, after which the choice is cached.
+	 */
+	public int getRoomChoice(Object key, int roomIndex, RoomChooser chooser) {
+		int[] choices = roomChoices.get(key);
+		if (choices == null || roomIndex >= choices.length) {
+			int[] newChoices = new int[Math.max(roomIndex + 1, choices == null ? 16 : choices.length * 2)];
+			Arrays.fill(newChoices, -1);
+			if (choices != null) {
+				System.arraycopy(choices, 0, newChoices, 0, choices.length);
+			}
+			choices = newChoices;
+			roomChoices.put(key, choices);
+		}
+		int choice = choices[roomIndex];
+		if (choice == -1) {
+			choice = chooser.choose(this, roomIndex);
+			choices[roomIndex] = choice;
+		}
+		return choice;
+	}
+
+	/**
+	 * Records that the connection properties of the block at the given position should be recomputed by the given
+	 * rule once all blocks have been placed.
+	 */
+	public void markForConnectionUpdate(BlockVector3 pos, ConnectionRule rule) {
+		pos = getInverseLocationTransform().apply(pos.toVector3()).toBlockPoint();
+		connectionUpdates.put(pos, rule);
+	}
+
+	public void resolveConnections() throws MaxChangedBlocksException {
+		if (locationTransformStack.size() != 1) {
+			throw new IllegalStateException("Cannot resolve connections inside a transform");
+		}
+		for (Map.Entry<BlockVector3, ConnectionRule> entry : connectionUpdates.entrySet()) {
+			BlockVector3 pos = entry.getKey();
+			BlockState block = getBlock(pos);
+			BlockStateHolder<?> resolved = entry.getValue().resolve(this, pos, block);
+			if (!resolved.toImmutableState().equals(block)) {
+				setBlock(pos, resolved);
+			}
+		}
+		connectionUpdates.clear();
+	}
+
 	public void pushTransform(Transform blockTransform, Transform locationTransform) {
 		blockTransform = Util.toDirectionTransform(blockTransform);
 		blockTransformStack.push(getBlockTransform().combine(blockTransform));
@@ -180,7 +379,7 @@ public class CaveGenContext implements AutoCloseable {
 	}
 
 	public Extent asExtent() {
-		return new AbstractDelegateExtent(session) {
+		return new AbstractDelegateExtent(sink.getExtent()) {
 			@Override
 			public BlockState getBlock(BlockVector3 position) {
 				return CaveGenContext.this.getBlock(position);
@@ -214,11 +413,96 @@ public class CaveGenContext implements AutoCloseable {
 	}
 
 	public boolean cancel() {
-		canceled = true;
-		session.cancel();
+		cancellationToken.cancel("Canceled manually");
+		sink.cancel();
 		return true;
 	}
 
+	public CancellationToken getCancellationToken() {
+		return cancellationToken;
+	}
+
+	/**
+	 * Throws a {@link GenerationCanceledException} if the generation has been canceled or has changed more blocks than
+	 * it is allowed to. Called from every loop that can run for a long time.
+	 */
+	public void checkCanceled() {
+		if (maxBlocksChanged > 0 && blocksChanged > maxBlocksChanged) {
+			cancellationToken.cancel("Exceeded the budget of " + maxBlocksChanged + " changed blocks");
+		}
+		String reason = cancellationToken.getReason();
+		if (reason != null) {
+			throw new GenerationCanceledException(reason, phase);
+		}
+	}
+
+	/**
+	 * Uses the given token instead of the context's own, so that the generation can be canceled before it has started.
+	 */
+	public CaveGenContext cancelWith(CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+		return this;
+	}
+
+	/**
+	 * Pauses while the throttle says the server is overloaded, then checks for cancellation. Called between centroids,
+	 * rooms and structure placements, rather than for every block.
+	 */
+	public void yieldIfThrottled() {
+		awaitThrottle(false);
+		checkCanceled();
+	}
+
+	private void awaitThrottle(boolean beforeFlush) {
+		if (throttle == null) {
+			return;
+		}
+		long startTime = System.nanoTime();
+		throttle.awaitCapacity(cancellationToken, beforeFlush);
+		long nanos = System.nanoTime() - startTime;
+		throttledNanos += nanos;
+		profile.addThrottledNanos(nanos);
+	}
+
+	/**
+	 * Gets how long the generation has been paused by its throttle, which doesn't count towards its time budget.
+	 */
+	public long getThrottledMillis() {
+		return throttledNanos / 1000000;
+	}
+
+	public CaveGenContext throttleWith(@Nullable GenerationThrottle throttle) {
+		this.throttle = throttle;
+		return this;
+	}
+
+	/**
+	 * Limits the number of blocks the generation may change, or removes the limit if {@code maxBlocksChanged <= 0}.
+	 */
+	public CaveGenContext limitBlocksChanged(long maxBlocksChanged) {
+		this.maxBlocksChanged = maxBlocksChanged;
+		return this;
+	}
+
+	/**
+	 * Sets the name of the current generation phase, for diagnostics. Also starts timing the phase in the profile.
+	 */
+	public void setPhase(String phase) {
+		this.phase = phase;
+		profile.startPhase(phase);
+	}
+
+	public String getPhase() {
+		return phase;
+	}
+
+	/**
+	 * Gets the profile of this generation, which is complete once the context has been closed.
+	 */
+	public GenerationProfile getProfile() {
+		return profile;
+	}
+
 	@Nullable
 	public BlockVector3 getSpawnPos() {
 		return spawnPos;
@@ -228,14 +512,34 @@ public class CaveGenContext implements AutoCloseable {
 		this.spawnPos = spawnPos;
 	}
 
+	@Nullable
+	public CentroidBuffer getCentroids() {
+		return centroids;
+	}
+
+	public void setCentroids(@Nullable CentroidBuffer centroids) {
+		this.centroids = centroids;
+	}
+
+	PackedBlockStorage getBlockStorage() {
+		return blockStorage;
+	}
+
+	Set<BlockVector2> getAccessedChunks() {
+		return accessedChunks;
+	}
+
 	@Override
 	public void close() {
-		if (canceled) {
-			session.close();
+		if (cancellationToken.isCanceled()) {
+			// however the generation was canceled, discard its blocks rather than leave a partial cave in the world
+			sink.cancel();
+			sink.close();
 			return;
 		}
 
 		// fill chunks neighboring accessed chunks
+		setPhase("filling neighbor chunks");
 		Bukkit.getLogger().log(Level.INFO, "Filling neighbor chunks...");
 		Set<BlockVector2> filledChunks = new HashSet<>(accessedChunks);
 		for (BlockVector2 accessedChunk : accessedChunks) {
@@ -293,13 +597,39 @@ public class CaveGenContext implements AutoCloseable {
 
 		Bukkit.getLogger().log(Level.INFO, "Cave finished generating");
 
-		session.close();
+		if (throttle != null) {
+			setPhase("flushing");
+			awaitThrottle(true);
+		}
+		sink.close();
+		profile.finish();
 	}
 
 	private void fill(Region region, BlockStateHolder<?> block) {
+		profile.voxelTouches += (long) region.getWidth() * region.getHeight() * region.getLength();
 		// for some reason, setBlocks is too slow here, so we use a loop
 		for (BlockVector3 pos : region) {
-			session.setBlock(pos, block);
+			sink.setBlock(pos, block);
 		}
 	}
+
+	/**
+	 * Gets the number of blocks set so far, counting blocks that were set more than once.
+	 */
+	public long getBlocksChanged() {
+		return blocksChanged;
+	}
+
+	public int getStructuresPlaced() {
+		return structuresPlaced;
+	}
+
+	public void onStructurePlaced() {
+		structuresPlaced++;
+	}
+
+	@FunctionalInterface
+	public interface RoomChooser {
+		int choose(CaveGenContext ctx, int roomIndex);
+	}
 }
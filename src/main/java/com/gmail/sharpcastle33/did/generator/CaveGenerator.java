@@ -33,7 +33,8 @@ public class CaveGenerator {
 
 	public static String generateCave(CaveGenContext ctx, Vector3 pos, int size) throws WorldEditException {
 		Bukkit.getLogger().log(Level.INFO, "Generating cave of size " + size);
-		List<Centroid> centroids = new ArrayList<>();
+		CentroidBuffer centroids = new CentroidBuffer();
+		ctx.setCentroids(centroids);
 		List<List<Vector3>> roomLocations = new ArrayList<>();
 		int length = ctx.style.getMinLength() + ctx.rand.nextInt(ctx.style.getMaxLength() - ctx.style.getMinLength() + 1);
 		Vector3 startingDir = Vector3.UNIT_X;
@@ -41,11 +42,29 @@ public class CaveGenerator {
 			startingDir = Util.rotateAroundY(startingDir, ctx.rand.nextDouble() * 2 * Math.PI);
 		}
 		String caveString = generateBranch(ctx, size, pos, length, 'C', true, startingDir, centroids, roomLocations);
-		PostProcessor.postProcess(ctx, centroids, roomLocations);
+		ctx.checkpoint(0, caveString, roomLocations);
+		postProcess(ctx, caveString, centroids, roomLocations, 0);
 		return caveString;
 	}
 
+	/**
+	 * Continues a generation from a checkpoint, with a context created by {@link CaveGenContext#resume}.
+	 */
+	public static String resumeCave(CaveGenContext ctx, GenerationCheckpoint checkpoint) throws WorldEditException {
+		Bukkit.getLogger().log(Level.INFO, "Resuming cave generation at post processing step " + checkpoint.getNextPostProcessStep());
+		postProcess(ctx, checkpoint.getCaveString(), checkpoint.getCentroids(), checkpoint.getRoomLocations(), checkpoint.getNextPostProcessStep());
+		return checkpoint.getCaveString();
+	}
+
+	private static void postProcess(CaveGenContext ctx, String caveString, CentroidBuffer centroids, List<List<Vector3>> roomLocations, int firstStep) throws WorldEditException {
+		for (int step = firstStep; step < PostProcessor.STEP_COUNT; step++) {
+			PostProcessor.postProcessStep(ctx, centroids, roomLocations, step);
+			ctx.checkpoint(step + 1, caveString, roomLocations);
+		}
+	}
+
 	public static String generateBranch(CaveGenContext ctx, int size, Vector3 pos, int length, char startingSymbol, boolean moreBranches, Vector3 dir, List<Centroid> centroids, List<List<Vector3>> roomLocations) throws WorldEditException {
+		ctx.setPhase("layout");
 		LayoutGenerator.Layout layout = LayoutGenerator.generateCave(ctx, length, startingSymbol);
 
 		if(!moreBranches) {
@@ -0,0 +1,349 @@
+package com.gmail.sharpcastle33.did.generator;
+
+import com.gmail.sharpcastle33.did.Util;
+import com.sk89q.worldedit.math.Vector3;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Stores centroids in columns of primitives, so that generation passes can iterate over them without chasing
+ * pointers. Tags are stored as bit masks, indexed by the order in which the tags were first seen.
+ *
+ * <p>Centroids are copied when they are added, so changing a centroid's position afterwards has no effect on the
+ * buffer. Only the columns are kept: {@link #get} creates a new {@link Centroid} for the structures, painters and
+ * block providers that need one, so passes that only need positions should use the column getters instead.
+ */
+public final class CentroidBuffer extends AbstractList<Centroid> implements RandomAccess {
+	private static final int FORMAT_VERSION = 1;
+	private static final int MAX_TAGS = 64;
+
+	private int count;
+	private double[] x = new double[16];
+	private double[] y = new double[16];
+	private double[] z = new double[16];
+	private int[] size = new int[16];
+	private int[] roomIndex = new int[16];
+	private long[] tagMask = new long[16];
+	private int[] tagListId = new int[16];
+
+	private final List<String> tagNames = new ArrayList<>();
+	private final Map<String, Integer> tagIds = new HashMap<>();
+	private boolean tagsOverflowed;
+	// distinct tag lists, so that centroids can be recreated with their tags in order
+	private final List<List<String>> tagLists = new ArrayList<>();
+	private final Map<List<String>, Integer> tagListIds = new HashMap<>();
+
+	private int roomsComputedFor = -1;
+	private int roomCount;
+	private int[] roomStarts = new int[1];
+	private int[] roomMinY = new int[0];
+	private int[] roomMaxY = new int[0];
+
+	public CentroidBuffer() {
+	}
+
+	public CentroidBuffer(Collection<? extends Centroid> centroids) {
+		addAll(centroids);
+	}
+
+	/**
+	 * Returns the given list if it is already a buffer, otherwise copies it into one.
+	 */
+	public static CentroidBuffer of(List<Centroid> centroids) {
+		return centroids instanceof CentroidBuffer ? (CentroidBuffer) centroids : new CentroidBuffer(centroids);
+	}
+
+	@Override
+	public int size() {
+		return count;
+	}
+
+	@Override
+	public Centroid get(int index) {
+		checkIndex(index);
+		return new Centroid(Vector3.at(x[index], y[index], z[index]), size[index], tagLists.get(tagListId[index]), roomIndex[index]);
+	}
+
+	@Override
+	public boolean add(Centroid centroid) {
+		if (count == x.length) {
+			int newCapacity = count * 2;
+			x = Arrays.copyOf(x, newCapacity);
+			y = Arrays.copyOf(y, newCapacity);
+			z = Arrays.copyOf(z, newCapacity);
+			size = Arrays.copyOf(size, newCapacity);
+			roomIndex = Arrays.copyOf(roomIndex, newCapacity);
+			tagMask = Arrays.copyOf(tagMask, newCapacity);
+			tagListId = Arrays.copyOf(tagListId, newCapacity);
+		}
+		x[count] = centroid.pos.getX();
+		y[count] = centroid.pos.getY();
+		z[count] = centroid.pos.getZ();
+		size[count] = centroid.size;
+		roomIndex[count] = centroid.roomIndex;
+		tagMask[count] = internTags(centroid.tags);
+		tagListId[count] = tagListIds.computeIfAbsent(centroid.tags, tags -> {
+			tagLists.add(Collections.unmodifiableList(new ArrayList<>(tags)));
+			return tagLists.size() - 1;
+		});
+		count++;
+		modCount++;
+		return true;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+		}
+	}
+
+	public double getX(int index) {
+		return x[index];
+	}
+
+	public double getY(int index) {
+		return y[index];
+	}
+
+	public double getZ(int index) {
+		return z[index];
+	}
+
+	public int getBlockX(int index) {
+		return (int) Math.floor(x[index]);
+	}
+
+	public int getBlockY(int index) {
+		return (int) Math.floor(y[index]);
+	}
+
+	public int getBlockZ(int index) {
+		return (int) Math.floor(z[index]);
+	}
+
+	public int getSize(int index) {
+		return size[index];
+	}
+
+	public int getRoomIndex(int index) {
+		return roomIndex[index];
+	}
+
+	private long internTags(List<String> tags) {
+		long mask = 0;
+		for (String tag : tags) {
+			Integer id = tagIds.get(tag);
+			if (id == null) {
+				if (tagNames.size() == MAX_TAGS) {
+					tagsOverflowed = true;
+					continue;
+				}
+				id = tagNames.size();
+				tagNames.add(tag);
+				tagIds.put(tag, id);
+			}
+			mask |= 1L << id;
+		}
+		return mask;
+	}
+
+	/**
+	 * Gets the mask of the given tags, for use with {@link #hasAnyTag}. Tags that no centroid has are ignored, so the
+	 * mask should be computed after all centroids have been added.
+	 */
+	public long getTagMask(Collection<String> tags) {
+		long mask = 0;
+		for (String tag : tags) {
+			Integer id = tagIds.get(tag);
+			if (id != null) {
+				mask |= 1L << id;
+			}
+		}
+		return mask;
+	}
+
+	public boolean hasAnyTag(int index, long mask, Collection<String> tags) {
+		if (tagsOverflowed) {
+			List<String> centroidTags = tagLists.get(tagListId[index]);
+			return tags.stream().anyMatch(centroidTags::contains);
+		}
+		return (tagMask[index] & mask) != 0;
+	}
+
+	private void updateRooms() {
+		if (roomsComputedFor == count) {
+			return;
+		}
+		roomCount = 0;
+		int roomStart = 0;
+		while (roomStart < count) {
+			int room = roomIndex[roomStart];
+			int roomEnd = roomStart;
+			int minY = Integer.MAX_VALUE;
+			int maxY = Integer.MIN_VALUE;
+			while (roomEnd < count && roomIndex[roomEnd] == room) {
+				int blockY = getBlockY(roomEnd);
+				minY = Math.min(minY, blockY - size[roomEnd]);
+				maxY = Math.max(maxY, blockY + size[roomEnd]);
+				roomEnd++;
+			}
+			if (roomCount + 1 >= roomStarts.length) {
+				roomStarts = Arrays.copyOf(roomStarts, roomStarts.length * 2 + 1);
+				roomMinY = Arrays.copyOf(roomMinY, roomStarts.length);
+				roomMaxY = Arrays.copyOf(roomMaxY, roomStarts.length);
+			}
+			roomStarts[roomCount] = roomStart;
+			roomMinY[roomCount] = minY;
+			roomMaxY[roomCount] = maxY;
+			roomCount++;
+			roomStart = roomEnd;
+		}
+		roomStarts[roomCount] = count;
+		roomsComputedFor = count;
+	}
+
+	/**
+	 * Gets the number of runs of consecutive centroids with the same room index.
+	 */
+	public int getRoomCount() {
+		updateRooms();
+		return roomCount;
+	}
+
+	public int getRoomStart(int room) {
+		updateRooms();
+		return roomStarts[room];
+	}
+
+	public int getRoomEnd(int room) {
+		updateRooms();
+		return roomStarts[room + 1];
+	}
+
+	public int getRoomMinY(int room) {
+		updateRooms();
+		return roomMinY[room];
+	}
+
+	public int getRoomMaxY(int room) {
+		updateRooms();
+		return roomMaxY[room];
+	}
+
+	/**
+	 * Gets the indices from start to end (exclusive) in the order generation passes should visit them: sorted by the
+	 * Morton code of the centroids' subchunks if {@code mortonOrder} is set, otherwise in the order they were added.
+	 */
+	public int[] getTraversalOrder(int start, int end, boolean mortonOrder) {
+		int[] order = new int[end - start];
+		if (!mortonOrder) {
+			for (int i = 0; i < order.length; i++) {
+				order[i] = start + i;
+			}
+			return order;
+		}
+		long[] codes = new long[order.length];
+		Integer[] indices = new Integer[order.length];
+		for (int i = 0; i < order.length; i++) {
+			codes[i] = Util.mortonCode(getBlockX(start + i) >> 4, getBlockY(start + i) >> 4, getBlockZ(start + i) >> 4);
+			indices[i] = i;
+		}
+		Arrays.sort(indices, Comparator.comparingLong(i -> codes[i]));
+		for (int i = 0; i < order.length; i++) {
+			order[i] = start + indices[i];
+		}
+		return order;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(FORMAT_VERSION);
+		out.writeInt(tagNames.size());
+		for (String tag : tagNames) {
+			out.writeUTF(tag);
+		}
+		out.writeBoolean(tagsOverflowed);
+		out.writeInt(tagLists.size());
+		for (List<String> tags : tagLists) {
+			out.writeInt(tags.size());
+			for (String tag : tags) {
+				out.writeUTF(tag);
+			}
+		}
+		out.writeInt(count);
+		for (int i = 0; i < count; i++) {
+			out.writeDouble(x[i]);
+			out.writeDouble(y[i]);
+			out.writeDouble(z[i]);
+			out.writeInt(size[i]);
+			out.writeInt(roomIndex[i]);
+			out.writeLong(tagMask[i]);
+			out.writeInt(tagListId[i]);
+		}
+	}
+
+	public static CentroidBuffer read(DataInput in) throws IOException {
+		int version = in.readInt();
+		if (version != FORMAT_VERSION) {
+			throw new IOException("Unsupported centroid buffer version " + version);
+		}
+		CentroidBuffer buffer = new CentroidBuffer();
+		int tagCount = in.readInt();
+		if (tagCount < 0 || tagCount > MAX_TAGS) {
+			throw new IOException("Invalid tag count " + tagCount);
+		}
+		for (int i = 0; i < tagCount; i++) {
+			String tag = in.readUTF();
+			buffer.tagIds.put(tag, buffer.tagNames.size());
+			buffer.tagNames.add(tag);
+		}
+		buffer.tagsOverflowed = in.readBoolean();
+		int tagListCount = in.readInt();
+		for (int i = 0; i < tagListCount; i++) {
+			int tagListSize = in.readInt();
+			List<String> tags = new ArrayList<>(tagListSize);
+			for (int j = 0; j < tagListSize; j++) {
+				tags.add(in.readUTF());
+			}
+			buffer.tagListIds.put(tags, buffer.tagLists.size());
+			buffer.tagLists.add(Collections.unmodifiableList(tags));
+		}
+		int count = in.readInt();
+		if (count < 0) {
+			throw new IOException("Invalid centroid count " + count);
+		}
+		int capacity = Math.max(16, count);
+		buffer.x = new double[capacity];
+		buffer.y = new double[capacity];
+		buffer.z = new double[capacity];
+		buffer.size = new int[capacity];
+		buffer.roomIndex = new int[capacity];
+		buffer.tagMask = new long[capacity];
+		buffer.tagListId = new int[capacity];
+		for (int i = 0; i < count; i++) {
+			buffer.x[i] = in.readDouble();
+			buffer.y[i] = in.readDouble();
+			buffer.z[i] = in.readDouble();
+			buffer.size[i] = in.readInt();
+			buffer.roomIndex[i] = in.readInt();
+			buffer.tagMask[i] = in.readLong();
+			buffer.tagListId[i] = in.readInt();
+			if (buffer.tagListId[i] < 0 || buffer.tagListId[i] >= tagListCount) {
+				throw new IOException("Invalid tag list " + buffer.tagListId[i]);
+			}
+		}
+		buffer.count = count;
+		return buffer;
+	}
+}
@@ -0,0 +1,104 @@
+package com.gmail.sharpcastle33.did.generator;
+
+import com.fastasyncworldedit.core.registry.state.PropertyKey;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.registry.state.BooleanProperty;
+import com.sk89q.worldedit.registry.state.Property;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockStateHolder;
+import com.sk89q.worldedit.world.block.BlockType;
+import com.sk89q.worldedit.world.block.BlockTypes;
+
+/**
+ * Computes the connection or attachment properties of a block from its neighbours. Positions are recorded with
+ * {@link CaveGenContext#markForConnectionUpdate} while structures are placed, and resolved once against the final
+ * block storage by {@link CaveGenContext#resolveConnections}.
+ */
+@FunctionalInterface
+public interface ConnectionRule {
+	BlockStateHolder<?> resolve(CaveGenContext ctx, BlockVector3 pos, BlockState block);
+
+	PropertyKey[] HORIZONTAL_KEYS = {PropertyKey.NORTH, PropertyKey.EAST, PropertyKey.SOUTH, PropertyKey.WEST};
+	BlockVector3[] HORIZONTAL_OFFSETS = {BlockVector3.at(0, 0, -1), BlockVector3.at(1, 0, 0), BlockVector3.at(0, 0, 1), BlockVector3.at(-1, 0, 0)};
+
+	/**
+	 * Keeps the faces vines were placed with, and only attaches vines that none of their faces support to their solid
+	 * neighbours, preferring the sides to the block above. Vines with nothing to attach to keep their placed state, so
+	 * that vines hanging below other vines are left alone.
+	 */
+	ConnectionRule VINE = (ctx, pos, block) -> {
+		if (block.getBlockType() != BlockTypes.VINE) {
+			return block;
+		}
+		boolean[] solid = new boolean[HORIZONTAL_KEYS.length];
+		for (int i = 0; i < HORIZONTAL_KEYS.length; i++) {
+			solid[i] = !ctx.style.isTransparentBlock(ctx.getBlock(pos.add(HORIZONTAL_OFFSETS[i])));
+			if (solid[i] && Boolean.TRUE.equals(block.getState(HORIZONTAL_KEYS[i]))) {
+				return block;
+			}
+		}
+		boolean solidAbove = !ctx.style.isTransparentBlock(ctx.getBlock(pos.add(0, 1, 0)));
+		if (solidAbove && Boolean.TRUE.equals(block.getState(PropertyKey.UP))) {
+			return block;
+		}
+
+		BlockStateHolder<?> result = block;
+		boolean attached = false;
+		for (int i = 0; i < HORIZONTAL_KEYS.length; i++) {
+			if (solid[i]) {
+				result = result.with(HORIZONTAL_KEYS[i], true);
+				attached = true;
+			}
+		}
+		if (!attached && solidAbove) {
+			result = result.with(PropertyKey.UP, true);
+		}
+		return result;
+	};
+
+	/**
+	 * Connects fences, panes and bars to each other and to solid neighbours.
+	 */
+	ConnectionRule FENCE = (ctx, pos, block) -> {
+		if (!isFenceLike(block.getBlockType())) {
+			return block;
+		}
+		BlockStateHolder<?> result = block;
+		for (int i = 0; i < HORIZONTAL_KEYS.length; i++) {
+			BlockState neighbor = ctx.getBlock(pos.add(HORIZONTAL_OFFSETS[i]));
+			boolean connect = isFenceLike(neighbor.getBlockType()) || !ctx.style.isTransparentBlock(neighbor);
+			result = result.with(HORIZONTAL_KEYS[i], connect);
+		}
+		return result;
+	};
+
+	ConnectionRule DEFAULT = (ctx, pos, block) -> {
+		if (block.getBlockType() == BlockTypes.VINE) {
+			return VINE.resolve(ctx, pos, block);
+		} else {
+			return FENCE.resolve(ctx, pos, block);
+		}
+	};
+
+	static boolean needsConnectionUpdate(BlockStateHolder<?> block) {
+		BlockType type = block.getBlockType();
+		return type == BlockTypes.VINE || isFenceLike(type);
+	}
+
+	static boolean isFenceLike(BlockType type) {
+		String id = type.getId();
+		if (!id.endsWith("_fence") && !id.endsWith("_pane") && !id.equals("minecraft:iron_bars")) {
+			return false;
+		}
+		for (PropertyKey key : HORIZONTAL_KEYS) {
+			if (!type.hasProperty(key)) {
+				return false;
+			}
+			Property<?> property = type.getProperty(key);
+			if (!(property instanceof BooleanProperty)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
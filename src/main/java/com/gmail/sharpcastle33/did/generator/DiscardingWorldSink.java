@@ -0,0 +1,34 @@
+package com.gmail.sharpcastle33.did.generator;
+
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.extent.NullExtent;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockStateHolder;
+
+class DiscardingWorldSink implements WorldSink {
+	private final Extent extent = new NullExtent();
+
+	@Override
+	public boolean setBlock(BlockVector3 pos, BlockStateHolder<?> block) {
+		return true;
+	}
+
+	@Override
+	public boolean setBlock(int x, int y, int z, BlockState block) {
+		return true;
+	}
+
+	@Override
+	public Extent getExtent() {
+		return extent;
+	}
+
+	@Override
+	public void cancel() {
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,40 @@
+package com.gmail.sharpcastle33.did.generator;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockStateHolder;
+
+class EditSessionSink implements WorldSink {
+	private final EditSession session;
+
+	EditSessionSink(EditSession session) {
+		this.session = session;
+	}
+
+	@Override
+	public boolean setBlock(BlockVector3 pos, BlockStateHolder<?> block) {
+		return session.setBlock(pos, block);
+	}
+
+	@Override
+	public boolean setBlock(int x, int y, int z, BlockState block) {
+		return session.setBlock(x, y, z, block);
+	}
+
+	@Override
+	public Extent getExtent() {
+		return session;
+	}
+
+	@Override
+	public void cancel() {
+		session.cancel();
+	}
+
+	@Override
+	public void close() {
+		session.close();
+	}
+}
@@ -0,0 +1,20 @@
+package com.gmail.sharpcastle33.did.generator;
+
+public class GenerationCanceledException extends RuntimeException {
+	private final String reason;
+	private final String phase;
+
+	public GenerationCanceledException(String reason, String phase) {
+		super(reason + " (phase: " + phase + ")");
+		this.reason = reason;
+		this.phase = phase;
+	}
+
+	public String getReason() {
+		return reason;
+	}
+
+	public String getPhase() {
+		return phase;
+	}
+}
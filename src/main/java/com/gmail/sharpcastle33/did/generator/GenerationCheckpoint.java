@@ -0,0 +1,242 @@
+package com.gmail.sharpcastle33.did.generator;
+
+import com.sk89q.worldedit.math.BlockVector2;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.math.Vector3;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The state of a cave generation between two phases, from which the generation can be resumed after a restart. A
+ * checkpoint is taken once the cave is carved, and after each post processing step. Resuming with the same style
+ * config produces the same cave as an uninterrupted generation, because the random state is saved too.
+ */
+public final class GenerationCheckpoint {
+	private static final int FORMAT_VERSION = 1;
+
+	private final String styleName;
+	private final String styleFingerprint;
+	private final long seed;
+	private final int nextPostProcessStep;
+	private final String caveString;
+	private final Random rand;
+	private final long blocksChanged;
+	private final int structuresPlaced;
+	@Nullable
+	private final BlockVector3 spawnPos;
+	private final List<BlockVector2> accessedChunks;
+	private final PackedBlockStorage blocks;
+	private final CentroidBuffer centroids;
+	private final List<List<Vector3>> roomLocations;
+
+	GenerationCheckpoint(String styleName, String styleFingerprint, long seed, int nextPostProcessStep, String caveString, Random rand, long blocksChanged, int structuresPlaced, @Nullable BlockVector3 spawnPos, List<BlockVector2> accessedChunks, PackedBlockStorage blocks, CentroidBuffer centroids, List<List<Vector3>> roomLocations) {
+		this.styleName = styleName;
+		this.styleFingerprint = styleFingerprint;
+		this.seed = seed;
+		this.nextPostProcessStep = nextPostProcessStep;
+		this.caveString = caveString;
+		this.rand = rand;
+		this.blocksChanged = blocksChanged;
+		this.structuresPlaced = structuresPlaced;
+		this.spawnPos = spawnPos;
+		this.accessedChunks = accessedChunks;
+		this.blocks = blocks;
+		this.centroids = centroids;
+		this.roomLocations = roomLocations;
+	}
+
+	public String getStyleName() {
+		return styleName;
+	}
+
+	/**
+	 * Gets the fingerprint of the style config the generation was started with. The generation must not be resumed
+	 * with a different config.
+	 */
+	public String getStyleFingerprint() {
+		return styleFingerprint;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Gets the index of the first post processing step that has not run yet, or {@link PostProcessor#STEP_COUNT} if
+	 * the cave is complete.
+	 */
+	public int getNextPostProcessStep() {
+		return nextPostProcessStep;
+	}
+
+	public String getCaveString() {
+		return caveString;
+	}
+
+	Random getRandom() {
+		return rand;
+	}
+
+	long getBlocksChanged() {
+		return blocksChanged;
+	}
+
+	int getStructuresPlaced() {
+		return structuresPlaced;
+	}
+
+	@Nullable
+	BlockVector3 getSpawnPos() {
+		return spawnPos;
+	}
+
+	List<BlockVector2> getAccessedChunks() {
+		return accessedChunks;
+	}
+
+	PackedBlockStorage getBlocks() {
+		return blocks;
+	}
+
+	CentroidBuffer getCentroids() {
+		return centroids;
+	}
+
+	List<List<Vector3>> getRoomLocations() {
+		return roomLocations;
+	}
+
+	public void write(OutputStream output) throws IOException {
+		GZIPOutputStream gzip = new GZIPOutputStream(output);
+		DataOutputStream out = new DataOutputStream(gzip);
+		out.writeInt(FORMAT_VERSION);
+		out.writeUTF(styleName);
+		out.writeUTF(styleFingerprint);
+		out.writeLong(seed);
+		out.writeInt(nextPostProcessStep);
+		byte[] caveStringBytes = caveString.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(caveStringBytes.length);
+		out.write(caveStringBytes);
+		byte[] randBytes = writeRandom(rand);
+		out.writeInt(randBytes.length);
+		out.write(randBytes);
+		out.writeLong(blocksChanged);
+		out.writeInt(structuresPlaced);
+		out.writeBoolean(spawnPos != null);
+		if (spawnPos != null) {
+			out.writeInt(spawnPos.getX());
+			out.writeInt(spawnPos.getY());
+			out.writeInt(spawnPos.getZ());
+		}
+		out.writeInt(accessedChunks.size());
+		for (BlockVector2 chunk : accessedChunks) {
+			out.writeInt(chunk.getX());
+			out.writeInt(chunk.getZ());
+		}
+		blocks.write(out);
+		centroids.write(out);
+		out.writeInt(roomLocations.size());
+		for (List<Vector3> tunnel : roomLocations) {
+			out.writeInt(tunnel.size());
+			for (Vector3 pos : tunnel) {
+				out.writeDouble(pos.getX());
+				out.writeDouble(pos.getY());
+				out.writeDouble(pos.getZ());
+			}
+		}
+		out.flush();
+		gzip.finish();
+	}
+
+	public static GenerationCheckpoint read(InputStream input) throws IOException {
+		DataInputStream in = new DataInputStream(new GZIPInputStream(input));
+		int version = in.readInt();
+		if (version != FORMAT_VERSION) {
+			throw new IOException("Unsupported checkpoint version " + version);
+		}
+		String styleName = in.readUTF();
+		String styleFingerprint = in.readUTF();
+		long seed = in.readLong();
+		int nextPostProcessStep = in.readInt();
+		if (nextPostProcessStep < 0 || nextPostProcessStep > PostProcessor.STEP_COUNT) {
+			throw new IOException("Invalid post processing step " + nextPostProcessStep);
+		}
+		String caveString = new String(readBytes(in), StandardCharsets.UTF_8);
+		Random rand = readRandom(readBytes(in));
+		long blocksChanged = in.readLong();
+		int structuresPlaced = in.readInt();
+		BlockVector3 spawnPos = in.readBoolean() ? BlockVector3.at(in.readInt(), in.readInt(), in.readInt()) : null;
+		int chunkCount = in.readInt();
+		if (chunkCount < 0) {
+			throw new IOException("Invalid chunk count " + chunkCount);
+		}
+		List<BlockVector2> accessedChunks = new ArrayList<>(chunkCount);
+		for (int i = 0; i < chunkCount; i++) {
+			accessedChunks.add(BlockVector2.at(in.readInt(), in.readInt()));
+		}
+		PackedBlockStorage blocks = PackedBlockStorage.read(in);
+		CentroidBuffer centroids = CentroidBuffer.read(in);
+		int tunnelCount = in.readInt();
+		if (tunnelCount < 0) {
+			throw new IOException("Invalid tunnel count " + tunnelCount);
+		}
+		List<List<Vector3>> roomLocations = new ArrayList<>(tunnelCount);
+		for (int i = 0; i < tunnelCount; i++) {
+			int roomCount = in.readInt();
+			if (roomCount < 0) {
+				throw new IOException("Invalid room count " + roomCount);
+			}
+			List<Vector3> tunnel = new ArrayList<>(roomCount);
+			for (int j = 0; j < roomCount; j++) {
+				tunnel.add(Vector3.at(in.readDouble(), in.readDouble(), in.readDouble()));
+			}
+			roomLocations.add(tunnel);
+		}
+		return new GenerationCheckpoint(styleName, styleFingerprint, seed, nextPostProcessStep, caveString, rand, blocksChanged, structuresPlaced, spawnPos, Collections.unmodifiableList(accessedChunks), blocks, centroids, roomLocations);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Invalid length " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	// Random doesn't expose its state, but it is serializable
+	private static byte[] writeRandom(Random rand) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(rand);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Random readRandom(byte[] bytes) throws IOException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			in.setObjectInputFilter(info -> info.serialClass() == null || info.serialClass() == Random.class ? ObjectInputFilter.Status.ALLOWED : ObjectInputFilter.Status.REJECTED);
+			return (Random) in.readObject();
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException("Invalid random state", e);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package com.gmail.sharpcastle33.did.generator;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Records how long each phase of a generation took, how many blocks it read and wrote, and how much memory it
+ * allocated. Phases follow {@link CaveGenContext#setPhase}, while steps are timed within a phase, such as a single
+ * painter step or structure. Time spent paused by the generation's throttle is kept apart from the time spent working,
+ * so that server lag isn't blamed on the phase that was running. Only the generation thread may record into a profile.
+ */
+public final class GenerationProfile {
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final int SUMMARY_STEPS = 3;
+
+	private final Map<String, Section> phases = new LinkedHashMap<>();
+	private final Map<String, Section> steps = new LinkedHashMap<>();
+	long voxelTouches;
+	private long throttledNanos;
+	@Nullable
+	private Section currentPhase;
+	private long phaseStartNanos;
+	private long phaseStartThrottledNanos;
+	private long phaseStartBytes;
+	private long phaseStartTouches;
+
+	void startPhase(String name) {
+		finish();
+		currentPhase = phases.computeIfAbsent(name, Section::new);
+		phaseStartNanos = System.nanoTime();
+		phaseStartThrottledNanos = throttledNanos;
+		phaseStartBytes = getAllocatedBytes();
+		phaseStartTouches = voxelTouches;
+	}
+
+	/**
+	 * Ends the current phase. Called when the generation has finished.
+	 */
+	void finish() {
+		if (currentPhase != null) {
+			currentPhase.add(System.nanoTime() - phaseStartNanos, throttledNanos - phaseStartThrottledNanos, voxelTouches - phaseStartTouches, getAllocatedBytes() - phaseStartBytes);
+			currentPhase = null;
+		}
+	}
+
+	void addThrottledNanos(long nanos) {
+		throttledNanos += nanos;
+	}
+
+	/**
+	 * Gets a timer for the step with the given name. The same step may be timed any number of times, the times are added
+	 * up.
+	 */
+	public Step step(String name) {
+		return new Step(steps.computeIfAbsent(name, Section::new));
+	}
+
+	/**
+	 * Adds the phases and steps of another profile to this one.
+	 */
+	public void merge(GenerationProfile other) {
+		for (Section section : other.phases.values()) {
+			phases.computeIfAbsent(section.name, Section::new).add(section);
+		}
+		for (Section section : other.steps.values()) {
+			steps.computeIfAbsent(section.name, Section::new).add(section);
+		}
+	}
+
+	public Collection<Section> getPhases() {
+		return phases.values();
+	}
+
+	/**
+	 * Gets the steps, slowest first.
+	 */
+	public List<Section> getSlowestSteps() {
+		List<Section> slowest = new ArrayList<>(steps.values());
+		slowest.sort(Comparator.comparingLong(Section::getNanos).reversed());
+		return slowest;
+	}
+
+	public long getTotalNanos() {
+		return phases.values().stream().mapToLong(Section::getNanos).sum();
+	}
+
+	public long getTotalThrottledNanos() {
+		return phases.values().stream().mapToLong(Section::getThrottledNanos).sum();
+	}
+
+	public long getTotalVoxelTouches() {
+		return phases.values().stream().mapToLong(Section::getVoxelTouches).sum();
+	}
+
+	public long getTotalAllocatedBytes() {
+		return phases.values().stream().mapToLong(Section::getAllocatedBytes).sum();
+	}
+
+	/**
+	 * Summarizes the profile in one line, for the log.
+	 */
+	public String summarize() {
+		String summary = String.format("%dms, %dms throttled, %d blocks touched, %dMB allocated; %s", getTotalNanos() / 1000000,
+				getTotalThrottledNanos() / 1000000, getTotalVoxelTouches(), getTotalAllocatedBytes() >> 20,
+				phases.values().stream().map(phase -> phase.name + " " + phase.nanos / 1000000 + "ms"
+						+ (phase.throttledNanos >= 1000000 ? " (+" + phase.throttledNanos / 1000000 + "ms throttled)" : ""))
+						.collect(Collectors.joining(", ")));
+		if (!steps.isEmpty()) {
+			summary += "; slowest steps: " + getSlowestSteps().stream().limit(SUMMARY_STEPS)
+					.map(step -> step.name + " " + step.nanos / 1000000 + "ms").collect(Collectors.joining(", "));
+		}
+		return summary;
+	}
+
+	/**
+	 * Gets the number of bytes the current thread has allocated so far, or 0 if the JVM doesn't measure it.
+	 */
+	private static long getAllocatedBytes() {
+		if (THREADS instanceof com.sun.management.ThreadMXBean) {
+			long bytes = ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+			return Math.max(bytes, 0);
+		}
+		return 0;
+	}
+
+	public final class Step {
+		private final Section section;
+		private long startNanos;
+		private long startThrottledNanos;
+		private long startBytes;
+		private long startTouches;
+
+		private Step(Section section) {
+			this.section = section;
+		}
+
+		public void start() {
+			startNanos = System.nanoTime();
+			startThrottledNanos = throttledNanos;
+			startBytes = getAllocatedBytes();
+			startTouches = voxelTouches;
+		}
+
+		public void stop() {
+			section.add(System.nanoTime() - startNanos, throttledNanos - startThrottledNanos, voxelTouches - startTouches, getAllocatedBytes() - startBytes);
+		}
+	}
+
+	public static final class Section {
+		private final String name;
+		private long count;
+		private long nanos;
+		private long throttledNanos;
+		private long voxelTouches;
+		private long allocatedBytes;
+
+		private Section(String name) {
+			this.name = name;
+		}
+
+		private void add(long elapsedNanos, long throttledNanos, long voxelTouches, long allocatedBytes) {
+			this.count++;
+			this.nanos += Math.max(0, elapsedNanos - throttledNanos);
+			this.throttledNanos += throttledNanos;
+			this.voxelTouches += voxelTouches;
+			this.allocatedBytes += allocatedBytes;
+		}
+
+		private void add(Section other) {
+			this.count += other.count;
+			this.nanos += other.nanos;
+			this.throttledNanos += other.throttledNanos;
+			this.voxelTouches += other.voxelTouches;
+			this.allocatedBytes += other.allocatedBytes;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets how many times the phase was entered or the step was run.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Gets the time spent working, without the time spent paused by the throttle.
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		public long getThrottledNanos() {
+			return throttledNanos;
+		}
+
+		/**
+		 * Gets the number of blocks read and written, counting blocks that were accessed more than once.
+		 */
+		public long getVoxelTouches() {
+			return voxelTouches;
+		}
+
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+	}
+}
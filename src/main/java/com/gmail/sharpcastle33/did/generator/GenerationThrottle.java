@@ -0,0 +1,13 @@
+package com.gmail.sharpcastle33.did.generator;
+
+/**
+ * Slows down generation while the server is busy. See {@link CaveGenContext#throttleWith}.
+ */
+public interface GenerationThrottle {
+	/**
+	 * Blocks the generating thread while the server is over its budget, returning early if the generation is canceled.
+	 * Called between centroids, rooms and structure placements, and once more before the generated blocks are flushed
+	 * to the world.
+	 */
+	void awaitCapacity(CancellationToken token, boolean beforeFlush);
+}
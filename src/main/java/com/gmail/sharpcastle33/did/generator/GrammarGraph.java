@@ -1,8 +1,10 @@
 package com.gmail.sharpcastle33.did.generator;
 
+import com.gmail.sharpcastle33.did.AliasTable;
 import com.gmail.sharpcastle33.did.Pair;
 import com.gmail.sharpcastle33.did.config.InvalidConfigException;
 import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -15,9 +17,33 @@ import java.util.stream.Collectors;
 
 public class GrammarGraph {
 	private final Map<Character, RuleSet> ruleSets;
+	// compiled form: every symbol that appears in the grammar gets a dense id
+	private final Map<Character, Integer> symbolIds = new HashMap<>();
+	private final List<Character> symbolsById = new ArrayList<>();
+	private final List<RuleSet> ruleSetsById = new ArrayList<>();
 
 	public GrammarGraph(Map<Character, RuleSet> ruleSets) {
 		this.ruleSets = ruleSets;
+		ruleSets.keySet().forEach(this::getOrCreateSymbolId);
+		for (RuleSet ruleSet : ruleSets.values()) {
+			ruleSet.substitutionIds = new int[ruleSet.entries.size()][];
+			for (int i = 0; i < ruleSet.entries.size(); i++) {
+				String substitution = ruleSet.entries.get(i).getRight();
+				int[] ids = new int[substitution.length()];
+				for (int j = 0; j < ids.length; j++) {
+					ids[j] = getOrCreateSymbolId(substitution.charAt(j));
+				}
+				ruleSet.substitutionIds[i] = ids;
+			}
+		}
+	}
+
+	private int getOrCreateSymbolId(char symbol) {
+		return symbolIds.computeIfAbsent(symbol, k -> {
+			symbolsById.add(symbol);
+			ruleSetsById.add(ruleSets.get(symbol));
+			return symbolsById.size() - 1;
+		});
 	}
 
 	public boolean hasRuleSet(char symbol) {
@@ -28,6 +54,26 @@ public class GrammarGraph {
 		return ruleSets.get(symbol);
 	}
 
+	/**
+	 * Gets the compiled id of the given symbol, or -1 if it does not appear in the grammar.
+	 */
+	public int getSymbolId(char symbol) {
+		Integer id = symbolIds.get(symbol);
+		return id == null ? -1 : id;
+	}
+
+	public char getSymbol(int id) {
+		return symbolsById.get(id);
+	}
+
+	/**
+	 * Gets the rule set of the symbol with the given compiled id, or null if that symbol is a terminal (room) symbol.
+	 */
+	@Nullable
+	public RuleSet getRuleSetById(int id) {
+		return ruleSetsById.get(id);
+	}
+
 	public void serialize(ConfigurationSection map) {
 		ruleSets.forEach((symbol, ruleSet) -> {
 			StringBuilder key = new StringBuilder(String.valueOf(symbol));
@@ -151,16 +197,14 @@ public class GrammarGraph {
 		// A list of strings that this character may be replaced with, each with a weight attached
 		private final List<Pair<Integer, String>> entries;
 		private final List<String> tags;
-		private final int totalWeight;
+		private final AliasTable weights;
+		// the symbol ids of each substitution, filled in by the owning GrammarGraph
+		private int[][] substitutionIds;
 
 		public RuleSet(List<Pair<Integer, String>> entries, List<String> tags) {
 			this.entries = entries;
 			this.tags = tags;
-			int totalWeight = 0;
-			for (Pair<Integer, String> entry : entries) {
-				totalWeight += entry.getLeft();
-			}
-			this.totalWeight = totalWeight;
+			this.weights = new AliasTable(entries.stream().mapToInt(Pair::getLeft).toArray());
 		}
 
 		public List<Pair<Integer, String>> getEntries() {
@@ -171,15 +215,11 @@ public class GrammarGraph {
 			return tags;
 		}
 
-		public String getRandomSubstitution(CaveGenContext ctx) {
-			int randVal = ctx.rand.nextInt(totalWeight);
-			for (Pair<Integer, String> entry : entries) {
-				randVal -= entry.getLeft();
-				if (randVal < 0) {
-					return entry.getRight();
-				}
-			}
-			throw new AssertionError("The total weight of the entries is greater than totalWeight?");
+		/**
+		 * Picks a random substitution, returning it as compiled symbol ids.
+		 */
+		public int[] getRandomSubstitutionIds(CaveGenContext ctx) {
+			return substitutionIds[weights.sample(ctx.rand)];
 		}
 	}
 }
@@ -2,9 +2,13 @@ package com.gmail.sharpcastle33.did.generator;
 
 import com.gmail.sharpcastle33.did.generator.room.Room;
 import org.bukkit.Bukkit;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
@@ -19,54 +23,163 @@ public class LayoutGenerator {
 		Set<Character> roomSymbols = ctx.style.getRooms().stream().map(Room::getSymbol).collect(Collectors.toSet());
 		GrammarGraph grammar = ctx.style.getGrammar();
 
-		if (!grammar.hasRuleSet(startingSymbol) && !roomSymbols.contains(startingSymbol)) {
-			Bukkit.getLogger().log(Level.SEVERE, "Tried to generate a cave with undefined starting symbol '" + startingSymbol + "'");
-			return Layout.EMPTY;
-		}
+		// The layout is a linked sequence of symbol nodes. Each node points to the tags of the rule application that
+		// produced it, which in turn point to their parent's tags, so tags are shared rather than copied.
+		SymbolNode head = null;
+		SymbolNode tail = null;
+		int length = 0;
+		int remainingLength = maxLength;
+		char symbol = startingSymbol;
+		while (true) {
+			int symbolId = grammar.getSymbolId(symbol);
+			if (symbolId == -1 || grammar.getRuleSetById(symbolId) == null) {
+				if (!roomSymbols.contains(symbol)) {
+					Bukkit.getLogger().log(Level.SEVERE, "Tried to generate a cave with undefined starting symbol '" + symbol + "'");
+					break;
+				}
+			}
+
+			SymbolNode segmentHead = new SymbolNode(symbol, symbolId, TagNode.EMPTY);
+			SymbolNode segmentTail = segmentHead;
+			int segmentLength = 1;
+			List<SymbolNode> pending = new ArrayList<>();
+			if (symbolId != -1 && grammar.getRuleSetById(symbolId) != null) {
+				pending.add(segmentHead);
+			}
+
+			// Each pass substitutes every non-terminal that existed at the start of the pass, right to left.
+			List<SymbolNode> nextPending = new ArrayList<>();
+			while (!pending.isEmpty()) {
+				ctx.checkCanceled();
+				for (int i = pending.size() - 1; i >= 0; i--) {
+					SymbolNode node = pending.get(i);
+					GrammarGraph.RuleSet ruleSet = grammar.getRuleSetById(node.symbolId);
+					assert ruleSet != null;
+					int[] substitution = ruleSet.getRandomSubstitutionIds(ctx);
+					TagNode tags = ruleSet.getTags().isEmpty() ? node.tags : new TagNode(node.tags, ruleSet.getTags());
+
+					SymbolNode first = null;
+					SymbolNode last = null;
+					for (int id : substitution) {
+						SymbolNode newNode = new SymbolNode(grammar.getSymbol(id), id, tags);
+						if (first == null) {
+							first = newNode;
+						} else {
+							last.next = newNode;
+							newNode.prev = last;
+						}
+						last = newNode;
+					}
+					for (SymbolNode newNode = last; newNode != null; newNode = newNode.prev) {
+						if (grammar.getRuleSetById(newNode.symbolId) != null) {
+							nextPending.add(newNode);
+						}
+					}
 
-		StringBuilder cave = new StringBuilder(String.valueOf(startingSymbol));
-		List<List<String>> tags = new ArrayList<>();
-		tags.add(new ArrayList<>());
-
-		boolean needsMoreSubstitution = grammar.hasRuleSet(startingSymbol);
-		while (needsMoreSubstitution) {
-			needsMoreSubstitution = false;
-			for (int i = cave.length() - 1; i >= 0; i--) {
-				char symbol = cave.charAt(i);
-				if (grammar.hasRuleSet(symbol)) {
-					GrammarGraph.RuleSet ruleSet = grammar.getRuleSet(symbol);
-					String substitution = ruleSet.getRandomSubstitution(ctx);
-					cave.replace(i, i + 1, substitution);
-					List<String> prevTags = tags.remove(i);
-					prevTags.addAll(ruleSet.getTags());
-					List<List<String>> newTags = new ArrayList<>(substitution.length());
-					for (int j = 0; j < substitution.length(); j++) {
-						newTags.add(new ArrayList<>(prevTags));
+					// splice the substitution in place of the node
+					SymbolNode before = node.prev;
+					SymbolNode after = node.next;
+					if (first == null) {
+						first = after;
+						last = before;
+					} else {
+						first.prev = before;
+						last.next = after;
 					}
-					tags.addAll(i, newTags);
-					needsMoreSubstitution = true;
+					if (before == null) {
+						segmentHead = first;
+					} else {
+						before.next = first;
+					}
+					if (after == null) {
+						segmentTail = last;
+					} else {
+						after.prev = last;
+					}
+					segmentLength += substitution.length - 1;
 				}
+				Collections.reverse(nextPending);
+				List<SymbolNode> temp = pending;
+				pending = nextPending;
+				nextPending = temp;
+				nextPending.clear();
 			}
-		}
 
-		// Don't extend empty caves, could lead to an infinite loop. Only a silly cave grammar would produce an empty cave anyway.
-		if (continuationSymbol != 0) {
-			if(cave.length() != 0 && cave.length() < maxLength) {
-				int length = maxLength-cave.length();
-				Layout layout = generateCave(ctx, length, continuationSymbol, continuationSymbol);
-				cave.append(layout.getValue());
-				tags.addAll(layout.getTags());
+			if (segmentLength != 0) {
+				if (tail == null) {
+					head = segmentHead;
+				} else {
+					tail.next = segmentHead;
+					segmentHead.prev = tail;
+				}
+				tail = segmentTail;
+				length += segmentLength;
 			}
+
+			// Don't extend empty caves, could lead to an infinite loop. Only a silly cave grammar would produce an empty cave anyway.
+			if (continuationSymbol == 0 || segmentLength == 0 || segmentLength >= remainingLength) {
+				break;
+			}
+			remainingLength -= segmentLength;
+			symbol = continuationSymbol;
+		}
+
+		if (ctx.style.shouldTruncateCaves() && length > maxLength) {
+			length = maxLength;
 		}
 
-		if (ctx.style.shouldTruncateCaves() && cave.length() > maxLength) {
-			cave.delete(maxLength, cave.length());
-			tags.subList(maxLength, cave.length()).clear();
+		StringBuilder cave = new StringBuilder(length);
+		List<List<String>> tags = new ArrayList<>(length);
+		Map<TagNode, List<String>> materializedTags = new IdentityHashMap<>();
+		SymbolNode node = head;
+		for (int i = 0; i < length; i++) {
+			assert node != null;
+			cave.append(node.symbol);
+			tags.add(node.tags.toList(materializedTags));
+			node = node.next;
 		}
 
 		return new Layout(cave.toString(), tags);
 	}
 
+	private static final class SymbolNode {
+		private final char symbol;
+		private final int symbolId;
+		private final TagNode tags;
+		private SymbolNode prev;
+		private SymbolNode next;
+
+		private SymbolNode(char symbol, int symbolId, TagNode tags) {
+			this.symbol = symbol;
+			this.symbolId = symbolId;
+			this.tags = tags;
+		}
+	}
+
+	private static final class TagNode {
+		private static final TagNode EMPTY = new TagNode(null, Collections.emptyList());
+
+		@Nullable
+		private final TagNode parent;
+		private final List<String> tags;
+
+		private TagNode(@Nullable TagNode parent, List<String> tags) {
+			this.parent = parent;
+			this.tags = tags;
+		}
+
+		private List<String> toList(Map<TagNode, List<String>> cache) {
+			List<String> list = cache.get(this);
+			if (list == null) {
+				list = parent == null ? new ArrayList<>() : new ArrayList<>(parent.toList(cache));
+				list.addAll(tags);
+				list = Collections.unmodifiableList(list);
+				cache.put(this, list);
+			}
+			return list;
+		}
+	}
+
 	public static class Layout {
 		public static final Layout EMPTY = new Layout("", new ArrayList<>());
 
@@ -0,0 +1,91 @@
+package com.gmail.sharpcastle33.did.generator;
+
+import com.gmail.sharpcastle33.did.Util;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.extent.NullExtent;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockStateHolder;
+import com.sk89q.worldedit.world.block.BlockTypes;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A sink that keeps the written blocks in memory, packed per section, instead of writing them to a world. Unwritten
+ * blocks are air.
+ */
+public class MemoryWorldSink implements WorldSink {
+	private final Extent extent = new NullExtent();
+	private final PackedBlockStorage blocks = new PackedBlockStorage(Util.requireDefaultState(BlockTypes.AIR));
+	private long blocksWritten;
+
+	@Override
+	public boolean setBlock(BlockVector3 pos, BlockStateHolder<?> block) {
+		blocks.setBlock(pos, block.toImmutableState());
+		blocksWritten++;
+		return true;
+	}
+
+	@Override
+	public boolean setBlock(int x, int y, int z, BlockState block) {
+		blocks.setBlock(BlockVector3.at(x, y, z), block);
+		blocksWritten++;
+		return true;
+	}
+
+	public BlockState getBlock(BlockVector3 pos) {
+		return blocks.getBlock(pos);
+	}
+
+	/**
+	 * Gets the number of block writes, including writes to the same position.
+	 */
+	public long getBlocksWritten() {
+		return blocksWritten;
+	}
+
+	/**
+	 * Counts the blocks of each state, other than air.
+	 */
+	public Map<BlockState, Long> getBlockCounts() {
+		Map<BlockState, Long> counts = new HashMap<>();
+		blocks.forEachBlock((x, y, z, block) -> counts.merge(block, 1L, Long::sum));
+		return counts;
+	}
+
+	/**
+	 * Computes a hash of the blocks, to check that two generations produced the same blocks. The hash doesn't depend on
+	 * the order the sections are stored in.
+	 */
+	public long getContentHash() {
+		long[] hash = new long[1];
+		Map<BlockState, Long> stateHashes = new HashMap<>();
+		blocks.forEachBlock((x, y, z, block) -> {
+			long stateHash = stateHashes.computeIfAbsent(block, k -> (long) k.getAsString().hashCode());
+			// summing mixed hashes keeps the result independent of iteration order
+			hash[0] += mix(mix(mix(stateHash + x) + y) + z);
+		});
+		return hash[0];
+	}
+
+	private static long mix(long value) {
+		// the SplitMix64 finalizer
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+		return value ^ (value >>> 31);
+	}
+
+	@Override
+	public Extent getExtent() {
+		return extent;
+	}
+
+	@Override
+	public void cancel() {
+	}
+
+	@Override
+	public void close() {
+	}
+}
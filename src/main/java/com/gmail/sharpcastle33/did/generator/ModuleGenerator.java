@@ -7,6 +7,7 @@ import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
+import com.gmail.sharpcastle33.did.config.CaveStyle;
 import com.gmail.sharpcastle33.did.generator.room.Room;
 import com.gmail.sharpcastle33.did.generator.room.RoomData;
 import com.gmail.sharpcastle33.did.provider.BlockProvider;
@@ -30,8 +31,10 @@ public class ModuleGenerator {
 		List<Vector3> theseRoomLocations = new ArrayList<>();
 		roomLocations.add(theseRoomLocations);
 
+		ctx.setPhase("rooms");
 		Vector3 location = start;
 		for (int i = 0; i < cave.length(); i++) {
+			ctx.yieldIfThrottled();
 			Room room = rooms.get(cave.charAt(i));
 			List<String> tags = new ArrayList<>(layout.getTags().get(i));
 			tags.addAll(room.getTags());
@@ -45,34 +48,28 @@ public class ModuleGenerator {
 			theseRoomLocations.add(location);
 		}
 
-		int roomStart = 0;
-		while (roomStart < centroids.size()) {
-			int roomIndex = centroids.get(roomStart).roomIndex;
-			int roomEnd;
-			roomEnd = roomStart;
-			while (roomEnd < centroids.size() && centroids.get(roomEnd).roomIndex == roomIndex) {
-				roomEnd++;
+		ctx.setPhase("carving");
+		CentroidBuffer buffer = CentroidBuffer.of(centroids);
+		for (int room = 0; room < buffer.getRoomCount(); room++) {
+			int minRoomY = buffer.getRoomMinY(room);
+			int maxRoomY = buffer.getRoomMaxY(room);
+			for (int i : buffer.getTraversalOrder(buffer.getRoomStart(room), buffer.getRoomEnd(room), ctx.style.usesMortonOrder())) {
+				ctx.yieldIfThrottled();
+				deleteCentroid(ctx, buffer, i, minRoomY, maxRoomY);
 			}
-
-			List<Centroid> roomCentroids = centroids.subList(roomStart, roomEnd);
-			int minRoomY = roomCentroids.stream().mapToInt(centroid -> centroid.pos.getBlockY() - centroid.size).min().orElse(0);
-			int maxRoomY = roomCentroids.stream().mapToInt(centroid -> centroid.pos.getBlockY() + centroid.size).max().orElse(255);
-			for (Centroid centroid : roomCentroids) {
-				deleteCentroid(ctx, centroid, minRoomY, maxRoomY);
-			}
-
-			roomStart = roomEnd;
 		}
 	}
 
-	private static void deleteCentroid(CaveGenContext ctx, Centroid centroid, int minRoomY, int maxRoomY) {
-		int x = centroid.pos.getBlockX();
-		int y = centroid.pos.getBlockY();
-		int z = centroid.pos.getBlockZ();
-		int r = centroid.size;
+	public static void deleteCentroid(CaveGenContext ctx, CentroidBuffer centroids, int index, int minRoomY, int maxRoomY) {
+		int x = centroids.getBlockX(index);
+		int y = centroids.getBlockY(index);
+		int z = centroids.getBlockZ(index);
+		int r = centroids.getSize(index);
+		Centroid centroid = centroids.get(index);
+		CaveStyle.AirBlocks airBlocks = ctx.getAirBlocks(centroid);
 
 		for(int ty = -r; ty <= r; ty++) {
-			BlockProvider airBlock = ctx.style.getAirBlock(ty + y, centroid, minRoomY, maxRoomY);
+			BlockProvider airBlock = airBlocks.get(ty + y, centroid, minRoomY, maxRoomY);
 			for(int tx = -r; tx <= r; tx++){
 				for(int tz = -r; tz <= r; tz++){
 					if(tx * tx  +  ty * ty  +  tz * tz <= r * r){
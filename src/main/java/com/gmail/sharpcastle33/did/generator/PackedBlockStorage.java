@@ -1,32 +1,82 @@
 package com.gmail.sharpcastle33.did.generator;
 
+import com.gmail.sharpcastle33.did.Util;
+import com.gmail.sharpcastle33.did.config.ConfigUtil;
+import com.gmail.sharpcastle33.did.config.InvalidConfigException;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.world.block.BlockState;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class PackedBlockStorage {
+	private static final int FORMAT_VERSION = 1;
+
 	private final Map<BlockState, Integer> palette = new HashMap<>();
 	private final List<BlockState> inversePalette = new ArrayList<>();
 	private int bitsPerBlock = 4;
 	private int maxNumBlocks = 16;
 	private int blocksPerWord = 16;
 	private final BlockState defaultBlock;
-	private final Map<BlockVector3, long[]> subchunks = new HashMap<>();
+	// the Morton codes of the subchunk positions in ascending order, so that subchunks are visited and written in Morton
+	// order, with the packed blocks of each subchunk at the same index
+	private long[] subchunkKeys = new long[16];
+	private long[][] subchunks = new long[16][];
+	private int subchunkCount;
+	// successive accesses are usually in the same subchunk
+	private long lastSubchunkKey;
+	@Nullable
+	private long[] lastSubchunk;
 
 	public PackedBlockStorage(BlockState defaultBlock) {
 		this.defaultBlock = defaultBlock;
 	}
 
-	private static BlockVector3 subchunkPos(BlockVector3 pos) {
-		return BlockVector3.at(pos.getX() >> 4, pos.getY() >> 4, pos.getZ() >> 4);
+	private static long subchunkKey(int x, int y, int z) {
+		return Util.mortonCode(x >> 4, y >> 4, z >> 4);
+	}
+
+	@Nullable
+	private long[] getSubchunk(long key, boolean create) {
+		if (lastSubchunk != null && lastSubchunkKey == key) {
+			return lastSubchunk;
+		}
+		int index = Arrays.binarySearch(subchunkKeys, 0, subchunkCount, key);
+		long[] subchunk;
+		if (index >= 0) {
+			subchunk = subchunks[index];
+		} else if (create) {
+			subchunk = new long[(4096 + blocksPerWord - 1) / blocksPerWord];
+			insertSubchunk(-index - 1, key, subchunk);
+		} else {
+			return null;
+		}
+		lastSubchunkKey = key;
+		lastSubchunk = subchunk;
+		return subchunk;
+	}
+
+	private void insertSubchunk(int index, long key, long[] subchunk) {
+		if (subchunkCount == subchunkKeys.length) {
+			subchunkKeys = Arrays.copyOf(subchunkKeys, subchunkCount * 2);
+			subchunks = Arrays.copyOf(subchunks, subchunkCount * 2);
+		}
+		System.arraycopy(subchunkKeys, index, subchunkKeys, index + 1, subchunkCount - index);
+		System.arraycopy(subchunks, index, subchunks, index + 1, subchunkCount - index);
+		subchunkKeys[index] = key;
+		subchunks[index] = subchunk;
+		subchunkCount++;
 	}
 
 	public BlockState getBlock(BlockVector3 pos) {
-		long[] packedArray = subchunks.get(subchunkPos(pos));
+		long[] packedArray = getSubchunk(subchunkKey(pos.getX(), pos.getY(), pos.getZ()), false);
 		if (packedArray == null) {
 			return defaultBlock;
 		}
@@ -42,6 +92,30 @@ public class PackedBlockStorage {
 	}
 
 	public void setBlock(BlockVector3 pos, BlockState block) {
+		int id = getId(block);
+		long[] packedArray = getSubchunk(subchunkKey(pos.getX(), pos.getY(), pos.getZ()), true);
+		int index = ((pos.getY() & 15) << 8) | ((pos.getZ() & 15) << 4) | (pos.getX() & 15);
+		setId(packedArray, index, id);
+	}
+
+	/**
+	 * Sets all blocks from yStart to yEnd (inclusive) in the given column, looking up the palette and subchunks only
+	 * once per subchunk.
+	 */
+	public void setColumn(int x, int z, int yStart, int yEnd, BlockState block) {
+		int id = getId(block);
+		int y = yStart;
+		while (y <= yEnd) {
+			int subchunkEnd = Math.min(yEnd, y | 15);
+			long[] packedArray = getSubchunk(subchunkKey(x, y, z), true);
+			int horizontalIndex = ((z & 15) << 4) | (x & 15);
+			for (; y <= subchunkEnd; y++) {
+				setId(packedArray, ((y & 15) << 8) | horizontalIndex, id);
+			}
+		}
+	}
+
+	private int getId(BlockState block) {
 		int prevSize = palette.size();
 		int id = block.equals(defaultBlock) ? 0 : palette.computeIfAbsent(block, k -> prevSize + 1);
 		if (palette.size() != prevSize) {
@@ -50,9 +124,10 @@ public class PackedBlockStorage {
 				expandBitsPerBlock();
 			}
 		}
+		return id;
+	}
 
-		long[] packedArray = subchunks.computeIfAbsent(subchunkPos(pos), k -> new long[(4096 + blocksPerWord - 1) / blocksPerWord]);
-		int index = ((pos.getY() & 15) << 8) | ((pos.getZ() & 15) << 4) | (pos.getX() & 15);
+	private void setId(long[] packedArray, int index, int id) {
 		int indexInWord = index % blocksPerWord;
 		int wordIndex = index / blocksPerWord;
 		long word = packedArray[wordIndex];
@@ -61,6 +136,88 @@ public class PackedBlockStorage {
 		packedArray[wordIndex] = word;
 	}
 
+	/**
+	 * Calls the consumer for every block that differs from the default block, one subchunk at a time in Morton order.
+	 */
+	public void forEachBlock(BlockConsumer consumer) {
+		for (int i = 0; i < subchunkCount; i++) {
+			BlockVector3 subchunkPos = Util.fromMortonCode(subchunkKeys[i]).multiply(16);
+			long[] packedArray = subchunks[i];
+			for (int index = 0; index < 4096; index++) {
+				long word = packedArray[index / blocksPerWord];
+				int id = (int) (word >>> ((index % blocksPerWord) * bitsPerBlock)) & (maxNumBlocks - 1);
+				if (id > 0 && id <= inversePalette.size()) {
+					consumer.accept(subchunkPos.getBlockX() + (index & 15), subchunkPos.getBlockY() + (index >> 8), subchunkPos.getBlockZ() + ((index >> 4) & 15), inversePalette.get(id - 1));
+				}
+			}
+		}
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(FORMAT_VERSION);
+		out.writeUTF(defaultBlock.getAsString());
+		out.writeInt(inversePalette.size());
+		for (BlockState block : inversePalette) {
+			out.writeUTF(block.getAsString());
+		}
+		out.writeInt(bitsPerBlock);
+		out.writeInt(subchunkCount);
+		for (int i = 0; i < subchunkCount; i++) {
+			out.writeLong(subchunkKeys[i]);
+			for (long word : subchunks[i]) {
+				out.writeLong(word);
+			}
+		}
+	}
+
+	public static PackedBlockStorage read(DataInput in) throws IOException {
+		int version = in.readInt();
+		if (version != FORMAT_VERSION) {
+			throw new IOException("Unsupported block storage version " + version);
+		}
+		PackedBlockStorage storage = new PackedBlockStorage(readBlock(in));
+		int paletteSize = in.readInt();
+		for (int i = 0; i < paletteSize; i++) {
+			BlockState block = readBlock(in);
+			storage.palette.put(block, i + 1);
+			storage.inversePalette.add(block);
+		}
+		int bitsPerBlock = in.readInt();
+		if (bitsPerBlock < 4 || bitsPerBlock > 30 || (1L << bitsPerBlock) <= paletteSize) {
+			throw new IOException("Invalid bits per block " + bitsPerBlock);
+		}
+		storage.bitsPerBlock = bitsPerBlock;
+		storage.maxNumBlocks = 1 << bitsPerBlock;
+		storage.blocksPerWord = 64 / bitsPerBlock;
+		int subchunkCount = in.readInt();
+		if (subchunkCount < 0) {
+			throw new IOException("Invalid subchunk count " + subchunkCount);
+		}
+		int wordsPerSubchunk = (4096 + storage.blocksPerWord - 1) / storage.blocksPerWord;
+		for (int i = 0; i < subchunkCount; i++) {
+			long key = in.readLong();
+			long[] packedArray = new long[wordsPerSubchunk];
+			for (int j = 0; j < wordsPerSubchunk; j++) {
+				packedArray[j] = in.readLong();
+			}
+			int index = Arrays.binarySearch(storage.subchunkKeys, 0, storage.subchunkCount, key);
+			if (index >= 0) {
+				throw new IOException("Duplicate subchunk " + key);
+			}
+			storage.insertSubchunk(-index - 1, key, packedArray);
+		}
+		return storage;
+	}
+
+	private static BlockState readBlock(DataInput in) throws IOException {
+		String block = in.readUTF();
+		try {
+			return ConfigUtil.parseBlock(block).toImmutableState();
+		} catch (InvalidConfigException e) {
+			throw new IOException("Invalid block " + block, e);
+		}
+	}
+
 	private void expandBitsPerBlock() {
 		int prevBitsPerBlock = bitsPerBlock;
 		int prevMaxNumBlocks = maxNumBlocks;
@@ -68,8 +225,10 @@ public class PackedBlockStorage {
 		bitsPerBlock = prevBitsPerBlock + 1;
 		maxNumBlocks = prevMaxNumBlocks << 1;
 		blocksPerWord = 64 / bitsPerBlock;
+		lastSubchunk = null;
 
-		subchunks.replaceAll((pos, oldArray) -> {
+		for (int i = 0; i < subchunkCount; i++) {
+			long[] oldArray = subchunks[i];
 			long[] newArray = new long[(4096 + blocksPerWord - 1) / blocksPerWord];
 			for (int index = 0; index < 4096; index++) {
 				int indexInOldWord = index % prevBlocksPerWord;
@@ -78,7 +237,12 @@ public class PackedBlockStorage {
 				long id = (oldWord >>> (indexInOldWord * prevBitsPerBlock)) & (prevMaxNumBlocks - 1);
 				newArray[index / blocksPerWord] |= id << (indexInNewWord * bitsPerBlock);
 			}
-			return newArray;
-		});
+			subchunks[i] = newArray;
+		}
+	}
+
+	@FunctionalInterface
+	public interface BlockConsumer {
+		void accept(int x, int y, int z, BlockState block);
 	}
 }
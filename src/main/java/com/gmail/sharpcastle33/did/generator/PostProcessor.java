@@ -1,6 +1,7 @@
 package com.gmail.sharpcastle33.did.generator;
 
 import com.gmail.sharpcastle33.did.Util;
+import com.gmail.sharpcastle33.did.config.CaveStyle;
 import com.gmail.sharpcastle33.did.generator.painter.PainterStep;
 import com.gmail.sharpcastle33.did.generator.structure.Structure;
 import com.sk89q.worldedit.MaxChangedBlocksException;
@@ -21,38 +22,70 @@ import java.util.logging.Level;
 public class PostProcessor {
 
 	private static final int STRUCTURE_CHANCE_ADJUST = 6 * 6;
+	public static final int STEP_SMOOTHING = 0;
+	public static final int STEP_PAINTING = 1;
+	public static final int STEP_STRUCTURES = 2;
+	public static final int STEP_COUNT = 3;
+
+	/**
+	 * Runs a single post processing step. Steps must be run in order, but the generation may be checkpointed between
+	 * them.
+	 */
+	public static void postProcessStep(CaveGenContext ctx, CentroidBuffer centroids, List<List<Vector3>> roomLocations, int step) throws WorldEditException {
+		switch (step) {
+			case STEP_SMOOTHING:
+				smoothAll(ctx, centroids);
+				break;
+			case STEP_PAINTING:
+				paintAll(ctx, centroids);
+				break;
+			case STEP_STRUCTURES:
+				generateStructures(ctx, centroids, roomLocations);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown post processing step " + step);
+		}
+	}
 
-	public static void postProcess(CaveGenContext ctx, List<Centroid> centroids, List<List<Vector3>> roomLocations) throws WorldEditException {
+	private static void smoothAll(CaveGenContext ctx, CentroidBuffer centroids) throws WorldEditException {
+		ctx.setPhase("smoothing");
 		Bukkit.getLogger().log(Level.WARNING, "Beginning smoothing pass... " + centroids.size() + " centroids.");
 
-		int roomStart = 0;
-		while (roomStart < centroids.size()) {
-			int roomIndex = centroids.get(roomStart).roomIndex;
-			int roomEnd;
-			roomEnd = roomStart;
-			while (roomEnd < centroids.size() && centroids.get(roomEnd).roomIndex == roomIndex) {
-				roomEnd++;
+		for (int room = 0; room < centroids.getRoomCount(); room++) {
+			int minRoomY = centroids.getRoomMinY(room);
+			int maxRoomY = centroids.getRoomMaxY(room);
+			for (int i : centroids.getTraversalOrder(centroids.getRoomStart(room), centroids.getRoomEnd(room), ctx.style.usesMortonOrder())) {
+				ctx.yieldIfThrottled();
+				smooth(ctx, centroids, i, minRoomY, maxRoomY);
 			}
-
-			List<Centroid> roomCentroids = centroids.subList(roomStart, roomEnd);
-			int minRoomY = roomCentroids.stream().mapToInt(centroid -> centroid.pos.getBlockY() - centroid.size).min().orElse(0);
-			int maxRoomY = roomCentroids.stream().mapToInt(centroid -> centroid.pos.getBlockY() + centroid.size).max().orElse(255);
-			for (Centroid centroid : roomCentroids) {
-				smooth(ctx, centroid, minRoomY, maxRoomY);
-			}
-
-			roomStart = roomEnd;
 		}
+	}
 
+	private static void paintAll(CaveGenContext ctx, CentroidBuffer centroids) throws WorldEditException {
+		ctx.setPhase("painting");
 		Bukkit.getLogger().log(Level.WARNING, "Beginning painter pass...");
 
+		int[] order = centroids.getTraversalOrder(0, centroids.size(), ctx.style.usesMortonOrder());
+		List<PainterStep> painterSteps = ctx.style.getPainterSteps();
+		long[] painterTagMasks = new long[painterSteps.size()];
+		GenerationProfile.Step[] painterTimers = new GenerationProfile.Step[painterSteps.size()];
+		for (int j = 0; j < painterTagMasks.length; j++) {
+			painterTagMasks[j] = centroids.getTagMask(painterSteps.get(j).getTags());
+			painterTimers[j] = ctx.getProfile().step("painter " + j + " (" + painterSteps.get(j).getType().getName() + ")");
+		}
 		Set<BlockVector3> paintedBlocks = new HashSet<>();
 		List<BlockVector3> paintedBlocksThisCentroid = new ArrayList<>();
-		for(Centroid centroid : centroids) {
-			for (PainterStep painterStep : ctx.style.getPainterSteps()) {
-				if (painterStep.areTagsInverted()
-						? painterStep.getTags().stream().noneMatch(centroid.tags::contains)
-						: painterStep.getTags().stream().anyMatch(centroid.tags::contains)) {
+		for (int i : order) {
+			ctx.yieldIfThrottled();
+			// only create the centroid if a painter needs it
+			Centroid centroid = null;
+			for (int j = 0; j < painterSteps.size(); j++) {
+				PainterStep painterStep = painterSteps.get(j);
+				if (centroids.hasAnyTag(i, painterTagMasks[j], painterStep.getTags()) != painterStep.areTagsInverted()) {
+					if (centroid == null) {
+						centroid = centroids.get(i);
+					}
+					painterTimers[j].start();
 					painterStep.apply(ctx, centroid, pos -> {
 						if (paintedBlocks.contains(pos)) {
 							return false;
@@ -60,22 +93,37 @@ public class PostProcessor {
 						paintedBlocksThisCentroid.add(pos);
 						return true;
 					});
+					painterTimers[j].stop();
 				}
 			}
 			paintedBlocks.addAll(paintedBlocksThisCentroid);
 			paintedBlocksThisCentroid.clear();
 		}
+	}
 
+	private static void generateStructures(CaveGenContext ctx, CentroidBuffer centroids, List<List<Vector3>> roomLocations) throws WorldEditException {
+		ctx.setPhase("structures");
 		Bukkit.getLogger().log(Level.WARNING, "Beginning structure pass...");
 
+		int[] order = centroids.getTraversalOrder(0, centroids.size(), ctx.style.usesMortonOrder());
+
 		for (Structure structure : ctx.style.getStructures()) {
-			generateStructure(ctx, centroids, structure);
+			GenerationProfile.Step timer = ctx.getProfile().step("structure " + structure.getName());
+			timer.start();
+			generateStructure(ctx, centroids, order, structure);
+			timer.stop();
 		}
 
 		if (!centroids.isEmpty()) {
+			ctx.setPhase("portal");
 			generatePortal(ctx, centroids.get(0));
 		}
 
+		ctx.setPhase("connections");
+		Bukkit.getLogger().log(Level.WARNING, "Beginning connection pass...");
+
+		ctx.resolveConnections();
+
 		if (ctx.isDebug()) {
 			for (List<Vector3> tunnel : roomLocations) {
 				for (int i = 1; i < tunnel.size(); i++) {
@@ -88,8 +136,8 @@ public class PostProcessor {
 					}
 				}
 			}
-			for (Centroid centroid : centroids) {
-				ctx.setBlock(centroid.pos.toBlockPoint(), Util.requireDefaultState(BlockTypes.EMERALD_BLOCK));
+			for (int i = 0; i < centroids.size(); i++) {
+				ctx.setBlock(BlockVector3.at(centroids.getBlockX(i), centroids.getBlockY(i), centroids.getBlockZ(i)), Util.requireDefaultState(BlockTypes.EMERALD_BLOCK));
 			}
 			for (List<Vector3> tunnel : roomLocations) {
 				for (Vector3 roomCenter : tunnel) {
@@ -99,11 +147,13 @@ public class PostProcessor {
 		}
 	}
 
-	public static void smooth(CaveGenContext ctx, Centroid centroid, int minRoomY, int maxRoomY) throws MaxChangedBlocksException {
-		int x = centroid.pos.getBlockX();
-		int y = centroid.pos.getBlockY();
-		int z = centroid.pos.getBlockZ();
-		int r = centroid.size + 2;
+	public static void smooth(CaveGenContext ctx, CentroidBuffer centroids, int index, int minRoomY, int maxRoomY) throws MaxChangedBlocksException {
+		int x = centroids.getBlockX(index);
+		int y = centroids.getBlockY(index);
+		int z = centroids.getBlockZ(index);
+		int r = centroids.getSize(index) + 2;
+		Centroid centroid = centroids.get(index);
+		CaveStyle.AirBlocks airBlocks = ctx.getAirBlocks(centroid);
 
 		for(int tx = -r; tx <= r; tx++){
 			for(int ty = -r; ty <= r; ty++){
@@ -116,7 +166,7 @@ public class PostProcessor {
 							if(amt >= 13) {
 								//Bukkit.getServer().getLogger().log(Level.WARNING,"count: " + amt);
 								if(ctx.rand.nextInt(100) < 95) {
-									ctx.setBlock(pos, ctx.style.getAirBlock(pos.getBlockY(), centroid, minRoomY, maxRoomY).get(ctx, centroid));
+									ctx.setBlock(pos, airBlocks.get(pos.getBlockY(), centroid, minRoomY, maxRoomY).get(ctx, centroid));
 								}
 							}
 						}
@@ -144,16 +194,19 @@ public class PostProcessor {
 
 
 
-	public static void generateStructure(CaveGenContext ctx, List<Centroid> centroids, Structure structure) throws WorldEditException {
+	public static void generateStructure(CaveGenContext ctx, CentroidBuffer centroids, int[] order, Structure structure) throws WorldEditException {
 		if (structure.getValidDirections().isEmpty()) {
 			return;
 		}
-		for (Centroid centroid : centroids) {
-			if (centroid.size <= 0) {
+		long tagMask = centroids.getTagMask(structure.getTags());
+		for (int i : order) {
+			ctx.yieldIfThrottled();
+			int size = centroids.getSize(i);
+			if (size <= 0) {
 				continue;
 			}
 
-			double averageStructures = structure.getCount() * (centroid.size * centroid.size) / STRUCTURE_CHANCE_ADJUST;
+			double averageStructures = structure.getCount() * (size * size) / STRUCTURE_CHANCE_ADJUST;
 			// compute the number of structures in this centroid using the Poisson distribution
 			// https://stackoverflow.com/questions/9832919/generate-poisson-arrival-in-java
 			double L = Math.exp(-averageStructures);
@@ -164,12 +217,13 @@ public class PostProcessor {
 				numStructures++;
 			} while (p > L);
 
+			if (numStructures == 0 || centroids.hasAnyTag(i, tagMask, structure.getTags()) == structure.areTagsInverted()) {
+				continue;
+			}
+			Centroid centroid = centroids.get(i);
 			for (int j = 0; j < numStructures; j++) {
-				if (structure.areTagsInverted()
-						? structure.getTags().stream().noneMatch(centroid.tags::contains)
-						: structure.getTags().stream().anyMatch(centroid.tags::contains)) {
-					placeStructure(ctx, structure, centroid, false);
-				}
+				ctx.yieldIfThrottled();
+				placeStructure(ctx, structure, centroid, false);
 			}
 		}
 	}
@@ -215,7 +269,11 @@ public class PostProcessor {
 		ctx.pushTransform(structure.getBlockTransform(randomYRotation, pos, dir), structure.getPositionTransform(randomYRotation, pos, dir));
 		boolean placed = structure.place(ctx, pos, centroid, force);
 		ctx.popTransform();
-		return placed ? pos : null;
+		if (!placed) {
+			return null;
+		}
+		ctx.onStructurePlaced();
+		return pos;
 	}
 
 	private static void generatePortal(CaveGenContext ctx, Centroid firstCentroid) {
@@ -224,6 +282,7 @@ public class PostProcessor {
 		}
 		// 100 attempts to place a portal without force (in a nice location)
 		for (int i = 0; i < 100; i++) {
+			ctx.checkCanceled();
 			Structure portal = ctx.style.getPortals().get(ctx.rand.nextInt(ctx.style.getPortals().size()));
 			BlockVector3 portalPos = placeStructure(ctx, portal, firstCentroid, false);
 			if (portalPos != null) {
@@ -0,0 +1,43 @@
+package com.gmail.sharpcastle33.did.generator;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockStateHolder;
+
+/**
+ * Where a generation writes its blocks to. The generation context keeps its own copy of every block it sets, so a sink
+ * never needs to be read from.
+ */
+public interface WorldSink {
+	boolean setBlock(BlockVector3 pos, BlockStateHolder<?> block);
+
+	boolean setBlock(int x, int y, int z, BlockState block);
+
+	/**
+	 * Gets an extent to delegate operations to that the generation context doesn't handle itself.
+	 */
+	Extent getExtent();
+
+	/**
+	 * Discards the blocks that haven't been flushed yet. The sink must still be closed afterwards.
+	 */
+	void cancel();
+
+	/**
+	 * Flushes the blocks that have been set.
+	 */
+	void close();
+
+	static WorldSink of(EditSession session) {
+		return new EditSessionSink(session);
+	}
+
+	/**
+	 * Gets a sink that discards all blocks, for generating into the context's block storage only.
+	 */
+	static WorldSink discarding() {
+		return new DiscardingWorldSink();
+	}
+}
@@ -32,7 +32,7 @@ public class ReplaceMesaStep extends PainterStep {
 		int radius = centroid.size + 4;
 
 		for (int ty = -radius; ty <= radius; ty++) {
-			BlockProvider replacement = mesaLayers.get(ty + y);
+			BlockProvider replacement = mesaLayers.getInt(ty + y);
 			if (replacement == null) {
 				continue;
 			}
@@ -37,6 +37,7 @@ public abstract class AbstractPatchStructure extends Structure {
 		}
 		boolean placed = false;
 		for (int i = 0; i < tries; i++) {
+			ctx.checkCanceled();
 			BlockVector3 offsetPos = origin.add(
 					ctx.rand.nextInt(spread.getX() + 1) - ctx.rand.nextInt(spread.getX() + 1),
 					ctx.rand.nextInt(spread.getY() + 1) - ctx.rand.nextInt(spread.getY() + 1),
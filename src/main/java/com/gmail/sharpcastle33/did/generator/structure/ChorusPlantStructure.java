@@ -6,6 +6,7 @@ import com.gmail.sharpcastle33.did.config.ConfigUtil;
 import com.gmail.sharpcastle33.did.config.InvalidConfigException;
 import com.gmail.sharpcastle33.did.generator.CaveGenContext;
 import com.gmail.sharpcastle33.did.generator.Centroid;
+import com.gmail.sharpcastle33.did.generator.ConnectionRule;
 import com.gmail.sharpcastle33.did.provider.BlockProvider;
 import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.math.BlockVector3;
@@ -36,6 +37,7 @@ public class ChorusPlantStructure extends Structure {
 	private final double initialFlowerChance;
 	private final int minNumLayers;
 	private final int maxNumLayers;
+	private final ConnectionRule connectionRule = this::resolveConnections;
 
 	protected ChorusPlantStructure(String name, ConfigurationSection map) {
 		super(name, StructureType.CHORUS_PLANT, map);
@@ -100,27 +102,36 @@ public class ChorusPlantStructure extends Structure {
 		return stemBlock.canProduce(block) || flowerBlock.canProduce(block) || canPlaceOn(ctx, block);
 	}
 
-	private BlockStateHolder<?> withConnectionProperties(CaveGenContext ctx, BlockVector3 pos, BlockStateHolder<?> block) {
+	private BlockStateHolder<?> resolveConnections(CaveGenContext ctx, BlockVector3 pos, BlockState block) {
+		if (!stemBlock.canProduce(block)) {
+			return block;
+		}
 		BlockType blockType = block.getBlockType();
+		BlockStateHolder<?> result = block;
 		if (blockType.hasProperty(PropertyKey.UP) && canConnectTo(ctx, ctx.getBlock(pos.add(0, 1, 0)))) {
-			block = block.with(PropertyKey.UP, true);
+			result = result.with(PropertyKey.UP, true);
 		}
 		if (blockType.hasProperty(PropertyKey.DOWN) && canConnectTo(ctx, ctx.getBlock(pos.add(0, -1, 0)))) {
-			block = block.with(PropertyKey.DOWN, true);
+			result = result.with(PropertyKey.DOWN, true);
 		}
 		if (blockType.hasProperty(PropertyKey.WEST) && canConnectTo(ctx, ctx.getBlock(pos.add(-1, 0, 0)))) {
-			block = block.with(PropertyKey.WEST, true);
+			result = result.with(PropertyKey.WEST, true);
 		}
 		if (blockType.hasProperty(PropertyKey.EAST) && canConnectTo(ctx, ctx.getBlock(pos.add(1, 0, 0)))) {
-			block = block.with(PropertyKey.EAST, true);
+			result = result.with(PropertyKey.EAST, true);
 		}
 		if (blockType.hasProperty(PropertyKey.NORTH) && canConnectTo(ctx, ctx.getBlock(pos.add(0, 0, -1)))) {
-			block = block.with(PropertyKey.NORTH, true);
+			result = result.with(PropertyKey.NORTH, true);
 		}
 		if (blockType.hasProperty(PropertyKey.SOUTH) && canConnectTo(ctx, ctx.getBlock(pos.add(0, 0, 1)))) {
-			block = block.with(PropertyKey.SOUTH, true);
+			result = result.with(PropertyKey.SOUTH, true);
 		}
-		return block;
+		return result;
+	}
+
+	private void placeStem(CaveGenContext ctx, Centroid centroid, BlockVector3 pos) {
+		ctx.setBlock(pos, stemBlock.get(ctx, centroid));
+		ctx.markForConnectionUpdate(pos, connectionRule);
 	}
 
 	private boolean isSurroundedByAir(CaveGenContext ctx, BlockVector3 pos, Direction exceptDirection) {
@@ -148,7 +159,7 @@ public class ChorusPlantStructure extends Structure {
 			return false;
 		}
 
-		ctx.setBlock(pos, withConnectionProperties(ctx, pos, stemBlock.get(ctx, centroid)));
+		placeStem(ctx, centroid, pos);
 		int radius = minRadius + ctx.rand.nextInt(maxRadius - minRadius + 1);
 		int numLayers = minNumLayers + ctx.rand.nextInt(maxNumLayers - minNumLayers + 1);
 		generate(ctx, centroid, pos, pos, radius, 0, numLayers, force);
@@ -168,9 +179,7 @@ public class ChorusPlantStructure extends Structure {
 				return;
 			}
 
-			ctx.setBlock(offsetPos, withConnectionProperties(ctx, offsetPos, stemBlock.get(ctx, centroid)));
-			BlockVector3 posBelow = offsetPos.add(0, -1, 0);
-			ctx.setBlock(posBelow, withConnectionProperties(ctx, posBelow, ctx.getBlock(posBelow)));
+			placeStem(ctx, centroid, offsetPos);
 		}
 
 		boolean extended = false;
@@ -192,9 +201,7 @@ public class ChorusPlantStructure extends Structure {
 								&& canReplace(ctx, ctx.getBlock(offsetPos.add(0, -1, 0)))
 								&& isSurroundedByAir(ctx, offsetPos, Util.getOpposite(direction))) {
 							extended = true;
-							ctx.setBlock(offsetPos, withConnectionProperties(ctx, offsetPos, stemBlock.get(ctx, centroid)));
-							BlockVector3 posBehind = offsetPos.subtract(direction.toBlockVector());
-							ctx.setBlock(posBehind, withConnectionProperties(ctx, posBehind, ctx.getBlock(posBehind)));
+							placeStem(ctx, centroid, offsetPos);
 							if (j == hLength - 1) {
 								generate(ctx, centroid, offsetPos, rootPos, radius, layer + 1, numLayers, force);
 							}
@@ -17,7 +17,7 @@ public class PatchStructure extends AbstractPatchStructure {
 
 	@Override
 	protected boolean doPlace(CaveGenContext ctx, BlockVector3 pos, Centroid centroid) {
-		ctx.setBlock(pos, block.get(ctx, centroid));
+		setConnectingBlock(ctx, pos, block.get(ctx, centroid));
 		return true;
 	}
 }
@@ -1,9 +1,9 @@
 package com.gmail.sharpcastle33.did.generator.structure;
 
-import com.gmail.sharpcastle33.did.DescentIntoDarkness;
 import com.gmail.sharpcastle33.did.Util;
 import com.gmail.sharpcastle33.did.config.ConfigUtil;
 import com.gmail.sharpcastle33.did.config.InvalidConfigException;
+import com.gmail.sharpcastle33.did.config.SchematicCache;
 import com.gmail.sharpcastle33.did.generator.CaveGenContext;
 import com.gmail.sharpcastle33.did.generator.Centroid;
 import com.sk89q.worldedit.WorldEditException;
@@ -16,9 +16,12 @@ import com.sk89q.worldedit.session.ClipboardHolder;
 import com.sk89q.worldedit.util.Direction;
 import com.sk89q.worldedit.world.block.BlockStateHolder;
 import com.sk89q.worldedit.world.block.BlockTypes;
+import org.bukkit.Bukkit;
 import org.bukkit.configuration.ConfigurationSection;
 
 import java.util.List;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 public class SchematicStructure extends Structure {
 	private final List<Schematic> schematics;
@@ -28,11 +31,10 @@ public class SchematicStructure extends Structure {
 		super(name, StructureType.SCHEMATIC, map);
 		this.schematics = ConfigUtil.deserializeSingleableList(ConfigUtil.require(map, "schematics"),
 				schematicName -> {
-			Clipboard data = DescentIntoDarkness.instance.getSchematic(schematicName);
-			if (data == null) {
+			if (!SchematicCache.getInstance().exists(schematicName)) {
 				throw new InvalidConfigException("Unknown schematic: " + schematicName);
 			}
-			return new Schematic(schematicName, data);
+			return new Schematic(schematicName);
 		}, () -> null);
 		this.ignoreAir = map.getBoolean("ignoreAir", true);
 	}
@@ -50,10 +52,15 @@ public class SchematicStructure extends Structure {
 	@Override
 	public boolean place(CaveGenContext ctx, BlockVector3 pos, Centroid centroid, boolean force) throws WorldEditException {
 		Schematic chosenSchematic = schematics.get(ctx.rand.nextInt(schematics.size()));
-		ClipboardHolder clipboardHolder = new ClipboardHolder(chosenSchematic.data);
+		Clipboard data = SchematicCache.getInstance().get(chosenSchematic.name);
+		if (data == null) {
+			Bukkit.getLogger().log(Level.WARNING, "Schematic " + chosenSchematic.name + " could not be loaded");
+			return false;
+		}
+		ClipboardHolder clipboardHolder = new ClipboardHolder(data);
 
 		BlockVector3 to = pos.subtract(getOriginPositionSide().toBlockVector());
-		if (!force && !canPlace(ctx, to, chosenSchematic.data, clipboardHolder.getTransform())) {
+		if (!force && !canPlace(ctx, to, data, clipboardHolder.getTransform())) {
 			return false;
 		}
 
@@ -66,6 +73,24 @@ public class SchematicStructure extends Structure {
 		return true;
 	}
 
+	/**
+	 * Checks whether any of the schematics contains entities, which are pasted into the world rather than the context's
+	 * block storage.
+	 */
+	public boolean hasEntities() {
+		for (Schematic schematic : schematics) {
+			Clipboard data = SchematicCache.getInstance().get(schematic.name);
+			if (data != null && !data.getEntities().isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public List<String> getSchematicNames() {
+		return schematics.stream().map(schematic -> schematic.name).collect(Collectors.toList());
+	}
+
 	private boolean canPlace(CaveGenContext ctx, BlockVector3 to, Clipboard schematic, Transform transform) {
 		for (BlockVector3 pos : schematic.getRegion()) {
 			if (schematic.getBlock(pos).getBlockType() == BlockTypes.AIR) {
@@ -83,11 +108,9 @@ public class SchematicStructure extends Structure {
 
 	public static class Schematic {
 		private final String name;
-		private final Clipboard data;
 
-		private Schematic(String name, Clipboard data) {
+		private Schematic(String name) {
 			this.name = name;
-			this.data = data;
 		}
 	}
 }
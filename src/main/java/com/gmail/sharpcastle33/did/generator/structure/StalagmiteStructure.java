@@ -7,8 +7,8 @@ import com.gmail.sharpcastle33.did.generator.Centroid;
 import com.gmail.sharpcastle33.did.provider.BlockProvider;
 import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.math.BlockVector3;
-import com.sk89q.worldedit.math.Vector3;
 import com.sk89q.worldedit.util.Direction;
+import com.sk89q.worldedit.world.block.BlockStateHolder;
 import org.bukkit.configuration.ConfigurationSection;
 
 import java.util.List;
@@ -263,17 +263,37 @@ public class StalagmiteStructure extends Structure {
 							if (ctx.rand.nextFloat() < 0.2) {
 								localHeight *= 0.8f + ctx.rand.nextFloat() * 0.2f;
 							}
-							BlockVector3 pos = this.pos.add(x, 0, z);
+							int columnX = this.pos.getX() + x;
+							int columnZ = this.pos.getZ() + z;
+							int dy = this.isStalagmite ? 1 : -1;
+							// consecutive blocks with the same wind offset and block are written as a single run
+							BlockStateHolder<?> runBlock = null;
+							int runX = 0, runZ = 0, runStartY = 0, runEndY = 0;
 							boolean placedBlock = false;
-							for (int y = 0; y < localHeight; ++y) {
-								BlockVector3 windModifiedPos = wind.modify(pos);
-								if (canReplace(ctx, ctx.getBlock(windModifiedPos))) {
+							for (int i = 0; i < localHeight; i++) {
+								int y = this.pos.getY() + i * dy;
+								int cellX = columnX + wind.getOffsetX(y);
+								int cellZ = columnZ + wind.getOffsetZ(y);
+								if (canReplace(ctx, ctx.getBlock(BlockVector3.at(cellX, y, cellZ)))) {
 									placedBlock = true;
-									ctx.setBlock(windModifiedPos, block.get(ctx, centroid));
-								} else if (placedBlock && !canReplace(ctx, ctx.getBlock(windModifiedPos))) {
+									BlockStateHolder<?> cellBlock = block.get(ctx, centroid);
+									if (cellBlock == runBlock && cellX == runX && cellZ == runZ && y == runEndY + dy) {
+										runEndY = y;
+									} else {
+										if (runBlock != null) {
+											ctx.setColumn(runX, runZ, Math.min(runStartY, runEndY), Math.max(runStartY, runEndY), runBlock);
+										}
+										runBlock = cellBlock;
+										runX = cellX;
+										runZ = cellZ;
+										runStartY = runEndY = y;
+									}
+								} else if (placedBlock) {
 									break;
 								}
-								pos = pos.add(0, this.isStalagmite ? 1 : -1, 0);
+							}
+							if (runBlock != null) {
+								ctx.setColumn(runX, runZ, Math.min(runStartY, runEndY), Math.max(runStartY, runEndY), runBlock);
 							}
 						}
 					}
@@ -288,27 +308,36 @@ public class StalagmiteStructure extends Structure {
 
 	private final class WindModifier {
 		private final int y;
-		private final Vector3 wind;
+		private final double windX;
+		private final double windZ;
 
 		private WindModifier(int y, CaveGenContext ctx) {
 			this.y = y;
 			float speedX = minWindSpeed + ctx.rand.nextFloat() * (maxWindSpeed - minWindSpeed);
 			float speedZ = minWindSpeed + ctx.rand.nextFloat() * (maxWindSpeed - minWindSpeed);
-			this.wind = Vector3.at(ctx.rand.nextBoolean() ? -speedX : speedX, 0.0, ctx.rand.nextBoolean() ? -speedZ : speedZ);
+			this.windX = ctx.rand.nextBoolean() ? -speedX : speedX;
+			this.windZ = ctx.rand.nextBoolean() ? -speedZ : speedZ;
 		}
 
 		private WindModifier() {
 			this.y = 0;
-			this.wind = null;
+			this.windX = 0;
+			this.windZ = 0;
+		}
+
+		private int getOffsetX(int y) {
+			return (int) Math.round(windX * (this.y - y));
+		}
+
+		private int getOffsetZ(int y) {
+			return (int) Math.round(windZ * (this.y - y));
 		}
 
 		private BlockVector3 modify(BlockVector3 pos) {
-			if (this.wind == null) {
+			if (windX == 0 && windZ == 0) {
 				return pos;
 			}
-			int dy = this.y - pos.getY();
-			Vector3 delta = this.wind.multiply(dy);
-			return pos.add((int)Math.round(delta.getX()), 0, (int)Math.round(delta.getZ()));
+			return pos.add(getOffsetX(pos.getY()), 0, getOffsetZ(pos.getY()));
 		}
 	}
 }
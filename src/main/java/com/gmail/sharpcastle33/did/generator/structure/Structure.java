@@ -4,6 +4,7 @@ import com.gmail.sharpcastle33.did.config.ConfigUtil;
 import com.gmail.sharpcastle33.did.config.InvalidConfigException;
 import com.gmail.sharpcastle33.did.generator.CaveGenContext;
 import com.gmail.sharpcastle33.did.generator.Centroid;
+import com.gmail.sharpcastle33.did.generator.ConnectionRule;
 import com.gmail.sharpcastle33.did.provider.BlockPredicate;
 import com.google.common.collect.Lists;
 import com.sk89q.worldedit.WorldEditException;
@@ -283,4 +284,14 @@ public abstract class Structure {
 		return ctx.style.isTransparentBlock(block);
 	}
 
+	/**
+	 * Sets a block whose connection properties (vines, fences, panes) are computed after all structures are placed.
+	 */
+	protected void setConnectingBlock(CaveGenContext ctx, BlockVector3 pos, BlockStateHolder<?> block) {
+		ctx.setBlock(pos, block);
+		if (ConnectionRule.needsConnectionUpdate(block)) {
+			ctx.markForConnectionUpdate(pos, ConnectionRule.DEFAULT);
+		}
+	}
+
 }
@@ -233,9 +233,9 @@ public class TreeStructure extends Structure {
 
 	private void placeVine(CaveGenContext ctx, BlockVector3 pos, BlockStateHolder<?> vineBlock, PropertyKey attachProp) {
 		if (vineBlock.getBlockType().hasProperty(attachProp)) {
-			ctx.setBlock(pos, vineBlock.with(attachProp, true));
+			setConnectingBlock(ctx, pos, vineBlock.with(attachProp, true));
 		} else {
-			ctx.setBlock(pos, vineBlock);
+			setConnectingBlock(ctx, pos, vineBlock);
 		}
 	}
 
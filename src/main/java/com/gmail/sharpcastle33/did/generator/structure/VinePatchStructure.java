@@ -47,13 +47,13 @@ public class VinePatchStructure extends AbstractPatchStructure {
 		BlockVector3 offsetPos = pos;
 		boolean placed = false;
 		for (int i = 0; i < height && canReplace(ctx, ctx.getBlock(offsetPos)); i++) {
-			ctx.setBlock(offsetPos, Util.transformBlock(i == 0 ? firstBlock.get(ctx, centroid) : vine.get(ctx, centroid), transform));
+			setConnectingBlock(ctx, offsetPos, Util.transformBlock(i == 0 ? firstBlock.get(ctx, centroid) : vine.get(ctx, centroid), transform));
 			placed = true;
 			offsetPos = offsetPos.add(0, -1, 0);
 		}
 		offsetPos = offsetPos.add(0, 1, 0);
 		if (placed) {
-			ctx.setBlock(offsetPos, Util.transformBlock(lastBlock.get(ctx, centroid), transform));
+			setConnectingBlock(ctx, offsetPos, Util.transformBlock(lastBlock.get(ctx, centroid), transform));
 		}
 
 		return placed;
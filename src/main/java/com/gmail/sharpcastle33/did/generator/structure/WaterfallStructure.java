@@ -20,7 +20,8 @@ import java.util.Map;
 import java.util.Set;
 
 public class WaterfallStructure extends Structure {
-	private static final Map<BlockVector3, Integer> blockLevels = new HashMap<>();
+	// fluid levels of the waterfall being placed, per thread since caves can be generated in parallel
+	private static final ThreadLocal<Map<BlockVector3, Integer>> blockLevels = ThreadLocal.withInitial(HashMap::new);
 
 	private final FluidType fluid;
 	private final BlockProvider block;
@@ -58,7 +59,7 @@ public class WaterfallStructure extends Structure {
 		if (ctx.setBlock(pos, this.block.get(ctx, centroid))) {
 			simulateFluidTick(ctx, centroid, pos);
 		}
-		blockLevels.clear();
+		blockLevels.get().clear();
 
 		return true;
 	}
@@ -152,7 +153,7 @@ public class WaterfallStructure extends Structure {
 			return -1;
 		}
 		if (fluid == FluidType.BLOCK || fluid == FluidType.SNOW_LAYER) {
-			return blockLevels.getOrDefault(pos, 0);
+			return blockLevels.get().getOrDefault(pos, 0);
 		} else {
 			if (fluid == FluidType.WATER && state.getBlockType() != BlockTypes.WATER) {
 				return -1;
@@ -166,7 +167,7 @@ public class WaterfallStructure extends Structure {
 
 	private boolean setLevel(CaveGenContext ctx, Centroid centroid, BlockVector3 pos, int level) {
 		if (fluid == FluidType.BLOCK) {
-			return !Integer.valueOf(level).equals(blockLevels.put(pos, level)) | ctx.setBlock(pos, block.get(ctx, centroid));
+			return !Integer.valueOf(level).equals(blockLevels.get().put(pos, level)) | ctx.setBlock(pos, block.get(ctx, centroid));
 		} else if (fluid == FluidType.SNOW_LAYER) {
 			BlockVector3 posBelow = pos.add(0, -1, 0);
 			if (ctx.getBlock(posBelow).getBlockType() == BlockTypes.SNOW) {
@@ -178,7 +179,7 @@ public class WaterfallStructure extends Structure {
 			if (ctx.getBlock(pos.add(0, 1, 0)).getBlockType() == BlockTypes.SNOW) {
 				layers = 8;
 			}
-			return !Integer.valueOf(level).equals(blockLevels.put(pos, level)) | ctx.setBlock(pos,
+			return !Integer.valueOf(level).equals(blockLevels.get().put(pos, level)) | ctx.setBlock(pos,
 					Util.requireDefaultState(BlockTypes.SNOW).with(PropertyKey.LAYERS, layers));
 		} else if (fluid == FluidType.WATER) {
 			return ctx.setBlock(pos, Util.requireDefaultState(BlockTypes.WATER).with(PropertyKey.LEVEL, level));
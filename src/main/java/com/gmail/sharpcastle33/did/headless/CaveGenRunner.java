@@ -0,0 +1,144 @@
+package com.gmail.sharpcastle33.did.headless;
+
+import com.gmail.sharpcastle33.did.config.CaveStyle;
+import com.gmail.sharpcastle33.did.generator.CaveGenContext;
+import com.gmail.sharpcastle33.did.generator.CaveGenerator;
+import com.gmail.sharpcastle33.did.generator.GenerationProfile;
+import com.gmail.sharpcastle33.did.generator.MemoryWorldSink;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.sk89q.worldedit.math.BlockVector2;
+import com.sk89q.worldedit.math.Vector3;
+import com.sk89q.worldedit.world.block.BlockState;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates a single cave into memory and prints how long it took and what it consists of, to profile and compare cave
+ * styles without a server. Styles inherit from the bundled default style unless the style file defines its own.
+ *
+ * <p>Usage: {@code java -cp <plugin, server and WorldEdit jars> com.gmail.sharpcastle33.did.headless.CaveGenRunner
+ * [--schematics <dir>] [--size <size>] <style file> <style name> [seed]}
+ */
+public final class CaveGenRunner {
+	private static final String USAGE = "Usage: CaveGenRunner [--schematics <dir>] [--size <size>] <style file> <style name> [seed]";
+	private static final int TOP_BLOCKS = 20;
+	private static final int TOP_STEPS = 10;
+
+	private CaveGenRunner() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		File schematicDir = new File("schematics");
+		Integer size = null;
+		List<String> positional = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if ("--schematics".equals(args[i]) && i + 1 < args.length) {
+				schematicDir = new File(args[++i]);
+			} else if ("--size".equals(args[i]) && i + 1 < args.length) {
+				size = Ints.tryParse(args[++i]);
+				if (size == null || size <= 0) {
+					exitWithUsage();
+				}
+			} else {
+				positional.add(args[i]);
+			}
+		}
+		if (positional.size() < 2 || positional.size() > 3) {
+			exitWithUsage();
+		}
+		File styleFile = new File(positional.get(0));
+		String styleName = positional.get(1);
+		Long seed = positional.size() == 3 ? Longs.tryParse(positional.get(2)) : Long.valueOf(new Random().nextLong());
+		if (seed == null) {
+			exitWithUsage();
+		}
+		if (!styleFile.isFile()) {
+			System.err.println("Style file " + styleFile + " does not exist");
+			System.exit(1);
+		}
+
+		List<File> styleFiles = new ArrayList<>();
+		if (!definesDefaultStyle(styleFile)) {
+			styleFiles.add(HeadlessEnvironment.extractDefaultCaveStyles());
+		}
+		styleFiles.add(styleFile);
+		HeadlessEnvironment environment = HeadlessEnvironment.bootstrap(styleFiles, schematicDir);
+		CaveStyle style = environment.getCaveStyle(styleName);
+		if (style == null) {
+			System.err.println("Unknown cave style " + styleName + ", available styles: " + String.join(", ", environment.getCaveStyles().getCaveStylesByName().keySet()));
+			System.exit(1);
+		}
+
+		MemoryWorldSink sink = new MemoryWorldSink();
+		Set<BlockVector2> accessedChunks = new HashSet<>();
+		long startTime = System.nanoTime();
+		long generatedTime;
+		long blocksChanged;
+		int structuresPlaced;
+		GenerationProfile profile;
+		try (CaveGenContext ctx = CaveGenContext.create(sink, style, seed).outputAccessedChunksTo(accessedChunks)) {
+			Vector3 startPos = Vector3.at(0, style.getStartY(), 0);
+			if (size != null) {
+				CaveGenerator.generateCave(ctx, startPos, size);
+			} else {
+				CaveGenerator.generateCave(ctx, startPos);
+			}
+			generatedTime = System.nanoTime();
+			blocksChanged = ctx.getBlocksChanged();
+			structuresPlaced = ctx.getStructuresPlaced();
+			profile = ctx.getProfile();
+		}
+		long endTime = System.nanoTime();
+
+		System.out.println();
+		System.out.printf("Style %s, seed %d, size %s%n", style.getName(), seed, size == null ? "random" : size.toString());
+		System.out.printf("Generation: %d ms%n", (generatedTime - startTime) / 1000000);
+		System.out.printf("Filling and walls: %d ms%n", (endTime - generatedTime) / 1000000);
+		System.out.printf("Total: %d ms%n", (endTime - startTime) / 1000000);
+		System.out.printf("Blocks changed: %d, structures placed: %d, chunks: %d, block writes: %d%n", blocksChanged, structuresPlaced, accessedChunks.size(), sink.getBlocksWritten());
+		System.out.printf("Content hash: %016x%n", sink.getContentHash());
+		System.out.println("Phases:");
+		for (GenerationProfile.Section phase : profile.getPhases()) {
+			printSection(phase);
+		}
+		System.out.println("Slowest steps:");
+		List<GenerationProfile.Section> steps = profile.getSlowestSteps();
+		for (GenerationProfile.Section step : steps.subList(0, Math.min(TOP_STEPS, steps.size()))) {
+			printSection(step);
+		}
+		System.out.println("Most common blocks:");
+		List<Map.Entry<BlockState, Long>> blockCounts = new ArrayList<>(sink.getBlockCounts().entrySet());
+		blockCounts.sort(Map.Entry.<BlockState, Long>comparingByValue(Comparator.reverseOrder()));
+		for (Map.Entry<BlockState, Long> entry : blockCounts.subList(0, Math.min(TOP_BLOCKS, blockCounts.size()))) {
+			System.out.printf("  %10d  %s%n", entry.getValue(), entry.getKey().getAsString());
+		}
+	}
+
+	private static void printSection(GenerationProfile.Section section) {
+		System.out.printf("  %8d ms  %12d blocks touched  %6d MB allocated  %s%n", section.getNanos() / 1000000, section.getVoxelTouches(), section.getAllocatedBytes() >> 20, section.getName());
+	}
+
+	private static void exitWithUsage() {
+		System.err.println(USAGE);
+		System.exit(2);
+	}
+
+	private static boolean definesDefaultStyle(File styleFile) throws IOException {
+		try (InputStream in = new FileInputStream(styleFile)) {
+			Object styles = new Yaml().load(in);
+			return styles instanceof Map && ((Map<?, ?>) styles).containsKey("default");
+		}
+	}
+}
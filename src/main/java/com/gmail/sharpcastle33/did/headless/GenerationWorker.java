@@ -0,0 +1,143 @@
+package com.gmail.sharpcastle33.did.headless;
+
+import com.gmail.sharpcastle33.did.config.CaveStyle;
+import com.gmail.sharpcastle33.did.generator.CancellationToken;
+import com.gmail.sharpcastle33.did.generator.CaveGenContext;
+import com.gmail.sharpcastle33.did.generator.CaveGenerator;
+import com.gmail.sharpcastle33.did.generator.GenerationCanceledException;
+import com.gmail.sharpcastle33.did.generator.GenerationCheckpoint;
+import com.gmail.sharpcastle33.did.generator.PostProcessor;
+import com.gmail.sharpcastle33.did.generator.WorldSink;
+import com.gmail.sharpcastle33.did.generator.structure.SchematicStructure;
+import com.gmail.sharpcastle33.did.generator.structure.Structure;
+import org.bukkit.Bukkit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+
+/**
+ * Generates caves in a separate process, so that generation doesn't compete with the server for heap and doesn't take
+ * the server down if it runs out of memory. Reads {@link WorkerProtocol} requests from standard input until it is
+ * closed, and writes the responses to standard output. Log output goes to standard error.
+ *
+ * <p>Usage: {@code java -cp <plugin and server jars> com.gmail.sharpcastle33.did.headless.GenerationWorker <plugin data folder>}
+ */
+public final class GenerationWorker {
+	private GenerationWorker() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: GenerationWorker <plugin data folder>");
+			System.exit(2);
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out));
+		// keep stray prints from corrupting the responses
+		System.setOut(System.err);
+
+		HeadlessEnvironment environment = HeadlessEnvironment.bootstrap(new File(args[0]));
+		DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+		while (true) {
+			WorkerProtocol.Request request;
+			try {
+				request = WorkerProtocol.Request.read(in);
+			} catch (EOFException e) {
+				return;
+			}
+			byte[] result;
+			try {
+				result = generate(environment, request);
+			} catch (GenerationCanceledException e) {
+				WorkerProtocol.writeCanceled(out, e);
+				continue;
+			} catch (IllegalArgumentException e) {
+				WorkerProtocol.writeError(out, e.getMessage());
+				continue;
+			} catch (Throwable e) {
+				Bukkit.getLogger().log(Level.SEVERE, "Failed to generate cave with style " + request.styleName, e);
+				WorkerProtocol.writeError(out, e.toString());
+				if (e instanceof Error) {
+					// the process may be in a bad state, let the server start a new one
+					return;
+				}
+				continue;
+			}
+			WorkerProtocol.writeResult(out, result);
+		}
+	}
+
+	/**
+	 * Checks whether caves of the given style can be generated in a worker. Schematic entities can't be handed back to
+	 * the server in a checkpoint, so styles with them must be generated in the server.
+	 */
+	public static boolean canGenerate(CaveStyle style) {
+		for (Structure structure : style.getStructures()) {
+			if (structure instanceof SchematicStructure && ((SchematicStructure) structure).hasEntities()) {
+				return false;
+			}
+		}
+		for (Structure portal : style.getPortals()) {
+			if (portal instanceof SchematicStructure && ((SchematicStructure) portal).hasEntities()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] generate(HeadlessEnvironment environment, WorkerProtocol.Request request) {
+		CaveStyle style = environment.getCaveStyle(request.styleName);
+		if (style == null) {
+			throw new IllegalArgumentException("Unknown cave style " + request.styleName);
+		}
+		String fingerprint = environment.getCaveStyles().getFingerprint(style.getName());
+		if (!request.styleFingerprint.equals(fingerprint)) {
+			// the server's config changed since this process started
+			environment.reload();
+			style = environment.getCaveStyle(request.styleName);
+			fingerprint = environment.getCaveStyles().getFingerprint(request.styleName);
+			if (style == null || !request.styleFingerprint.equals(fingerprint)) {
+				throw new IllegalArgumentException("Cave style " + request.styleName + " differs from the server's config");
+			}
+		}
+		if (!canGenerate(style)) {
+			throw new IllegalArgumentException("Cave style " + request.styleName + " places schematic entities");
+		}
+
+		AtomicReference<byte[]> result = new AtomicReference<>();
+		CancellationToken token = new CancellationToken();
+		try (CaveGenContext ctx = CaveGenContext.create(WorldSink.discarding(), style, request.seed)
+				.cancelWith(token).limit(request.limit).limitBlocksChanged(request.maxBlocksChanged)
+				.checkpointTo(checkpoint -> {
+					if (checkpoint.getNextPostProcessStep() == PostProcessor.STEP_COUNT) {
+						result.set(serialize(checkpoint));
+					}
+				}, request.styleFingerprint)) {
+			CaveGenerator.generateCave(ctx, request.startPos.toVector3());
+			// the server fills the neighbor chunks when it writes the cave to the world, skip doing it here
+			token.cancel("Handed off to the server");
+		}
+		if (result.get() == null) {
+			throw new IllegalStateException("Generation finished without a final checkpoint");
+		}
+		return result.get();
+	}
+
+	private static byte[] serialize(GenerationCheckpoint checkpoint) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			checkpoint.write(bytes);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+}
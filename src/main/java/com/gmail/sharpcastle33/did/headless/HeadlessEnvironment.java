@@ -0,0 +1,231 @@
+package com.gmail.sharpcastle33.did.headless;
+
+import com.gmail.sharpcastle33.did.config.CaveStyle;
+import com.gmail.sharpcastle33.did.config.CaveStyles;
+import com.gmail.sharpcastle33.did.config.ConfigUtil;
+import com.gmail.sharpcastle33.did.config.SchematicCache;
+import com.sk89q.worldedit.LocalConfiguration;
+import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.event.platform.PlatformReadyEvent;
+import com.sk89q.worldedit.extension.platform.Capability;
+import com.sk89q.worldedit.extension.platform.Platform;
+import com.sk89q.worldedit.extension.platform.Preference;
+import com.sk89q.worldedit.world.registry.BundledRegistries;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Sets up just enough of Bukkit and WorldEdit to load cave styles and generate caves into memory, outside of a
+ * server. Bukkit only provides a logger, and the other server methods that return objects throw. WorldEdit uses the
+ * block data bundled with it. Biome names can't be checked, so styles should be validated by the server first.
+ */
+public final class HeadlessEnvironment {
+	private static final Logger LOGGER = Logger.getLogger("DescentIntoDarkness");
+	private static final String NAME = "DescentIntoDarkness headless";
+	// Minecraft 1.14.4
+	private static final int DATA_VERSION = 1976;
+	private static boolean platformRegistered;
+
+	@Nullable
+	private final File dataFolder;
+	private final List<File> caveStyleFiles;
+	private final CaveStyles caveStyles = new CaveStyles();
+	private final SchematicCache schematicCache;
+
+	private HeadlessEnvironment(@Nullable File dataFolder, List<File> caveStyleFiles, File schematicDir) {
+		this.dataFolder = dataFolder;
+		this.caveStyleFiles = caveStyleFiles;
+		this.schematicCache = new SchematicCache(schematicDir);
+	}
+
+	/**
+	 * Sets up the environment and loads the plugin config and cave styles from the given plugin data folder.
+	 */
+	public static HeadlessEnvironment bootstrap(File dataFolder) {
+		setUp();
+		HeadlessEnvironment environment = new HeadlessEnvironment(dataFolder, Collections.emptyList(), new File(dataFolder, "schematics"));
+		environment.reload();
+		return environment;
+	}
+
+	/**
+	 * Sets up the environment and loads only the given cave style files, which must define the default style, with
+	 * the default plugin config.
+	 */
+	public static HeadlessEnvironment bootstrap(List<File> caveStyleFiles, File schematicDir) {
+		setUp();
+		HeadlessEnvironment environment = new HeadlessEnvironment(null, new ArrayList<>(caveStyleFiles), schematicDir);
+		environment.reload();
+		return environment;
+	}
+
+	private static void setUp() {
+		synchronized (HeadlessEnvironment.class) {
+			if (Bukkit.getServer() == null) {
+				Bukkit.setServer(stub(Server.class, (method, args) -> {
+					switch (method.getName()) {
+						case "getLogger":
+							return LOGGER;
+						case "getName":
+							return NAME;
+						case "getVersion":
+						case "getBukkitVersion":
+							return "headless";
+						default:
+							// fail loudly rather than hand null to code that needs a real server
+							if (method.getReturnType() != void.class && emptyValue(method.getReturnType()) == null) {
+								throw new UnsupportedOperationException("Server." + method.getName() + " is not available outside the server");
+							}
+							return null;
+					}
+				}));
+			}
+			if (!platformRegistered) {
+				Platform platform = createPlatform();
+				WorldEdit.getInstance().getPlatformManager().register(platform);
+				WorldEdit.getInstance().getEventBus().post(new PlatformReadyEvent(platform));
+				platformRegistered = true;
+			}
+		}
+	}
+
+	/**
+	 * Copies the default cave styles bundled with the plugin to a temporary file, which is deleted on exit.
+	 */
+	public static File extractDefaultCaveStyles() throws IOException {
+		File file = File.createTempFile("defaultCaveStyles", ".yml");
+		file.deleteOnExit();
+		try (InputStream in = Objects.requireNonNull(HeadlessEnvironment.class.getResourceAsStream("/defaultCaveStyles.yml"), "Missing bundled default cave styles")) {
+			Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		return file;
+	}
+
+	public void reload() {
+		File configFile = dataFolder == null ? null : new File(dataFolder, "config.yml");
+		YamlConfiguration config = configFile != null && configFile.exists() ? ConfigUtil.loadConfiguration(configFile) : new YamlConfiguration();
+		schematicCache.setMaxBlocks(config.getLong("schematicCacheMaxBlocks", SchematicCache.DEFAULT_MAX_BLOCKS));
+		SchematicCache.setStandaloneInstance(schematicCache);
+		caveStyles.setValidateBiomes(false);
+		if (dataFolder != null) {
+			caveStyles.reload(config, dataFolder);
+		} else {
+			caveStyles.reload(config, caveStyleFiles);
+		}
+	}
+
+	public CaveStyles getCaveStyles() {
+		return caveStyles;
+	}
+
+	@Nullable
+	public CaveStyle getCaveStyle(String name) {
+		return caveStyles.getCaveStylesByName().get(name);
+	}
+
+	private static Platform createPlatform() {
+		LocalConfiguration configuration = new LocalConfiguration() {
+			@Override
+			public void load() {
+			}
+		};
+		Map<Capability, Preference> capabilities = new EnumMap<>(Capability.class);
+		capabilities.put(Capability.CONFIGURATION, Preference.NORMAL);
+		capabilities.put(Capability.GAME_HOOKS, Preference.NORMAL);
+		capabilities.put(Capability.WORLD_EDITING, Preference.NORMAL);
+		return stub(Platform.class, (method, args) -> {
+			switch (method.getName()) {
+				case "getRegistries":
+					return BundledRegistries.getInstance();
+				case "getDataVersion":
+					return DATA_VERSION;
+				case "getConfiguration":
+					return configuration;
+				case "getCapabilities":
+					return capabilities;
+				case "getPlatformName":
+					return NAME;
+				case "getVersion":
+				case "getPlatformVersion":
+					return "headless";
+				default:
+					return null;
+			}
+		});
+	}
+
+	/**
+	 * Creates an implementation of the given interface that answers the methods the handler knows, and returns empty
+	 * values for the others the handler returns null for.
+	 */
+	private static <T> T stub(Class<T> type, StubHandler handler) {
+		return type.cast(Proxy.newProxyInstance(HeadlessEnvironment.class.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+			if (method.getDeclaringClass() == Object.class) {
+				switch (method.getName()) {
+					case "equals":
+						return proxy == args[0];
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					default:
+						return NAME + " " + type.getSimpleName();
+				}
+			}
+			Object result = handler.handle(method, args);
+			return result != null ? result : emptyValue(method.getReturnType());
+		}));
+	}
+
+	@Nullable
+	private static Object emptyValue(Class<?> type) {
+		if (type == boolean.class) {
+			return false;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0L;
+		} else if (type == double.class) {
+			return 0.0;
+		} else if (type == float.class) {
+			return 0f;
+		} else if (type == short.class) {
+			return (short) 0;
+		} else if (type == byte.class) {
+			return (byte) 0;
+		} else if (type == char.class) {
+			return '\0';
+		} else if (type == List.class || type == Collection.class) {
+			return Collections.emptyList();
+		} else if (type == Set.class) {
+			return Collections.emptySet();
+		} else if (type == Map.class) {
+			return Collections.emptyMap();
+		} else {
+			return null;
+		}
+	}
+
+	@FunctionalInterface
+	private interface StubHandler {
+		@Nullable
+		Object handle(Method method, Object[] args) throws Throwable;
+	}
+}
@@ -0,0 +1,138 @@
+package com.gmail.sharpcastle33.did.headless;
+
+import com.gmail.sharpcastle33.did.generator.GenerationCanceledException;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The messages exchanged with a {@link GenerationWorker} over its standard input and output. The server sends one
+ * request at a time, and the worker answers each with the finished cave as a {@link
+ * com.gmail.sharpcastle33.did.generator.GenerationCheckpoint}, which holds the blocks as paletted sections.
+ */
+public final class WorkerProtocol {
+	private static final int MAGIC = 0x44494457; // DIDW
+	private static final int VERSION = 1;
+	public static final int STATUS_OK = 0;
+	public static final int STATUS_ERROR = 1;
+	public static final int STATUS_CANCELED = 2;
+
+	private WorkerProtocol() {
+	}
+
+	public static final class Request {
+		public final String styleName;
+		public final String styleFingerprint;
+		public final long seed;
+		public final BlockVector3 startPos;
+		public final CuboidRegion limit;
+		public final long maxBlocksChanged;
+
+		public Request(String styleName, String styleFingerprint, long seed, BlockVector3 startPos, CuboidRegion limit, long maxBlocksChanged) {
+			this.styleName = styleName;
+			this.styleFingerprint = styleFingerprint;
+			this.seed = seed;
+			this.startPos = startPos;
+			this.limit = limit;
+			this.maxBlocksChanged = maxBlocksChanged;
+		}
+
+		public void write(DataOutputStream out) throws IOException {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(styleName);
+			out.writeUTF(styleFingerprint);
+			out.writeLong(seed);
+			writePos(out, startPos);
+			writePos(out, limit.getMinimumPoint());
+			writePos(out, limit.getMaximumPoint());
+			out.writeLong(maxBlocksChanged);
+			out.flush();
+		}
+
+		public static Request read(DataInputStream in) throws IOException {
+			int magic = in.readInt();
+			int version = in.readInt();
+			if (magic != MAGIC || version != VERSION) {
+				throw new IOException("Unsupported worker request " + Integer.toHexString(magic) + " version " + version);
+			}
+			String styleName = in.readUTF();
+			String styleFingerprint = in.readUTF();
+			long seed = in.readLong();
+			BlockVector3 startPos = readPos(in);
+			CuboidRegion limit = new CuboidRegion(readPos(in), readPos(in));
+			long maxBlocksChanged = in.readLong();
+			return new Request(styleName, styleFingerprint, seed, startPos, limit, maxBlocksChanged);
+		}
+	}
+
+	/**
+	 * Writes a successful response containing the serialized checkpoint of the finished cave.
+	 */
+	public static void writeResult(DataOutputStream out, byte[] checkpoint) throws IOException {
+		out.writeInt(STATUS_OK);
+		out.writeInt(checkpoint.length);
+		out.write(checkpoint);
+		out.flush();
+	}
+
+	public static void writeError(DataOutputStream out, String message) throws IOException {
+		out.writeInt(STATUS_ERROR);
+		out.writeUTF(message);
+		out.flush();
+	}
+
+	/**
+	 * Writes a response for a generation that hit one of its limits, which would be hit again if the server retried it.
+	 */
+	public static void writeCanceled(DataOutputStream out, GenerationCanceledException e) throws IOException {
+		out.writeInt(STATUS_CANCELED);
+		out.writeUTF(e.getReason());
+		out.writeUTF(e.getPhase());
+		out.flush();
+	}
+
+	/**
+	 * Reads a response, returning the serialized checkpoint, or throwing an exception with the worker's message if the
+	 * generation failed.
+	 */
+	public static byte[] readResponse(DataInputStream in) throws IOException, WorkerException {
+		int status = in.readInt();
+		if (status == STATUS_ERROR) {
+			throw new WorkerException(in.readUTF());
+		} else if (status == STATUS_CANCELED) {
+			throw new GenerationCanceledException(in.readUTF(), in.readUTF());
+		} else if (status != STATUS_OK) {
+			throw new IOException("Invalid worker status " + status);
+		}
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Invalid length " + length);
+		}
+		byte[] checkpoint = new byte[length];
+		in.readFully(checkpoint);
+		return checkpoint;
+	}
+
+	private static void writePos(DataOutputStream out, BlockVector3 pos) throws IOException {
+		out.writeInt(pos.getX());
+		out.writeInt(pos.getY());
+		out.writeInt(pos.getZ());
+	}
+
+	private static BlockVector3 readPos(DataInputStream in) throws IOException {
+		return BlockVector3.at(in.readInt(), in.readInt(), in.readInt());
+	}
+
+	/**
+	 * Thrown when the worker reports that it could not generate the requested cave.
+	 */
+	public static class WorkerException extends Exception {
+		public WorkerException(String message) {
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package com.gmail.sharpcastle33.did.instancing;
+
+import com.gmail.sharpcastle33.did.DescentIntoDarkness;
+import com.gmail.sharpcastle33.did.Util;
+import com.gmail.sharpcastle33.did.config.CaveStyle;
+import com.gmail.sharpcastle33.did.generator.CaveBlueprint;
+import org.bukkit.Bukkit;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Stores blueprints of finished caves on disk, keyed by cave style and seed. Blueprints are kept in a folder per
+ * version of the style config, so editing a style stops its old blueprints from being used.
+ */
+public class BlueprintCache {
+	public static final boolean DEFAULT_ENABLED = false;
+	public static final int DEFAULT_MAX_PER_STYLE = 4;
+	public static final boolean DEFAULT_ROTATE = true;
+	private static final String EXTENSION = ".bin.gz";
+
+	// seeds of the blueprints in each folder
+	private final Map<File, List<Long>> index = new HashMap<>();
+	// blueprints being written, which count towards the limit but can't be loaded yet
+	private final Set<File> saving = new HashSet<>();
+
+	private static File getStyleFolder(CaveStyle style) {
+		File blueprintsFolder = new File(new File(DescentIntoDarkness.instance.getDataFolder(), "runtime"), "blueprints");
+		return new File(blueprintsFolder, style.getName().replaceAll("[^A-Za-z0-9_.-]", "_"));
+	}
+
+	@Nullable
+	private static File getFolder(CaveStyle style) {
+		String fingerprint = DescentIntoDarkness.instance.getCaveStyles().getFingerprint(style.getName());
+		return fingerprint == null ? null : new File(getStyleFolder(style), fingerprint);
+	}
+
+	private List<Long> getSeeds(File folder) {
+		return index.computeIfAbsent(folder, k -> {
+			List<Long> seeds = new ArrayList<>();
+			File[] files = folder.listFiles((dir, name) -> name.endsWith(EXTENSION));
+			if (files != null) {
+				for (File file : files) {
+					String name = file.getName();
+					try {
+						seeds.add(Long.parseLong(name.substring(0, name.length() - EXTENSION.length())));
+					} catch (NumberFormatException ignore) {
+					}
+				}
+			}
+			return seeds;
+		});
+	}
+
+	public synchronized int getCount(CaveStyle style) {
+		File folder = getFolder(style);
+		return folder == null ? 0 : getSeeds(folder).size() + getSavingCount(folder);
+	}
+
+	private int getSavingCount(File folder) {
+		return (int) saving.stream().filter(file -> folder.equals(file.getParentFile())).count();
+	}
+
+	/**
+	 * Loads a random blueprint of the given style, or returns null if there is none. Blueprints that fail to load are
+	 * deleted.
+	 */
+	@Nullable
+	public synchronized CaveBlueprint loadRandom(CaveStyle style, Random rand) {
+		File folder = getFolder(style);
+		if (folder == null) {
+			return null;
+		}
+		List<Long> seeds = getSeeds(folder);
+		while (!seeds.isEmpty()) {
+			int i = rand.nextInt(seeds.size());
+			File file = new File(folder, seeds.get(i) + EXTENSION);
+			try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+				return CaveBlueprint.read(in);
+			} catch (IOException e) {
+				Bukkit.getLogger().log(Level.WARNING, "Deleting unreadable cave blueprint " + file, e);
+				seeds.remove(i);
+				//noinspection ResultOfMethodCallIgnored
+				file.delete();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Saves the blueprint, unless the style already has the given number of blueprints. Blueprints of previous versions
+	 * of the style are deleted.
+	 */
+	public void save(CaveStyle style, CaveBlueprint blueprint, int maxPerStyle) {
+		File folder;
+		File blueprintFile;
+		synchronized (this) {
+			folder = getFolder(style);
+			if (folder == null) {
+				return;
+			}
+			List<Long> seeds = getSeeds(folder);
+			blueprintFile = new File(folder, blueprint.getSeed() + EXTENSION);
+			if (seeds.size() + getSavingCount(folder) >= maxPerStyle || seeds.contains(blueprint.getSeed()) || saving.contains(blueprintFile)) {
+				return;
+			}
+			deleteOldVersions(style, folder);
+			if (!folder.exists() && !folder.mkdirs()) {
+				return;
+			}
+			saving.add(blueprintFile);
+		}
+
+		// compressing and writing the blueprint is slow, so other generations shouldn't wait for it
+		long startTime = System.nanoTime();
+		boolean saved = false;
+		try {
+			saved = Util.saveSafely(blueprintFile, file -> {
+				try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+					blueprint.write(out);
+				}
+			});
+			DescentIntoDarkness.instance.getMetrics().saveDuration.labels("blueprint").recordSince(startTime);
+		} finally {
+			synchronized (this) {
+				saving.remove(blueprintFile);
+				// the folder may have been deleted for a newer version of the style while the blueprint was written
+				List<Long> seeds = index.get(folder);
+				if (saved && seeds != null) {
+					seeds.add(blueprint.getSeed());
+				}
+			}
+		}
+	}
+
+	private void deleteOldVersions(CaveStyle style, File currentFolder) {
+		File[] folders = getStyleFolder(style).listFiles(File::isDirectory);
+		if (folders == null) {
+			return;
+		}
+		for (File folder : folders) {
+			if (folder.equals(currentFolder)) {
+				continue;
+			}
+			index.remove(folder);
+			File[] files = folder.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					//noinspection ResultOfMethodCallIgnored
+					file.delete();
+				}
+			}
+			//noinspection ResultOfMethodCallIgnored
+			folder.delete();
+		}
+	}
+}
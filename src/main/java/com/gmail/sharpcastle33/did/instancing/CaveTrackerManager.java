@@ -1,20 +1,30 @@
 package com.gmail.sharpcastle33.did.instancing;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 import com.gmail.sharpcastle33.did.DescentIntoDarkness;
@@ -22,9 +32,16 @@ import com.gmail.sharpcastle33.did.Util;
 import com.gmail.sharpcastle33.did.config.CaveStyle;
 import com.gmail.sharpcastle33.did.config.CaveStyleGroup;
 import com.gmail.sharpcastle33.did.config.ConfigUtil;
+import com.gmail.sharpcastle33.did.generator.CaveBlueprint;
 import com.gmail.sharpcastle33.did.generator.CaveGenContext;
 import com.gmail.sharpcastle33.did.generator.CaveGenerator;
+import com.gmail.sharpcastle33.did.generator.GenerationCanceledException;
+import com.gmail.sharpcastle33.did.generator.GenerationCheckpoint;
+import com.gmail.sharpcastle33.did.generator.GenerationProfile;
+import com.gmail.sharpcastle33.did.headless.GenerationWorker;
+import com.gmail.sharpcastle33.did.headless.WorkerProtocol;
 import com.gmail.sharpcastle33.did.listeners.HiddenOre;
+import com.google.common.primitives.Ints;
 import com.onarandombox.MultiverseCore.api.MVDestination;
 import com.onarandombox.MultiverseCore.api.MVWorldManager;
 import com.onarandombox.MultiverseCore.api.MultiverseWorld;
@@ -36,6 +53,7 @@ import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.world.block.BlockTypes;
 import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
 import org.bukkit.Chunk;
 import org.bukkit.DyeColor;
 import org.bukkit.GameRule;
@@ -56,22 +74,40 @@ import org.jetbrains.annotations.Nullable;
 public class CaveTrackerManager {
 	private static final String WORLD_NAME = "did_caves";
 	private static final int INSTANCE_WIDTH_CHUNKS = 625;
+	public static final int DEFAULT_WARM_POOL_MAX_CAVES = 0;
+	public static final int DEFAULT_WARM_POOL_LOOKAHEAD_HOURS = 3;
+	public static final long DEFAULT_JOIN_QUEUE_TIMEOUT_SECONDS = 600;
+	public static final boolean DEFAULT_JOIN_QUEUE_PREEMPT_BACKGROUND = true;
+	public static final boolean DEFAULT_CHECKPOINTS_ENABLED = true;
+	private static final String CHECKPOINT_EXTENSION = ".bin.gz";
 
 	private boolean hasInitialized = false;
 	private World theWorld;
 	private final ArrayList<CaveTracker> caveTrackers = new ArrayList<>();
+	// the size of caveTrackers, published for the metrics exporter thread
+	private volatile int activeInstanceCount;
 	private final EnumMap<DyeColor, ArrayList<CaveTracker>> unexploredCavesByGroup = new EnumMap<>(DyeColor.class);
 	private ArrayList<Integer> tempClaimedIDs;
 	private final Map<UUID, Location> overworldPlayerLocations = new HashMap<>();
 	private int nextInstanceId;
 	private Objective pollutionObjective;
-	private final AtomicBoolean generatingCave = new AtomicBoolean(false);
+	private final GenerationExecutor generationExecutor = new GenerationExecutor();
+	private final TickMonitor tickMonitor = new TickMonitor(generationExecutor);
+	private final DemandTracker demandTracker = new DemandTracker();
+	private final EnumMap<DyeColor, List<JoinRequest>> joinRequests = new EnumMap<>(DyeColor.class);
+	private final GenerationCostModel costModel = new GenerationCostModel();
+	private final BlueprintCache blueprintCache = new BlueprintCache();
+	private final GenerationWatchdog watchdog = new GenerationWatchdog();
+	private final GenerationWorkerPool workerPool = new GenerationWorkerPool();
+	private final GenerationStats generationStats = new GenerationStats();
 	private final ThreadLocal<Boolean> isLeavingCave = ThreadLocal.withInitial(() -> false);
 
 	public CaveTrackerManager() {
 		for (DyeColor group : DyeColor.values()) {
 			unexploredCavesByGroup.put(group, new ArrayList<>());
 		}
+		DescentIntoDarkness.instance.getMetrics().registerGenerationQueueDepth(generationExecutor::getQueueDepth);
+		DescentIntoDarkness.instance.getMetrics().registerActiveInstances(() -> activeInstanceCount);
 	}
 
 	public void initialize() {
@@ -80,7 +116,77 @@ public class CaveTrackerManager {
 			throw new RuntimeException("Failed to create world");
 		}
 		load();
+		costModel.load();
+		demandTracker.load();
 		tempClaimedIDs = new ArrayList<>();
+		generationExecutor.start(
+				DescentIntoDarkness.instance.getConfig().getInt("generationExecutor.workers", GenerationExecutor.DEFAULT_WORKERS),
+				DescentIntoDarkness.instance.getConfig().getInt("generationExecutor.maxQueued", GenerationExecutor.DEFAULT_MAX_QUEUED)
+		);
+		resumeCheckpoints();
+	}
+
+	public void shutdown() {
+		generationExecutor.shutdown();
+		workerPool.shutdown();
+	}
+
+	private static File getCheckpointFolder() {
+		return new File(new File(DescentIntoDarkness.instance.getDataFolder(), "runtime"), "checkpoints");
+	}
+
+	private static File getCheckpointFile(int id, DyeColor color) {
+		File folder = getCheckpointFolder();
+		//noinspection ResultOfMethodCallIgnored
+		folder.mkdirs();
+		return new File(folder, id + "_" + color.name().toLowerCase(Locale.ROOT) + CHECKPOINT_EXTENSION);
+	}
+
+	private static void saveCheckpoint(File file, GenerationCheckpoint checkpoint) {
+		long startTime = System.nanoTime();
+		Util.saveSafely(file, swapFile -> {
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(swapFile))) {
+				checkpoint.write(out);
+			}
+		});
+		DescentIntoDarkness.instance.getMetrics().saveDuration.labels("checkpoint").recordSince(startTime);
+	}
+
+	/**
+	 * Continues the generations that were interrupted when the server last stopped. Checkpoints that can't be resumed,
+	 * because their slot has been taken or their style has changed since, are deleted.
+	 */
+	private void resumeCheckpoints() {
+		File[] files = getCheckpointFolder().listFiles((dir, name) -> name.endsWith(CHECKPOINT_EXTENSION));
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String[] parts = file.getName().substring(0, file.getName().length() - CHECKPOINT_EXTENSION.length()).split("_", 2);
+			Integer id = parts.length == 2 ? Ints.tryParse(parts[0]) : null;
+			DyeColor color = parts.length == 2 ? ConfigUtil.tryParseEnum(DyeColor.class, parts[1]) : null;
+			GenerationCheckpoint checkpoint;
+			try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+				checkpoint = GenerationCheckpoint.read(in);
+			} catch (IOException e) {
+				Bukkit.getLogger().log(Level.WARNING, "Deleting unreadable generation checkpoint " + file.getName(), e);
+				//noinspection ResultOfMethodCallIgnored
+				file.delete();
+				continue;
+			}
+			CaveStyle style = DescentIntoDarkness.instance.getCaveStyles().getCaveStylesByName().get(checkpoint.getStyleName());
+			if (id == null || color == null || id < 0 || id >= DescentIntoDarkness.instance.getInstanceCapacity()
+					|| getCaveById(id) != null || tempClaimedIDs.contains(id) || style == null
+					|| !checkpoint.getStyleFingerprint().equals(DescentIntoDarkness.instance.getCaveStyles().getFingerprint(style.getName()))) {
+				Bukkit.getLogger().log(Level.INFO, "Discarding generation checkpoint " + file.getName());
+				//noinspection ResultOfMethodCallIgnored
+				file.delete();
+				continue;
+			}
+			Bukkit.getLogger().log(Level.INFO, "Resuming generation of cave " + id + " with style " + style.getName());
+			tempClaimedIDs.add(id);
+			startGeneration(id, color, style, GenerationExecutor.Priority.BACKGROUND, null, checkpoint).caveFuture.whenComplete(CaveTrackerManager::logCaveCreated);
+		}
 	}
 
 	public void update() {
@@ -99,42 +205,264 @@ public class CaveTrackerManager {
 			}
 		}
 
-		if (!generatingCave.compareAndSet(false, true)) {
+		watchdog.check();
+
+		updateJoinRequests();
+		if (joinRequests.values().stream().anyMatch(requests -> !requests.isEmpty())) {
+			// players waiting for a specific color get the free slots before the background refill
 			return;
 		}
-		if (caveTrackers.size() >= DescentIntoDarkness.instance.getInstanceLimit()) {
-			generatingCave.set(false);
+
+		// keep at most one background generation per worker in flight, so that player requests don't queue behind them
+		if (generationExecutor.getPendingCount(GenerationExecutor.Priority.BACKGROUND) >= generationExecutor.getWorkerCount()) {
 			return;
 		}
-		DyeColor color = getMostAppropriateColor();
-		if (color == null) {
-			generatingCave.set(false);
-			return;
+		int caveCount = caveTrackers.size() + tempClaimedIDs.size();
+		DyeColor color;
+		CaveStyle style;
+		if (caveCount < DescentIntoDarkness.instance.getInstanceLimit()) {
+			color = getMostAppropriateColor();
+			if (color == null) {
+				return;
+			}
+			style = getRandomStyle(color);
+		} else {
+			color = getWarmPoolColor(caveCount);
+			if (color == null) {
+				return;
+			}
+			style = getDemandedStyle(color);
 		}
-		CaveStyle style = getRandomStyle(color);
 		if (style == null) {
-			generatingCave.set(false);
 			return;
 		}
-		createCave(color, style).caveFuture.whenComplete((cave, throwable) -> {
-			if (throwable != null) {
-				Bukkit.getLogger().log(Level.SEVERE, "Failed to create cave", throwable);
-			}
-			generatingCave.set(false);
+		GenerationCostModel.Admission admission = costModel.tryAdmit(style);
+		if (admission == null) {
+			return;
+		}
+		createCave(color, style, GenerationExecutor.Priority.BACKGROUND, admission).caveFuture.whenComplete(CaveTrackerManager::logCaveCreated);
+	}
+
+	private static void logCaveCreated(CaveTracker cave, Throwable throwable) {
+		if (throwable instanceof CompletionException && throwable.getCause() != null) {
+			throwable = throwable.getCause();
+		}
+		if (throwable instanceof GenerationCanceledException) {
+			Bukkit.getLogger().log(Level.INFO, "Cave generation canceled: " + throwable.getMessage());
+		} else if (throwable != null) {
+			Bukkit.getLogger().log(Level.SEVERE, "Failed to create cave", throwable);
+		} else {
 			Bukkit.getLogger().log(Level.INFO, "Cave " + cave.getId() + " is ready to join!");
+		}
+	}
+
+	/**
+	 * Finds a free cave of the given color for the player, or queues a request for one and starts generating it at
+	 * player priority. {@code onReady} is called on the main thread with the cave once it is ready, and should move the
+	 * player into it. Returns the queued request, or null if a free cave was available immediately.
+	 */
+	@Nullable
+	public JoinRequest requestCave(Player player, DyeColor color, Consumer<CaveTracker> onReady) {
+		CaveTracker freeCave = findFreeCave(color);
+		if (freeCave != null) {
+			onReady.accept(freeCave);
+			return null;
+		}
+		cancelJoinRequest(player);
+		JoinRequest request = new JoinRequest(player.getUniqueId(), color, System.currentTimeMillis(), onReady);
+		joinRequests.computeIfAbsent(color, k -> new ArrayList<>()).add(request);
+		startJoinGenerations(color);
+		return request;
+	}
+
+	public void cancelJoinRequest(Player player) {
+		for (List<JoinRequest> requests : joinRequests.values()) {
+			requests.removeIf(request -> request.player.equals(player.getUniqueId()));
+		}
+	}
+
+	/**
+	 * Gets the 1-based position of the request among the requests for the same color, or 0 if it is no longer queued.
+	 */
+	public int getJoinQueuePosition(JoinRequest request) {
+		List<JoinRequest> requests = joinRequests.get(request.color);
+		return requests == null ? 0 : requests.indexOf(request) + 1;
+	}
+
+	/**
+	 * Estimates how many milliseconds until a cave is ready for the request, or returns -1 if no generation has been
+	 * started for it yet, for example because all instance slots are taken.
+	 */
+	public long getJoinEtaMillis(JoinRequest request) {
+		int position = getJoinQueuePosition(request);
+		if (position == 0) {
+			return -1;
+		}
+		List<Long> etas = new ArrayList<>();
+		generationExecutor.getEtas().forEach((job, eta) -> {
+			if (job.getColor() == request.color) {
+				etas.add(eta);
+			}
+		});
+		Collections.sort(etas);
+		return position <= etas.size() ? etas.get(position - 1) : -1;
+	}
+
+	private void updateJoinRequests() {
+		long timeoutMillis = DescentIntoDarkness.instance.getConfig().getLong("joinQueue.timeoutSeconds", DEFAULT_JOIN_QUEUE_TIMEOUT_SECONDS) * 1000;
+		long now = System.currentTimeMillis();
+		joinRequests.forEach((color, requests) -> {
+			requests.removeIf(request -> {
+				Player player = Bukkit.getPlayer(request.player);
+				if (player == null) {
+					return true;
+				}
+				if (now - request.requestedAt > timeoutMillis) {
+					player.sendMessage(ChatColor.RED + "Your " + color.name().toLowerCase(Locale.ROOT) + " cave could not be generated in time. Please try again later.");
+					return true;
+				}
+				return false;
+			});
+			if (!requests.isEmpty()) {
+				startJoinGenerations(color);
+			}
 		});
 	}
 
+	/**
+	 * Starts player priority generations until there is one for every request of the given color, as far as the
+	 * instance limit allows.
+	 */
+	private void startJoinGenerations(DyeColor color) {
+		List<JoinRequest> requests = joinRequests.get(color);
+		int needed = (requests == null ? 0 : requests.size()) - unexploredCavesByGroup.get(color).size() - generationExecutor.getPendingCount(color);
+		for (; needed > 0; needed--) {
+			if (caveTrackers.size() + tempClaimedIDs.size() >= DescentIntoDarkness.instance.getInstanceLimit()) {
+				return;
+			}
+			CaveStyle style = getRandomStyle(color);
+			if (style == null) {
+				return;
+			}
+			CaveCreationHandle handle = createCave(color, style, GenerationExecutor.Priority.PLAYER, null);
+			if (handle.isError()) {
+				return;
+			}
+			handle.caveFuture.whenComplete(CaveTrackerManager::logCaveCreated);
+			if (DescentIntoDarkness.instance.getConfig().getBoolean("joinQueue.preemptBackground", DEFAULT_JOIN_QUEUE_PREEMPT_BACKGROUND)) {
+				generationExecutor.preempt(GenerationExecutor.Priority.BACKGROUND, color, "Preempted by a player waiting for a cave");
+			}
+		}
+	}
+
+	/**
+	 * Hands free caves of the given color to the players waiting for them, in the order they asked.
+	 */
+	private void dispatchJoinRequests(DyeColor color) {
+		List<JoinRequest> requests = joinRequests.get(color);
+		while (requests != null && !requests.isEmpty()) {
+			CaveTracker cave = findFreeCave(color);
+			if (cave == null) {
+				return;
+			}
+			JoinRequest request = requests.remove(0);
+			if (Bukkit.getPlayer(request.player) != null) {
+				request.onReady.accept(cave);
+			}
+		}
+	}
+
 	@Nullable
 	private DyeColor getMostAppropriateColor() {
 		return DescentIntoDarkness.instance.getCaveStyles().getGroups().entrySet().stream()
 				.filter(entry -> !entry.getValue().getCaveWeights().isEmpty())
-				.min(Comparator.<Map.Entry<DyeColor, CaveStyleGroup>>comparingDouble(entry -> (double) unexploredCavesByGroup.get(entry.getKey()).size() / entry.getValue().getGroupWeight())
+				.min(Comparator.<Map.Entry<DyeColor, CaveStyleGroup>>comparingDouble(entry -> (double) (unexploredCavesByGroup.get(entry.getKey()).size() + generationExecutor.getPendingCount(entry.getKey())) / entry.getValue().getGroupWeight())
 						.thenComparingInt(entry -> -entry.getValue().getGroupWeight()))
 				.map(Map.Entry::getKey)
 				.orElse(null);
 	}
 
+	/**
+	 * Picks a color to pre-generate a cave for beyond the instance limit, ahead of an hour in which more caves are
+	 * usually joined than now. Returns null if the warm pool is full or nothing needs to be pre-generated.
+	 */
+	@Nullable
+	private DyeColor getWarmPoolColor(int caveCount) {
+		int maxWarmCaves = DescentIntoDarkness.instance.getConfig().getInt("warmPool.maxCaves", DEFAULT_WARM_POOL_MAX_CAVES);
+		if (maxWarmCaves <= 0 || tickMonitor.isOverloaded()) {
+			return null;
+		}
+		if (caveCount >= Math.min(DescentIntoDarkness.instance.getInstanceCapacity(), DescentIntoDarkness.instance.getInstanceLimit() + maxWarmCaves)) {
+			return null;
+		}
+
+		int hour = DemandTracker.getCurrentHour();
+		int lookahead = Math.max(1, DescentIntoDarkness.instance.getConfig().getInt("warmPool.lookaheadHours", DEFAULT_WARM_POOL_LOOKAHEAD_HOURS));
+		double upcomingPeak = 0;
+		for (int i = 1; i <= lookahead; i++) {
+			upcomingPeak = Math.max(upcomingPeak, demandTracker.getExpectedJoins(hour + i));
+		}
+		if (upcomingPeak <= demandTracker.getExpectedJoins(hour)) {
+			return null;
+		}
+
+		DyeColor bestColor = null;
+		double bestDeficit = 0;
+		for (Map.Entry<DyeColor, CaveStyleGroup> entry : DescentIntoDarkness.instance.getCaveStyles().getGroups().entrySet()) {
+			if (entry.getValue().getCaveWeights().isEmpty()) {
+				continue;
+			}
+			DyeColor color = entry.getKey();
+			double deficit = Math.ceil(demandTracker.getExpectedJoins(color, hour + 1, lookahead))
+					- unexploredCavesByGroup.get(color).size() - generationExecutor.getPendingCount(color);
+			if (deficit > bestDeficit) {
+				bestColor = color;
+				bestDeficit = deficit;
+			}
+		}
+		return bestColor;
+	}
+
+	/**
+	 * Picks a style of the given color, favoring the styles that are usually joined in the upcoming hours.
+	 */
+	@Nullable
+	private CaveStyle getDemandedStyle(DyeColor color) {
+		CaveStyleGroup group = DescentIntoDarkness.instance.getCaveStyles().getGroups().get(color);
+		if (group == null) {
+			return null;
+		}
+		int hour = DemandTracker.getCurrentHour();
+		int lookahead = Math.max(1, DescentIntoDarkness.instance.getConfig().getInt("warmPool.lookaheadHours", DEFAULT_WARM_POOL_LOOKAHEAD_HOURS));
+		Map<String, Integer> weights = group.getCaveWeights().asMap();
+		double totalWeight = weights.values().stream().mapToInt(Integer::intValue).sum();
+		double totalJoins = demandTracker.getExpectedJoins(color, hour + 1, lookahead);
+
+		Map<String, Double> demand = new LinkedHashMap<>();
+		double totalDemand = 0;
+		for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+			double value = entry.getValue() / totalWeight;
+			if (totalJoins > 0) {
+				value += demandTracker.getExpectedJoins(color, entry.getKey(), hour + 1, lookahead) / totalJoins;
+			}
+			demand.put(entry.getKey(), value);
+			totalDemand += value;
+		}
+
+		double randVal = new Random().nextDouble() * totalDemand;
+		for (Map.Entry<String, Double> entry : demand.entrySet()) {
+			randVal -= entry.getValue();
+			if (randVal < 0) {
+				CaveStyle style = DescentIntoDarkness.instance.getCaveStyles().getCaveStylesByName().get(entry.getKey());
+				if (style != null && !style.isAbstract()) {
+					return style;
+				}
+				break;
+			}
+		}
+		return getRandomStyle(color);
+	}
+
 	private CaveStyle getRandomStyle(DyeColor color) {
 		CaveStyleGroup group = DescentIntoDarkness.instance.getCaveStyles().getGroups().get(color);
 		if (group == null) {
@@ -161,6 +489,10 @@ public class CaveTrackerManager {
 	}
 
 	public CaveCreationHandle createCave(DyeColor color, CaveStyle style) {
+		return createCave(color, style, GenerationExecutor.Priority.PLAYER, null);
+	}
+
+	private CaveCreationHandle createCave(DyeColor color, CaveStyle style, GenerationExecutor.Priority priority, @Nullable GenerationCostModel.Admission admission) {
 		int instanceCapacity = DescentIntoDarkness.instance.getInstanceCapacity();
 		int oldInstanceId = nextInstanceId;
 		Bukkit.getServer().getLogger().info("NextInstanceID: " + nextInstanceId + " Instance Capacity: " + instanceCapacity);
@@ -181,40 +513,141 @@ public class CaveTrackerManager {
 		}
 
 		Bukkit.getLogger().log(Level.INFO, "Generating cave with ID " + id);
+		return startGeneration(id, color, style, priority, admission, null);
+	}
+
+	/**
+	 * Generates a cave in the given instance slot, which must already be claimed, or continues an interrupted
+	 * generation if a checkpoint is given.
+	 */
+	private CaveCreationHandle startGeneration(int id, DyeColor color, CaveStyle style, GenerationExecutor.Priority priority, @Nullable GenerationCostModel.Admission admission, @Nullable GenerationCheckpoint checkpoint) {
+		ConfigurationSection config = DescentIntoDarkness.instance.getConfig();
+		boolean blueprintsEnabled = config.getBoolean("blueprints.enabled", BlueprintCache.DEFAULT_ENABLED);
+		int maxBlueprints = config.getInt("blueprints.maxPerStyle", BlueprintCache.DEFAULT_MAX_PER_STYLE);
+		boolean rotateBlueprints = config.getBoolean("blueprints.rotate", BlueprintCache.DEFAULT_ROTATE);
+		// only stamp caves when generating from scratch would keep someone waiting
+		boolean stampBlueprint = checkpoint == null && blueprintsEnabled && (priority == GenerationExecutor.Priority.PLAYER || unexploredCavesByGroup.get(color).isEmpty());
+		File checkpointFile = checkpoint != null || config.getBoolean("checkpoints.enabled", DEFAULT_CHECKPOINTS_ENABLED) ? getCheckpointFile(id, color) : null;
+		String styleFingerprint = Objects.toString(DescentIntoDarkness.instance.getCaveStyles().getFingerprint(style.getName()), "");
 
-		return new CaveCreationHandle(id, DescentIntoDarkness.instance.supplyAsync(() -> {
+		GenerationExecutor.Job<GeneratedCave> job = generationExecutor.submit(priority, color, "cave " + id + " (" + style.getName() + ")", costModel.getEstimatedMillis(style), token -> {
 			BlockVector2 caveChunkCoords = getInstanceChunkCoords(id);
-			BlockVector3 spawnPos = BlockVector3.at(caveChunkCoords.getBlockX() * 16, style.getStartY(), caveChunkCoords.getBlockZ() * 16);
-			long seed = new Random().nextLong() ^ System.nanoTime();
+			BlockVector3 origin = BlockVector3.at(caveChunkCoords.getBlockX() * 16, 0, caveChunkCoords.getBlockZ() * 16);
+			BlockVector3 spawnPos = origin.withY(style.getStartY());
+			Random rand = new Random();
+			CaveBlueprint blueprint = stampBlueprint ? blueprintCache.loadRandom(style, rand) : null;
+			long seed;
+			if (checkpoint != null) {
+				seed = checkpoint.getSeed();
+			} else if (blueprint != null) {
+				seed = blueprint.getSeed();
+			} else {
+				seed = rand.nextLong() ^ System.nanoTime();
+			}
 			CuboidRegion limit = new CuboidRegion(
 					spawnPos.multiply(1, 0, 1).subtract(8 * INSTANCE_WIDTH_CHUNKS - 32, 0, 8 * INSTANCE_WIDTH_CHUNKS - 32),
 					spawnPos.multiply(1, 0, 1).add(8 * INSTANCE_WIDTH_CHUNKS - 32, 255, 8 * INSTANCE_WIDTH_CHUNKS - 32)
 			);
 			Set<BlockVector2> accessedChunks = new HashSet<>();
-			try (CaveGenContext ctx = CaveGenContext.create(BukkitAdapter.adapt(theWorld), style, seed).limit(limit).outputAccessedChunksTo(accessedChunks)) {
-				CaveGenerator.generateCave(ctx, spawnPos.toVector3());
-				if (ctx.getSpawnPos() != null) {
-					spawnPos = ctx.getSpawnPos();
+			long startTime = System.nanoTime();
+			GenerationCheckpoint resumeFrom = checkpoint;
+			if (resumeFrom == null && blueprint == null && workerPool.isEnabled() && GenerationWorker.canGenerate(style)) {
+				// the worker returns the finished cave, which is written to the world like a resumed generation
+				long maxBlocksChanged = config.getLong("generationWatchdog.maxBlocksChanged", GenerationWatchdog.DEFAULT_MAX_BLOCKS_CHANGED);
+				try {
+					resumeFrom = workerPool.generate(new WorkerProtocol.Request(style.getName(), styleFingerprint, seed, spawnPos, limit, maxBlocksChanged), token);
+				} catch (GenerationCanceledException e) {
+					logAborted(id, style, e);
+					throw e;
+				}
+			}
+			com.sk89q.worldedit.world.World world = BukkitAdapter.adapt(theWorld);
+			GenerationProfile profile;
+			try (CaveGenContext ctx = (resumeFrom != null ? CaveGenContext.resume(world, style, resumeFrom) : CaveGenContext.create(world, style, seed))
+					.cancelWith(token).throttleWith(tickMonitor).limit(limit).outputAccessedChunksTo(accessedChunks)
+					.checkpointTo(checkpointFile == null ? null : saved -> saveCheckpoint(checkpointFile, saved), styleFingerprint);
+				 GenerationWatchdog.Watched ignored = watchdog.watch(ctx)) {
+				profile = ctx.getProfile();
+				if (blueprint != null) {
+					Bukkit.getLogger().log(Level.INFO, "Stamping blueprint " + seed + " into cave " + id);
+					spawnPos = blueprint.stamp(ctx, origin, rotateBlueprints ? rand.nextInt(4) : 0, rotateBlueprints && rand.nextBoolean());
+					costModel.settle(admission, getWorkMillis(ctx, startTime));
+				} else {
+					if (resumeFrom != null) {
+						CaveGenerator.resumeCave(ctx, resumeFrom);
+					} else {
+						CaveGenerator.generateCave(ctx, spawnPos.toVector3());
+					}
+					if (ctx.getSpawnPos() != null) {
+						spawnPos = ctx.getSpawnPos();
+					}
+					// search for the floor in the blocks we just generated, rather than reading the world off the main thread
+					while (spawnPos.getBlockY() > 0 && style.isTransparentBlock(ctx.getBlock(spawnPos))) {
+						spawnPos = spawnPos.add(0, -1, 0);
+					}
+					spawnPos = spawnPos.add(0, 1, 0);
+					if (checkpoint != null) {
+						// only part of the generation ran, which would skew the estimates
+						costModel.settle(admission, getWorkMillis(ctx, startTime));
+					} else {
+						costModel.record(style, admission, getWorkMillis(ctx, startTime), ctx.getBlocksChanged(), ctx.getStructuresPlaced());
+					}
+					if (blueprintsEnabled && blueprintCache.getCount(style) < maxBlueprints) {
+						blueprintCache.save(style, CaveBlueprint.capture(ctx, origin, spawnPos), maxBlueprints);
+					}
 				}
+			} catch (GenerationCanceledException e) {
+				logAborted(id, style, e);
+				throw e;
 			} catch (WorldEditException e) {
 				throw new RuntimeException("Could not generate cave", e);
 			}
-			Location spawnPoint = BukkitAdapter.adapt(theWorld, spawnPos);
-			while (style.isTransparentBlock(BukkitAdapter.adapt(spawnPoint.getBlock().getBlockData()))) {
-				spawnPoint.add(0, -1, 0);
-			}
-			spawnPoint.add(0, 1, 0);
-			return DescentIntoDarkness.instance.supplySyncNow(() -> {
-				CaveTracker caveTracker = new CaveTracker(id, theWorld, spawnPoint, seed, style, new ArrayList<>(accessedChunks));
-				caveTrackers.add(caveTracker);
-				unexploredCavesByGroup.get(color).add(caveTracker);
-				caveTracker.setColor(color);
-				Bukkit.getServer().getLogger().info("Returning new CaveTracker of ID: " + id);
+			Bukkit.getLogger().log(Level.INFO, "Profile of cave " + id + " with style " + style.getName() + ": " + profile.summarize());
+			// the profile of a worker cave only covers writing it to the world, so it would skew the stats
+			if (resumeFrom == null && blueprint == null) {
+				generationStats.record(style, profile);
+			}
+			String source = blueprint != null ? "blueprint" : checkpoint != null ? "checkpoint" : resumeFrom != null ? "worker" : "scratch";
+			DescentIntoDarkness.instance.getMetrics().generationDuration.labels(style.getName(), source).recordSince(startTime);
+			return new GeneratedCave(seed, spawnPos, accessedChunks);
+		});
+		CompletableFuture<CaveTracker> caveFuture = job.getFuture().thenApplyAsync(generated -> {
+			CaveTracker caveTracker = new CaveTracker(id, theWorld, BukkitAdapter.adapt(theWorld, generated.spawnPos), generated.seed, style, new ArrayList<>(generated.accessedChunks));
+			caveTrackers.add(caveTracker);
+			activeInstanceCount = caveTrackers.size();
+			unexploredCavesByGroup.get(color).add(caveTracker);
+			caveTracker.setColor(color);
+			Bukkit.getServer().getLogger().info("Returning new CaveTracker of ID: " + id);
+			tempClaimedIDs.remove(Integer.valueOf(id));
+			save();
+			return caveTracker;
+		}, DescentIntoDarkness.instance.getMainThreadExecutor());
+		caveFuture.thenAcceptAsync(cave -> dispatchJoinRequests(color), DescentIntoDarkness.instance.getMainThreadExecutor());
+		// release the claimed id if generation failed, so the slot can be reused
+		caveFuture.whenCompleteAsync((cave, throwable) -> {
+			if (throwable != null) {
 				tempClaimedIDs.remove(Integer.valueOf(id));
-				save();
-				return caveTracker;
-			});
-		}));
+			}
+			// keep the checkpoint if the generation was interrupted by the server stopping, so it can be resumed
+			if (checkpointFile != null && (throwable == null || !generationExecutor.isShutdown())) {
+				//noinspection ResultOfMethodCallIgnored
+				checkpointFile.delete();
+			}
+		}, DescentIntoDarkness.instance.getMainThreadExecutor());
+		return new CaveCreationHandle(id, caveFuture, job);
+	}
+
+	/**
+	 * Gets the time the generation has spent working since the given time, leaving out the pauses for the server to
+	 * catch up, which would otherwise make every style look slower while the server is lagging.
+	 */
+	private static long getWorkMillis(CaveGenContext ctx, long startTime) {
+		return Math.max(0, (System.nanoTime() - startTime) / 1000000 - ctx.getThrottledMillis());
+	}
+
+	private static void logAborted(int id, CaveStyle style, GenerationCanceledException e) {
+		DescentIntoDarkness.instance.getMetrics().generationsAborted.labels(style.getName()).inc();
+		Bukkit.getLogger().log(Level.WARNING, "Aborted generation of cave " + id + " with style " + style.getName() + " in phase " + e.getPhase() + ": " + e.getReason());
 	}
 
 	public void deleteCave(CaveTracker caveTracker) {
@@ -261,6 +694,7 @@ public class CaveTrackerManager {
 
 		caveTracker.getTeam().unregister();
 		caveTrackers.remove(caveTracker);
+		activeInstanceCount = caveTrackers.size();
 		save();
 	}
 
@@ -324,6 +758,7 @@ public class CaveTrackerManager {
 			DyeColor color = newCave.getColor();
 			if (color != null) {
 				unexploredCavesByGroup.get(color).remove(newCave);
+				demandTracker.recordJoin(color, newCave.getStyle().getName());
 			}
 		}
 
@@ -371,6 +806,34 @@ public class CaveTrackerManager {
 		return mvWorld != null && mvWorld.getName().equals(WORLD_NAME);
 	}
 
+	public TickMonitor getTickMonitor() {
+		return tickMonitor;
+	}
+
+	public GenerationExecutor getGenerationExecutor() {
+		return generationExecutor;
+	}
+
+	public GenerationWatchdog getWatchdog() {
+		return watchdog;
+	}
+
+	public DemandTracker getDemandTracker() {
+		return demandTracker;
+	}
+
+	public GenerationCostModel getCostModel() {
+		return costModel;
+	}
+
+	public GenerationStats getGenerationStats() {
+		return generationStats;
+	}
+
+	public GenerationWorkerPool getWorkerPool() {
+		return workerPool;
+	}
+
 	public List<CaveTracker> getCaves() {
 		return Collections.unmodifiableList(caveTrackers);
 	}
@@ -426,6 +889,7 @@ public class CaveTrackerManager {
 	public void load() {
 		this.overworldPlayerLocations.clear();
 		this.caveTrackers.clear();
+		activeInstanceCount = 0;
 		this.unexploredCavesByGroup.clear();
 		for (DyeColor color : DyeColor.values()) {
 			unexploredCavesByGroup.put(color, new ArrayList<>());
@@ -464,6 +928,7 @@ public class CaveTrackerManager {
 		for (Map<?, ?> caveTracker : caveTrackers) {
 			this.caveTrackers.add(new CaveTracker(theWorld, ConfigUtil.asConfigurationSection(caveTracker)));
 		}
+		activeInstanceCount = this.caveTrackers.size();
 
 		ConfigurationSection unexploredCavesByGroup = config.getConfigurationSection("unexploredCavesByGroup");
 		if (unexploredCavesByGroup != null) {
@@ -492,6 +957,7 @@ public class CaveTrackerManager {
 	}
 
 	public void save() {
+		long startTime = System.nanoTime();
 		File runtimeFolder = new File(DescentIntoDarkness.instance.getDataFolder(), "runtime");
 		if (!runtimeFolder.exists() && !runtimeFolder.mkdirs()) {
 			return;
@@ -528,19 +994,59 @@ public class CaveTrackerManager {
 		});
 
 		Util.saveSafely(new File(runtimeFolder, "cave_trackers.yml"), config::save);
+		DescentIntoDarkness.instance.getMetrics().saveDuration.labels("cave_trackers").recordSince(startTime);
+		costModel.save();
+		demandTracker.save();
+	}
+
+	public static class JoinRequest {
+		private final UUID player;
+		private final DyeColor color;
+		private final long requestedAt;
+		private final Consumer<CaveTracker> onReady;
+
+		private JoinRequest(UUID player, DyeColor color, long requestedAt, Consumer<CaveTracker> onReady) {
+			this.player = player;
+			this.color = color;
+			this.requestedAt = requestedAt;
+			this.onReady = onReady;
+		}
+
+		public UUID getPlayer() {
+			return player;
+		}
+
+		public DyeColor getColor() {
+			return color;
+		}
+	}
+
+	private static class GeneratedCave {
+		private final long seed;
+		private final BlockVector3 spawnPos;
+		private final Set<BlockVector2> accessedChunks;
+
+		private GeneratedCave(long seed, BlockVector3 spawnPos, Set<BlockVector2> accessedChunks) {
+			this.seed = seed;
+			this.spawnPos = spawnPos;
+			this.accessedChunks = accessedChunks;
+		}
 	}
 
 	public static class CaveCreationHandle {
 		public final int caveId;
 		public final CompletableFuture<CaveTracker> caveFuture;
+		@Nullable
+		public final GenerationExecutor.Job<?> job;
 
-		public CaveCreationHandle(int caveId, CompletableFuture<CaveTracker> caveFuture) {
+		public CaveCreationHandle(int caveId, CompletableFuture<CaveTracker> caveFuture, @Nullable GenerationExecutor.Job<?> job) {
 			this.caveId = caveId;
 			this.caveFuture = caveFuture;
+			this.job = job;
 		}
 
 		public static CaveCreationHandle createExceptionally(Throwable t) {
-			return new CaveCreationHandle(-1, Util.completeExceptionally(t));
+			return new CaveCreationHandle(-1, Util.completeExceptionally(t), null);
 		}
 
 		public boolean isError() {
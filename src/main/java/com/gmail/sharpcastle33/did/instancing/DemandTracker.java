@@ -0,0 +1,211 @@
+package com.gmail.sharpcastle33.did.instancing;
+
+import com.gmail.sharpcastle33.did.DescentIntoDarkness;
+import com.gmail.sharpcastle33.did.Util;
+import com.gmail.sharpcastle33.did.config.ConfigUtil;
+import org.bukkit.Bukkit;
+import org.bukkit.DyeColor;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Learns in which hours of the day caves of each color and style are joined. Join counts decay every day, so that the
+ * estimates follow changes in when players are online.
+ */
+public class DemandTracker {
+	public static final double DEFAULT_DAILY_DECAY = 0.9;
+	private static final int HOURS = 24;
+	private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+
+	private final Map<DyeColor, double[]> joinsByColor = new EnumMap<>(DyeColor.class);
+	private final Map<DyeColor, Map<String, double[]>> joinsByStyle = new EnumMap<>(DyeColor.class);
+	private long lastDecayDay = -1;
+	private boolean dirty;
+
+	public static int getCurrentHour() {
+		return Calendar.getInstance(GMT).get(Calendar.HOUR_OF_DAY);
+	}
+
+	public synchronized void recordJoin(DyeColor color, String style) {
+		decay();
+		int hour = getCurrentHour();
+		joinsByColor.computeIfAbsent(color, k -> new double[HOURS])[hour]++;
+		joinsByStyle.computeIfAbsent(color, k -> new HashMap<>()).computeIfAbsent(style, k -> new double[HOURS])[hour]++;
+		dirty = true;
+	}
+
+	/**
+	 * Estimates how many caves of the given color are joined per day in the given range of hours, wrapping around
+	 * midnight.
+	 */
+	public synchronized double getExpectedJoins(DyeColor color, int fromHour, int hours) {
+		decay();
+		return sumHours(joinsByColor.get(color), fromHour, hours);
+	}
+
+	public synchronized double getExpectedJoins(DyeColor color, String style, int fromHour, int hours) {
+		decay();
+		Map<String, double[]> styles = joinsByStyle.get(color);
+		return styles == null ? 0 : sumHours(styles.get(style), fromHour, hours);
+	}
+
+	/**
+	 * Estimates how many caves of any color are joined per day in the given hour.
+	 */
+	public synchronized double getExpectedJoins(int hour) {
+		decay();
+		double total = 0;
+		for (double[] joins : joinsByColor.values()) {
+			total += sumHours(joins, hour, 1);
+		}
+		return total;
+	}
+
+	private static double sumHours(double[] joins, int fromHour, int hours) {
+		if (joins == null) {
+			return 0;
+		}
+		double total = 0;
+		for (int i = 0; i < Math.min(hours, HOURS); i++) {
+			total += joins[Math.floorMod(fromHour + i, HOURS)];
+		}
+		// the decayed counts converge to rate / (1 - decay), so scale back to joins per day
+		return total * (1 - getDailyDecay());
+	}
+
+	private void decay() {
+		long today = TimeUnit.MILLISECONDS.toDays(System.currentTimeMillis());
+		if (lastDecayDay < 0) {
+			lastDecayDay = today;
+			return;
+		}
+		if (today <= lastDecayDay) {
+			return;
+		}
+		double factor = Math.pow(getDailyDecay(), today - lastDecayDay);
+		for (double[] joins : joinsByColor.values()) {
+			scale(joins, factor);
+		}
+		for (Map<String, double[]> styles : joinsByStyle.values()) {
+			for (double[] joins : styles.values()) {
+				scale(joins, factor);
+			}
+		}
+		lastDecayDay = today;
+		dirty = true;
+	}
+
+	private static void scale(double[] joins, double factor) {
+		for (int i = 0; i < joins.length; i++) {
+			joins[i] *= factor;
+		}
+	}
+
+	private static double getDailyDecay() {
+		double decay = DescentIntoDarkness.instance.getConfig().getDouble("warmPool.dailyDecay", DEFAULT_DAILY_DECAY);
+		return Math.max(0, Math.min(0.999, decay));
+	}
+
+	private static File getFile() {
+		return new File(new File(DescentIntoDarkness.instance.getDataFolder(), "runtime"), "cave_demand.yml");
+	}
+
+	public synchronized void load() {
+		joinsByColor.clear();
+		joinsByStyle.clear();
+		lastDecayDay = -1;
+		File file = getFile();
+		if (!file.exists()) {
+			return;
+		}
+		FileConfiguration config = YamlConfiguration.loadConfiguration(file);
+		lastDecayDay = config.getLong("lastDecayDay", -1);
+		ConfigurationSection colors = config.getConfigurationSection("colors");
+		if (colors == null) {
+			return;
+		}
+		for (String colorName : colors.getKeys(false)) {
+			DyeColor color = ConfigUtil.tryParseEnum(DyeColor.class, colorName);
+			ConfigurationSection section = colors.getConfigurationSection(colorName);
+			if (color == null || section == null) {
+				continue;
+			}
+			joinsByColor.put(color, readHours(section.getDoubleList("joins")));
+			Map<String, double[]> styleJoins = new HashMap<>();
+			for (Map<?, ?> entry : section.getMapList("styles")) {
+				ConfigurationSection entrySection = ConfigUtil.asConfigurationSection(entry);
+				String style = entrySection.getString("name");
+				if (style != null) {
+					styleJoins.put(style, readHours(entrySection.getDoubleList("joins")));
+				}
+			}
+			if (!styleJoins.isEmpty()) {
+				joinsByStyle.put(color, styleJoins);
+			}
+		}
+	}
+
+	private static double[] readHours(List<Double> list) {
+		double[] joins = new double[HOURS];
+		for (int i = 0; i < Math.min(list.size(), HOURS); i++) {
+			joins[i] = list.get(i);
+		}
+		return joins;
+	}
+
+	private static List<Double> writeHours(double[] joins) {
+		List<Double> list = new ArrayList<>(joins.length);
+		for (double join : joins) {
+			list.add(join);
+		}
+		return list;
+	}
+
+	public synchronized void save() {
+		if (!dirty) {
+			return;
+		}
+		long startTime = System.nanoTime();
+		File runtimeFolder = getFile().getParentFile();
+		if (!runtimeFolder.exists() && !runtimeFolder.mkdirs()) {
+			return;
+		}
+		FileConfiguration config = new YamlConfiguration();
+		config.set("lastDecayDay", lastDecayDay);
+		joinsByColor.forEach((color, joins) -> {
+			String path = "colors." + color.name().toLowerCase(Locale.ROOT);
+			config.set(path + ".joins", writeHours(joins));
+			Map<String, double[]> styles = joinsByStyle.get(color);
+			if (styles != null) {
+				// style names are stored as values, since they may contain the path separator
+				List<ConfigurationSection> styleList = new ArrayList<>();
+				styles.forEach((style, styleJoins) -> {
+					ConfigurationSection section = new MemoryConfiguration();
+					section.set("name", style);
+					section.set("joins", writeHours(styleJoins));
+					styleList.add(section);
+				});
+				config.set(path + ".styles", styleList);
+			}
+		});
+		if (Util.saveSafely(getFile(), config::save)) {
+			dirty = false;
+		} else {
+			Bukkit.getLogger().warning("Failed to save cave demand");
+		}
+		DescentIntoDarkness.instance.getMetrics().saveDuration.labels("demand").recordSince(startTime);
+	}
+}
@@ -0,0 +1,214 @@
+package com.gmail.sharpcastle33.did.instancing;
+
+import com.gmail.sharpcastle33.did.DescentIntoDarkness;
+import com.gmail.sharpcastle33.did.Util;
+import com.gmail.sharpcastle33.did.config.CaveStyle;
+import com.gmail.sharpcastle33.did.config.ConfigUtil;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Learns how expensive each cave style is to generate from previous generations, and limits how much generation time
+ * is started within a sliding time window. Estimates are exponentially weighted moving averages, so that they follow
+ * changes to the style configs.
+ */
+public class GenerationCostModel {
+	public static final long DEFAULT_WINDOW_SECONDS = 300;
+	public static final long DEFAULT_MILLIS_PER_WINDOW = 0;
+	public static final long DEFAULT_ESTIMATE_MILLIS = 10000;
+	private static final double SMOOTHING = 0.3;
+
+	private final Map<String, Cost> costs = new HashMap<>();
+	private final Deque<Admission> window = new ArrayDeque<>();
+	private boolean dirty;
+
+	@Nullable
+	public synchronized Cost getCost(CaveStyle style) {
+		return costs.get(style.getName());
+	}
+
+	public synchronized double getEstimatedMillis(CaveStyle style) {
+		Cost cost = costs.get(style.getName());
+		return cost == null ? getDefaultEstimateMillis() : cost.millis;
+	}
+
+	/**
+	 * Tries to reserve time in the budget for generating a cave of the given style. Returns null if the budget of the
+	 * current window is used up. A generation is always admitted when nothing else has been admitted in the window, so
+	 * that styles more expensive than the whole budget still generate eventually.
+	 */
+	@Nullable
+	public synchronized Admission tryAdmit(CaveStyle style) {
+		long now = System.currentTimeMillis();
+		long windowMillis = getWindowSeconds() * 1000;
+		while (!window.isEmpty() && window.peekFirst().admittedAt + windowMillis <= now) {
+			window.removeFirst();
+		}
+
+		double estimate = getEstimatedMillis(style);
+		long budget = getMillisPerWindow();
+		if (budget > 0 && !window.isEmpty() && getUsedMillis() + estimate > budget) {
+			return null;
+		}
+
+		Admission admission = new Admission(now, estimate);
+		window.addLast(admission);
+		return admission;
+	}
+
+	private double getUsedMillis() {
+		double used = 0;
+		for (Admission admission : window) {
+			used += admission.millis;
+		}
+		return used;
+	}
+
+	/**
+	 * Records the measured cost of a finished generation. If the generation was admitted through the budget, its
+	 * reservation is replaced by the measured time.
+	 */
+	public synchronized void record(CaveStyle style, @Nullable Admission admission, long millis, long blocksChanged, int structuresPlaced) {
+		settle(admission, millis);
+		Cost cost = costs.get(style.getName());
+		if (cost == null) {
+			costs.put(style.getName(), new Cost(1, millis, blocksChanged, structuresPlaced));
+		} else {
+			cost.samples++;
+			cost.millis += SMOOTHING * (millis - cost.millis);
+			cost.blocksChanged += SMOOTHING * (blocksChanged - cost.blocksChanged);
+			cost.structuresPlaced += SMOOTHING * (structuresPlaced - cost.structuresPlaced);
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Replaces the reservation of an admitted generation by the measured time, without learning from it. Used for caves
+	 * that were not generated from scratch, which would skew the estimates.
+	 */
+	public synchronized void settle(@Nullable Admission admission, long millis) {
+		if (admission != null) {
+			admission.millis = millis;
+		}
+	}
+
+	private static long getWindowSeconds() {
+		return Math.max(1, DescentIntoDarkness.instance.getConfig().getLong("generationBudget.windowSeconds", DEFAULT_WINDOW_SECONDS));
+	}
+
+	private static long getMillisPerWindow() {
+		return DescentIntoDarkness.instance.getConfig().getLong("generationBudget.millisPerWindow", DEFAULT_MILLIS_PER_WINDOW);
+	}
+
+	private static long getDefaultEstimateMillis() {
+		return DescentIntoDarkness.instance.getConfig().getLong("generationBudget.defaultEstimateMillis", DEFAULT_ESTIMATE_MILLIS);
+	}
+
+	private static File getFile() {
+		return new File(new File(DescentIntoDarkness.instance.getDataFolder(), "runtime"), "generation_costs.yml");
+	}
+
+	public synchronized void load() {
+		costs.clear();
+		File file = getFile();
+		if (!file.exists()) {
+			return;
+		}
+		FileConfiguration config = YamlConfiguration.loadConfiguration(file);
+		for (Map<?, ?> entry : config.getMapList("styles")) {
+			ConfigurationSection section = ConfigUtil.asConfigurationSection(entry);
+			String name = section.getString("name");
+			if (name == null) {
+				continue;
+			}
+			costs.put(name, new Cost(
+					section.getInt("samples", 0),
+					section.getDouble("millis", getDefaultEstimateMillis()),
+					section.getDouble("blocksChanged", 0),
+					section.getDouble("structuresPlaced", 0)
+			));
+		}
+	}
+
+	public synchronized void save() {
+		if (!dirty) {
+			return;
+		}
+		long startTime = System.nanoTime();
+		File runtimeFolder = getFile().getParentFile();
+		if (!runtimeFolder.exists() && !runtimeFolder.mkdirs()) {
+			return;
+		}
+		FileConfiguration config = new YamlConfiguration();
+		// a list rather than a section per style, since style names may contain the path separator
+		List<ConfigurationSection> styles = new ArrayList<>();
+		costs.forEach((name, cost) -> {
+			ConfigurationSection section = new MemoryConfiguration();
+			section.set("name", name);
+			section.set("samples", cost.samples);
+			section.set("millis", cost.millis);
+			section.set("blocksChanged", cost.blocksChanged);
+			section.set("structuresPlaced", cost.structuresPlaced);
+			styles.add(section);
+		});
+		config.set("styles", styles);
+		if (Util.saveSafely(getFile(), config::save)) {
+			dirty = false;
+		} else {
+			Bukkit.getLogger().warning("Failed to save generation costs");
+		}
+		DescentIntoDarkness.instance.getMetrics().saveDuration.labels("generation_costs").recordSince(startTime);
+	}
+
+	public static class Cost {
+		private int samples;
+		private double millis;
+		private double blocksChanged;
+		private double structuresPlaced;
+
+		private Cost(int samples, double millis, double blocksChanged, double structuresPlaced) {
+			this.samples = samples;
+			this.millis = millis;
+			this.blocksChanged = blocksChanged;
+			this.structuresPlaced = structuresPlaced;
+		}
+
+		public int getSamples() {
+			return samples;
+		}
+
+		public double getMillis() {
+			return millis;
+		}
+
+		public double getBlocksChanged() {
+			return blocksChanged;
+		}
+
+		public double getStructuresPlaced() {
+			return structuresPlaced;
+		}
+	}
+
+	public static class Admission {
+		private final long admittedAt;
+		private double millis;
+
+		private Admission(long admittedAt, double millis) {
+			this.admittedAt = admittedAt;
+			this.millis = millis;
+		}
+	}
+}
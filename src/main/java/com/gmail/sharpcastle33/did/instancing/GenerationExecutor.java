@@ -0,0 +1,368 @@
+package com.gmail.sharpcastle33.did.instancing;
+
+import com.gmail.sharpcastle33.did.generator.CancellationToken;
+import com.gmail.sharpcastle33.did.generator.GenerationCanceledException;
+import org.bukkit.Bukkit;
+import org.bukkit.DyeColor;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+/**
+ * Runs cave generations on a fixed number of worker threads. Queued generations are started in order of priority, and
+ * within a priority the color that was started least recently goes first, so that one color can't starve the others.
+ */
+public class GenerationExecutor {
+	public static final int DEFAULT_WORKERS = 2;
+	public static final int DEFAULT_MAX_QUEUED = 32;
+
+	private final Object lock = new Object();
+	private final List<Job<?>> queue = new ArrayList<>();
+	private final List<Job<?>> running = new ArrayList<>();
+	private final Map<DyeColor, Long> lastStarted = new HashMap<>();
+	private final List<Thread> workers = new ArrayList<>();
+	private int maxQueued = DEFAULT_MAX_QUEUED;
+	private int maxRunning = Integer.MAX_VALUE;
+	private long startCount;
+	private long nextSequence;
+	private boolean shutdown;
+
+	public void start(int workerCount, int maxQueued) {
+		synchronized (lock) {
+			if (!workers.isEmpty() || shutdown) {
+				return;
+			}
+			this.maxQueued = maxQueued;
+			for (int i = 0; i < Math.max(1, workerCount); i++) {
+				Thread worker = new Thread(this::runWorker, "DescentIntoDarkness generation worker " + i);
+				worker.setDaemon(true);
+				workers.add(worker);
+				worker.start();
+			}
+		}
+	}
+
+	/**
+	 * Stops the workers. Queued generations fail and running generations are canceled.
+	 */
+	public void shutdown() {
+		List<Job<?>> canceled;
+		synchronized (lock) {
+			shutdown = true;
+			canceled = new ArrayList<>(queue);
+			queue.clear();
+			for (Job<?> job : running) {
+				job.token.cancel("Generation executor shut down");
+			}
+			lock.notifyAll();
+		}
+		for (Job<?> job : canceled) {
+			job.future.completeExceptionally(new GenerationCanceledException("Generation executor shut down", "queued"));
+		}
+	}
+
+	/**
+	 * Queues a generation. The task is given a cancellation token, which it should pass on to its generation context.
+	 * If the queue is full, the returned job fails with a {@link RejectedExecutionException}.
+	 */
+	public <T> Job<T> submit(Priority priority, @Nullable DyeColor color, String description, double estimatedMillis, Function<CancellationToken, T> task) {
+		Job<T> job = new Job<>(priority, color, description, estimatedMillis, task);
+		synchronized (lock) {
+			if (shutdown) {
+				job.future.completeExceptionally(new RejectedExecutionException("Generation executor shut down"));
+				return job;
+			}
+			if (queue.size() >= maxQueued) {
+				job.future.completeExceptionally(new RejectedExecutionException("Too many queued generations"));
+				return job;
+			}
+			job.sequence = nextSequence++;
+			queue.add(job);
+			lock.notify();
+		}
+		return job;
+	}
+
+	private void runWorker() {
+		while (true) {
+			Job<?> job;
+			synchronized (lock) {
+				while ((queue.isEmpty() || running.size() >= maxRunning) && !shutdown) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (shutdown) {
+					return;
+				}
+				job = queue.remove(selectNext(queue, lastStarted));
+				lastStarted.put(job.color, startCount++);
+				job.startTime = System.currentTimeMillis();
+				running.add(job);
+			}
+			try {
+				job.run();
+			} catch (Throwable t) {
+				Bukkit.getLogger().log(Level.SEVERE, "Uncaught exception in generation worker", t);
+			} finally {
+				synchronized (lock) {
+					running.remove(job);
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+
+	private static int selectNext(List<Job<?>> queue, Map<DyeColor, Long> lastStarted) {
+		int best = 0;
+		for (int i = 1; i < queue.size(); i++) {
+			Job<?> job = queue.get(i);
+			Job<?> bestJob = queue.get(best);
+			int cmp = job.priority.compareTo(bestJob.priority);
+			if (cmp == 0) {
+				cmp = Long.compare(lastStarted.getOrDefault(job.color, -1L), lastStarted.getOrDefault(bestJob.color, -1L));
+			}
+			if (cmp == 0) {
+				cmp = Long.compare(job.sequence, bestJob.sequence);
+			}
+			if (cmp < 0) {
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Makes room for a more important generation by canceling the most recently started running generation with the
+	 * given priority, if no worker is free. Generations of {@code keepColor} are kept, since they can serve the same
+	 * request. Returns whether a generation was canceled.
+	 */
+	public boolean preempt(Priority priority, @Nullable DyeColor keepColor, String reason) {
+		synchronized (lock) {
+			if (running.size() < Math.min(workers.size(), maxRunning)) {
+				return false;
+			}
+			Job<?> victim = null;
+			for (Job<?> job : running) {
+				if (job.priority == priority && job.color != keepColor && !job.token.isCanceled()
+						&& (victim == null || job.startTime > victim.startTime)) {
+					victim = job;
+				}
+			}
+			if (victim == null) {
+				return false;
+			}
+			victim.token.cancel(reason);
+			return true;
+		}
+	}
+
+	/**
+	 * Limits how many generations may run at the same time, below the number of workers. Generations that are already
+	 * running are not affected.
+	 */
+	public void setMaxRunning(int maxRunning) {
+		synchronized (lock) {
+			this.maxRunning = Math.max(1, maxRunning);
+			lock.notifyAll();
+		}
+	}
+
+	public boolean isShutdown() {
+		synchronized (lock) {
+			return shutdown;
+		}
+	}
+
+	public int getWorkerCount() {
+		synchronized (lock) {
+			return workers.size();
+		}
+	}
+
+	public int getQueueDepth() {
+		synchronized (lock) {
+			return queue.size();
+		}
+	}
+
+	public int getRunningCount() {
+		synchronized (lock) {
+			return running.size();
+		}
+	}
+
+	/**
+	 * Gets the number of queued and running generations with the given priority.
+	 */
+	public int getPendingCount(Priority priority) {
+		synchronized (lock) {
+			int count = 0;
+			for (Job<?> job : queue) {
+				if (job.priority == priority) {
+					count++;
+				}
+			}
+			for (Job<?> job : running) {
+				if (job.priority == priority) {
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Gets the number of queued and running generations of the given color.
+	 */
+	public int getPendingCount(DyeColor color) {
+		synchronized (lock) {
+			int count = 0;
+			for (Job<?> job : queue) {
+				if (job.color == color) {
+					count++;
+				}
+			}
+			for (Job<?> job : running) {
+				if (job.color == color) {
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Estimates how many milliseconds from now each queued and running generation will finish, in the order they are
+	 * expected to start. The estimate replays the scheduling order against the workers, using the estimated duration
+	 * of each generation.
+	 */
+	public Map<Job<?>, Long> getEtas() {
+		synchronized (lock) {
+			long now = System.currentTimeMillis();
+			Map<Job<?>, Long> etas = new LinkedHashMap<>();
+			PriorityQueue<Long> workerFreeAt = new PriorityQueue<>();
+			for (Job<?> job : running) {
+				long eta = Math.max(0, job.startTime + (long) job.estimatedMillis - now);
+				etas.put(job, eta);
+				workerFreeAt.add(eta);
+			}
+			while (workerFreeAt.size() < Math.max(1, Math.min(workers.size(), maxRunning))) {
+				workerFreeAt.add(0L);
+			}
+
+			List<Job<?>> remaining = new ArrayList<>(queue);
+			Map<DyeColor, Long> simulatedLastStarted = new HashMap<>(lastStarted);
+			long simulatedStartCount = startCount;
+			while (!remaining.isEmpty()) {
+				Job<?> job = remaining.remove(selectNext(remaining, simulatedLastStarted));
+				simulatedLastStarted.put(job.color, simulatedStartCount++);
+				//noinspection ConstantConditions
+				long eta = workerFreeAt.poll() + (long) job.estimatedMillis;
+				etas.put(job, eta);
+				workerFreeAt.add(eta);
+			}
+			return Collections.unmodifiableMap(etas);
+		}
+	}
+
+	public long getEtaMillis(Job<?> job) {
+		return getEtas().getOrDefault(job, 0L);
+	}
+
+	public enum Priority {
+		/** Generations a player is waiting for */
+		PLAYER,
+		/** Refilling the pool of unexplored caves */
+		BACKGROUND,
+	}
+
+	public class Job<T> {
+		private final Priority priority;
+		@Nullable
+		private final DyeColor color;
+		private final String description;
+		private final double estimatedMillis;
+		private final Function<CancellationToken, T> task;
+		private final CancellationToken token = new CancellationToken();
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+		private long sequence;
+		private long startTime;
+
+		private Job(Priority priority, @Nullable DyeColor color, String description, double estimatedMillis, Function<CancellationToken, T> task) {
+			this.priority = priority;
+			this.color = color;
+			this.description = description;
+			this.estimatedMillis = estimatedMillis;
+			this.task = task;
+		}
+
+		private void run() {
+			if (token.isCanceled()) {
+				future.completeExceptionally(new GenerationCanceledException(token.getReason(), "queued"));
+				return;
+			}
+			T result;
+			try {
+				result = task.apply(token);
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+				return;
+			}
+			future.complete(result);
+		}
+
+		/**
+		 * Removes the generation from the queue, or asks it to stop if it has already started.
+		 */
+		public void cancel(String reason) {
+			boolean removed;
+			synchronized (lock) {
+				removed = queue.remove(this);
+				token.cancel(reason);
+			}
+			if (removed) {
+				future.completeExceptionally(new GenerationCanceledException(reason, "queued"));
+			}
+		}
+
+		public boolean isStarted() {
+			synchronized (lock) {
+				return startTime != 0;
+			}
+		}
+
+		public Priority getPriority() {
+			return priority;
+		}
+
+		@Nullable
+		public DyeColor getColor() {
+			return color;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		public double getEstimatedMillis() {
+			return estimatedMillis;
+		}
+
+		public CompletableFuture<T> getFuture() {
+			return future;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.gmail.sharpcastle33.did.instancing;
+
+import com.gmail.sharpcastle33.did.config.CaveStyle;
+import com.gmail.sharpcastle33.did.generator.GenerationProfile;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Adds up the profiles of the caves generated since the server started, per cave style, to find out which phases and
+ * steps of a style are slow. Only generations from scratch are recorded, since resumed and stamped caves skip most
+ * phases.
+ */
+public class GenerationStats {
+	private final Map<String, StyleStats> statsByStyle = new TreeMap<>();
+
+	public synchronized void record(CaveStyle style, GenerationProfile profile) {
+		StyleStats stats = statsByStyle.computeIfAbsent(style.getName(), k -> new StyleStats());
+		stats.caves++;
+		stats.total.merge(profile);
+	}
+
+	public synchronized List<String> getStyles() {
+		return new ArrayList<>(statsByStyle.keySet());
+	}
+
+	public synchronized int getCaveCount(String style) {
+		StyleStats stats = statsByStyle.get(style);
+		return stats == null ? 0 : stats.caves;
+	}
+
+	/**
+	 * Gets the sum of the profiles of all recorded caves with the given style, or null if there are none. Divide by
+	 * {@link #getCaveCount} for averages.
+	 */
+	@Nullable
+	public synchronized GenerationProfile getTotal(String style) {
+		StyleStats stats = statsByStyle.get(style);
+		if (stats == null) {
+			return null;
+		}
+		GenerationProfile copy = new GenerationProfile();
+		copy.merge(stats.total);
+		return copy;
+	}
+
+	private static class StyleStats {
+		private int caves;
+		private final GenerationProfile total = new GenerationProfile();
+	}
+}
@@ -0,0 +1,68 @@
+package com.gmail.sharpcastle33.did.instancing;
+
+import com.gmail.sharpcastle33.did.DescentIntoDarkness;
+import com.gmail.sharpcastle33.did.generator.CaveGenContext;
+import org.bukkit.Bukkit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Cancels generations that run for longer than the configured wall time, not counting time paused by the throttle, and
+ * applies the configured limit on changed blocks. The generation notices the cancellation the next time it checks its
+ * cancellation token.
+ */
+public class GenerationWatchdog {
+	public static final long DEFAULT_MAX_SECONDS = 600;
+	public static final long DEFAULT_MAX_BLOCKS_CHANGED = 0;
+
+	private final List<Watched> running = new ArrayList<>();
+
+	/**
+	 * Starts watching the given generation. The returned handle must be closed when the generation finishes.
+	 */
+	public Watched watch(CaveGenContext ctx) {
+		ctx.limitBlocksChanged(DescentIntoDarkness.instance.getConfig().getLong("generationWatchdog.maxBlocksChanged", DEFAULT_MAX_BLOCKS_CHANGED));
+		Watched watched = new Watched(ctx, System.currentTimeMillis());
+		synchronized (running) {
+			running.add(watched);
+		}
+		return watched;
+	}
+
+	public void check() {
+		long maxSeconds = DescentIntoDarkness.instance.getConfig().getLong("generationWatchdog.maxSeconds", DEFAULT_MAX_SECONDS);
+		if (maxSeconds <= 0) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		synchronized (running) {
+			for (Watched watched : running) {
+				// time spent paused by the throttle is the server's fault, not the style's
+				long elapsed = now - watched.startTime - watched.ctx.getThrottledMillis();
+				if (elapsed > maxSeconds * 1000 && !watched.ctx.getCancellationToken().isCanceled()) {
+					Bukkit.getLogger().log(Level.WARNING, "Cave style " + watched.ctx.style.getName() + " exceeded the generation time budget of " + maxSeconds + "s in phase " + watched.ctx.getPhase() + ", canceling");
+					watched.ctx.getCancellationToken().cancel("Exceeded the time budget of " + maxSeconds + "s");
+				}
+			}
+		}
+	}
+
+	public class Watched implements AutoCloseable {
+		private final CaveGenContext ctx;
+		private final long startTime;
+
+		private Watched(CaveGenContext ctx, long startTime) {
+			this.ctx = ctx;
+			this.startTime = startTime;
+		}
+
+		@Override
+		public void close() {
+			synchronized (running) {
+				running.remove(this);
+			}
+		}
+	}
+}
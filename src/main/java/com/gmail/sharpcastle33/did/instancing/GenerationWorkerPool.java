@@ -0,0 +1,249 @@
+package com.gmail.sharpcastle33.did.instancing;
+
+import com.gmail.sharpcastle33.did.DescentIntoDarkness;
+import com.gmail.sharpcastle33.did.generator.CancellationToken;
+import com.gmail.sharpcastle33.did.generator.GenerationCanceledException;
+import com.gmail.sharpcastle33.did.generator.GenerationCheckpoint;
+import com.gmail.sharpcastle33.did.headless.GenerationWorker;
+import com.gmail.sharpcastle33.did.headless.WorkerProtocol;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Runs cave generations in separate worker processes, see {@link GenerationWorker}. Workers are started on demand and
+ * kept for the next generation. If a worker fails, the generation falls back to running in the server.
+ */
+public class GenerationWorkerPool {
+	// off until the worker has been run against a real server, see GenerationWorkerTest
+	public static final boolean DEFAULT_ENABLED = false;
+	public static final String DEFAULT_JAVA_PATH = "";
+	public static final int DEFAULT_MAX_HEAP_MB = 2048;
+	private static final long POLL_MILLIS = 50;
+	private static final long MAX_LOG_BYTES = 10 * 1024 * 1024;
+	private static final String PHASE = "worker process";
+
+	private final Deque<Worker> idle = new ArrayDeque<>();
+	private final List<Worker> workers = new ArrayList<>();
+	private boolean shutdown;
+
+	public boolean isEnabled() {
+		return DescentIntoDarkness.instance.getConfig().getBoolean("workerProcess.enabled", DEFAULT_ENABLED);
+	}
+
+	/**
+	 * Generates a cave in a worker process, returning the finished cave as a checkpoint to resume from, or null if the
+	 * worker failed and the cave should be generated in the server instead. Must not be called on the main thread.
+	 */
+	@Nullable
+	public GenerationCheckpoint generate(WorkerProtocol.Request request, CancellationToken token) {
+		Worker worker;
+		try {
+			worker = acquire();
+		} catch (IOException e) {
+			Bukkit.getLogger().log(Level.SEVERE, "Failed to start generation worker", e);
+			return null;
+		}
+		if (worker == null) {
+			return null;
+		}
+
+		boolean reusable = false;
+		try {
+			request.write(worker.out);
+			waitForResponse(worker, token);
+			byte[] checkpoint = WorkerProtocol.readResponse(worker.in);
+			reusable = true;
+			return GenerationCheckpoint.read(new ByteArrayInputStream(checkpoint));
+		} catch (WorkerProtocol.WorkerException e) {
+			reusable = true;
+			Bukkit.getLogger().log(Level.WARNING, "Generation worker failed to generate cave with style " + request.styleName + ", generating in the server: " + e.getMessage());
+			return null;
+		} catch (GenerationCanceledException e) {
+			// the worker is still reusable if it canceled the generation itself
+			reusable = !token.isCanceled() && worker.process.isAlive();
+			throw e;
+		} catch (IOException e) {
+			Bukkit.getLogger().log(Level.SEVERE, "Lost connection to generation worker, generating cave with style " + request.styleName + " in the server", e);
+			return null;
+		} finally {
+			release(worker, reusable);
+		}
+	}
+
+	private void waitForResponse(Worker worker, CancellationToken token) throws IOException {
+		long maxSeconds = DescentIntoDarkness.instance.getConfig().getLong("generationWatchdog.maxSeconds", GenerationWatchdog.DEFAULT_MAX_SECONDS);
+		long deadline = maxSeconds > 0 ? System.currentTimeMillis() + maxSeconds * 1000 : Long.MAX_VALUE;
+		// the process can't be interrupted through the stream, so poll for the response to notice cancellations
+		while (worker.in.available() == 0) {
+			if (token.isCanceled()) {
+				throw new GenerationCanceledException(token.getReason(), PHASE);
+			}
+			if (System.currentTimeMillis() > deadline) {
+				token.cancel("Exceeded the time budget of " + maxSeconds + "s");
+				throw new GenerationCanceledException(token.getReason(), PHASE);
+			}
+			if (!worker.process.isAlive()) {
+				throw new IOException("Generation worker exited with code " + worker.process.exitValue());
+			}
+			try {
+				Thread.sleep(POLL_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new GenerationCanceledException("Interrupted", PHASE);
+			}
+		}
+	}
+
+	@Nullable
+	private synchronized Worker acquire() throws IOException {
+		if (shutdown) {
+			return null;
+		}
+		while (!idle.isEmpty()) {
+			Worker worker = idle.pop();
+			if (worker.process.isAlive()) {
+				return worker;
+			}
+			workers.remove(worker);
+		}
+		Worker worker = new Worker(startProcess());
+		workers.add(worker);
+		return worker;
+	}
+
+	private synchronized void release(Worker worker, boolean reusable) {
+		if (reusable && !shutdown && worker.process.isAlive()) {
+			idle.push(worker);
+		} else {
+			worker.process.destroyForcibly();
+			workers.remove(worker);
+		}
+	}
+
+	private static Process startProcess() throws IOException {
+		ConfigurationSection config = DescentIntoDarkness.instance.getConfig();
+		String javaPath = config.getString("workerProcess.javaPath", DEFAULT_JAVA_PATH);
+		if (javaPath == null || javaPath.isEmpty()) {
+			javaPath = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		}
+		File runtimeFolder = new File(DescentIntoDarkness.instance.getDataFolder(), "runtime");
+		//noinspection ResultOfMethodCallIgnored
+		runtimeFolder.mkdirs();
+		File logFile = new File(runtimeFolder, "worker.log");
+		rotateLog(logFile);
+
+		Bukkit.getLogger().log(Level.INFO, "Starting generation worker");
+		return new ProcessBuilder(
+				javaPath,
+				"-Xmx" + config.getInt("workerProcess.maxHeapMB", DEFAULT_MAX_HEAP_MB) + "m",
+				"-cp", getClassPath(),
+				GenerationWorker.class.getName(),
+				DescentIntoDarkness.instance.getDataFolder().getAbsolutePath()
+		).redirectError(ProcessBuilder.Redirect.appendTo(logFile)).start();
+	}
+
+	/**
+	 * Moves the worker log aside once it grows too large, replacing the previous old log. Workers that are still
+	 * running keep appending to the old log until they exit.
+	 */
+	private static void rotateLog(File logFile) {
+		if (logFile.length() <= MAX_LOG_BYTES) {
+			return;
+		}
+		try {
+			Files.move(logFile.toPath(), new File(logFile.getParentFile(), logFile.getName() + ".1").toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Bukkit.getLogger().log(Level.WARNING, "Failed to rotate " + logFile.getName(), e);
+		}
+	}
+
+	/**
+	 * Gets the class path of this plugin and the plugins it depends on, from the URLs of their class loaders, followed
+	 * by the class path of the server.
+	 */
+	private static String getClassPath() throws IOException {
+		Set<String> entries = new LinkedHashSet<>();
+		DescentIntoDarkness plugin = DescentIntoDarkness.instance;
+		addClassLoaderEntries(plugin.getClass().getClassLoader(), entries);
+		if (entries.isEmpty()) {
+			throw new IOException("Could not read the class path of the plugin class loader");
+		}
+		List<String> dependencies = new ArrayList<>(plugin.getDescription().getDepend());
+		dependencies.addAll(plugin.getDescription().getSoftDepend());
+		for (String name : dependencies) {
+			Plugin dependency = Bukkit.getPluginManager().getPlugin(name);
+			if (dependency != null) {
+				addClassLoaderEntries(dependency.getClass().getClassLoader(), entries);
+			}
+		}
+		for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+			if (!entry.isEmpty()) {
+				entries.add(new File(entry).getAbsolutePath());
+			}
+		}
+		return String.join(File.pathSeparator, entries);
+	}
+
+	private static void addClassLoaderEntries(ClassLoader loader, Set<String> entries) throws IOException {
+		// the application class loader isn't a URLClassLoader since Java 9, its entries come from java.class.path
+		for (; loader != null; loader = loader.getParent()) {
+			if (loader instanceof URLClassLoader) {
+				for (URL url : ((URLClassLoader) loader).getURLs()) {
+					if ("file".equals(url.getProtocol())) {
+						try {
+							entries.add(new File(url.toURI()).getPath());
+						} catch (URISyntaxException e) {
+							throw new IOException("Invalid class path entry " + url, e);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops all workers. Running remote generations fall back to the server, where they notice their cancellation.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		for (Worker worker : workers) {
+			worker.process.destroyForcibly();
+		}
+		workers.clear();
+		idle.clear();
+	}
+
+	private static class Worker {
+		private final Process process;
+		private final DataOutputStream out;
+		private final DataInputStream in;
+
+		private Worker(Process process) {
+			this.process = process;
+			this.out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+			this.in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.gmail.sharpcastle33.did.instancing;
+
+import com.gmail.sharpcastle33.did.DescentIntoDarkness;
+import com.gmail.sharpcastle33.did.generator.CancellationToken;
+import com.gmail.sharpcastle33.did.generator.GenerationThrottle;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.logging.Level;
+
+/**
+ * Measures how long recent server ticks took, and throttles cave generation while they take too long. Runs every tick
+ * on the main thread.
+ *
+ * <p>While the server is overloaded, generations pause between centroids, rooms and structure placements and before
+ * flushing their blocks to the world, and fewer generations run at the same time. Full speed is restored once the
+ * average tick is back under the idle threshold.
+ */
+public class TickMonitor implements Runnable, GenerationThrottle {
+	public static final boolean DEFAULT_ENABLED = true;
+	public static final int DEFAULT_SAMPLE_TICKS = 40;
+	public static final double DEFAULT_OVERLOADED_TICK_MILLIS = 55;
+	public static final double DEFAULT_IDLE_TICK_MILLIS = 51;
+	public static final long DEFAULT_PAUSE_MILLIS = 50;
+	public static final long DEFAULT_MAX_PAUSE_MILLIS = 1000;
+	public static final long DEFAULT_MAX_FLUSH_DELAY_MILLIS = 30000;
+	public static final int DEFAULT_OVERLOADED_WORKERS = 1;
+
+	private final GenerationExecutor executor;
+	private long[] tickNanos = new long[DEFAULT_SAMPLE_TICKS];
+	private int sampleCount;
+	private int nextSample;
+	private long totalNanos;
+	private long lastTickStart;
+	private volatile double averageTickMillis = 50;
+	private volatile boolean overloaded;
+	private volatile long pauseMillis = DEFAULT_PAUSE_MILLIS;
+	private volatile long maxPauseMillis = DEFAULT_MAX_PAUSE_MILLIS;
+	private volatile long maxFlushDelayMillis = DEFAULT_MAX_FLUSH_DELAY_MILLIS;
+
+	public TickMonitor(GenerationExecutor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public void run() {
+		long now = System.nanoTime();
+		if (lastTickStart != 0) {
+			addSample(now - lastTickStart);
+		}
+		lastTickStart = now;
+
+		ConfigurationSection config = DescentIntoDarkness.instance.getConfig();
+		pauseMillis = Math.max(1, config.getLong("throttle.pauseMillis", DEFAULT_PAUSE_MILLIS));
+		maxPauseMillis = config.getLong("throttle.maxPauseMillis", DEFAULT_MAX_PAUSE_MILLIS);
+		maxFlushDelayMillis = config.getLong("throttle.maxFlushDelayMillis", DEFAULT_MAX_FLUSH_DELAY_MILLIS);
+		int sampleTicks = Math.max(1, config.getInt("throttle.sampleTicks", DEFAULT_SAMPLE_TICKS));
+		if (sampleTicks != tickNanos.length) {
+			tickNanos = new long[sampleTicks];
+			sampleCount = 0;
+			nextSample = 0;
+			totalNanos = 0;
+		}
+
+		if (!config.getBoolean("throttle.enabled", DEFAULT_ENABLED)) {
+			setOverloaded(false);
+		} else if (!overloaded && averageTickMillis > config.getDouble("throttle.overloadedTickMillis", DEFAULT_OVERLOADED_TICK_MILLIS)) {
+			setOverloaded(true);
+		} else if (overloaded && averageTickMillis < config.getDouble("throttle.idleTickMillis", DEFAULT_IDLE_TICK_MILLIS)) {
+			setOverloaded(false);
+		}
+	}
+
+	private void addSample(long nanos) {
+		if (sampleCount == tickNanos.length) {
+			totalNanos -= tickNanos[nextSample];
+		} else {
+			sampleCount++;
+		}
+		tickNanos[nextSample] = nanos;
+		totalNanos += nanos;
+		nextSample = (nextSample + 1) % tickNanos.length;
+		averageTickMillis = totalNanos / 1000000.0 / sampleCount;
+	}
+
+	private void setOverloaded(boolean overloaded) {
+		if (overloaded == this.overloaded) {
+			return;
+		}
+		this.overloaded = overloaded;
+		if (overloaded) {
+			executor.setMaxRunning(DescentIntoDarkness.instance.getConfig().getInt("throttle.overloadedWorkers", DEFAULT_OVERLOADED_WORKERS));
+			Bukkit.getLogger().log(Level.INFO, String.format("Ticks are taking %.1fms on average, throttling cave generation", averageTickMillis));
+		} else {
+			executor.setMaxRunning(Integer.MAX_VALUE);
+			Bukkit.getLogger().log(Level.INFO, "Restoring full cave generation speed");
+		}
+	}
+
+	@Override
+	public void awaitCapacity(CancellationToken token, boolean beforeFlush) {
+		if (!overloaded) {
+			return;
+		}
+		long deadline = System.currentTimeMillis() + (beforeFlush ? maxFlushDelayMillis : maxPauseMillis);
+		while (overloaded && !token.isCanceled() && System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(pauseMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	public boolean isOverloaded() {
+		return overloaded;
+	}
+
+	public double getAverageTickMillis() {
+		return averageTickMillis;
+	}
+}
@@ -31,12 +31,20 @@ import com.gmail.sharpcastle33.did.DescentIntoDarkness;
 import com.gmail.sharpcastle33.did.Util;
 import com.gmail.sharpcastle33.did.config.CaveStyle;
 import com.gmail.sharpcastle33.did.config.ConfigUtil;
+import com.gmail.sharpcastle33.did.config.SchematicCache;
 import com.gmail.sharpcastle33.did.generator.CaveGenContext;
 import com.gmail.sharpcastle33.did.generator.CaveGenerator;
+import com.gmail.sharpcastle33.did.generator.GenerationCanceledException;
+import com.gmail.sharpcastle33.did.generator.GenerationProfile;
 import com.gmail.sharpcastle33.did.instancing.CaveTracker;
 import com.gmail.sharpcastle33.did.instancing.CaveTrackerManager;
+import com.gmail.sharpcastle33.did.instancing.GenerationExecutor;
+import com.gmail.sharpcastle33.did.instancing.GenerationStats;
+import com.gmail.sharpcastle33.did.instancing.GenerationWatchdog;
+import com.gmail.sharpcastle33.did.instancing.TickMonitor;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.bukkit.BukkitAdapter;
 import com.sk89q.worldedit.world.block.BlockStateHolder;
 import com.sk89q.worldedit.world.block.BlockTypes;
@@ -47,8 +55,9 @@ import org.jetbrains.annotations.Nullable;
 public class CommandListener implements TabExecutor {
 	
 	private final HashMap<UUID,Long> playerSeeds = new HashMap<>();
-	private CaveGenContext currentCaveGen;
+	private final List<GenerationExecutor.Job<String>> commandGenerations = new ArrayList<>();
 	private static final WeakHashMap<Player, Map<UUID, ConfirmAction>> confirmActions = new WeakHashMap<>();
+	private static final int STATS_STEPS = 10;
 
 	private static class ConfirmAction {
 		private final Runnable action;
@@ -139,6 +148,9 @@ public class CommandListener implements TabExecutor {
 			case "list":
 				list(sender);
 				break;
+			case "queue":
+				queue(sender);
+				break;
 			case "reload":
 				DescentIntoDarkness.instance.reload();
 				sender.sendMessage(ChatColor.GREEN + "Reloaded DID config");
@@ -150,9 +162,15 @@ public class CommandListener implements TabExecutor {
 					playerSeeds.put(p.getUniqueId(), seed);
 				}
 				break;
+			case "schematics":
+				schematics(sender);
+				break;
 			case "spawnOre":
 				spawnOre(sender, args);
 				break;
+			case "stats":
+				stats(sender, args);
+				break;
 		}
 
 		return true;
@@ -299,10 +317,12 @@ public class CommandListener implements TabExecutor {
 	}
 
 	private void cancel(CommandSender p, String[] args) {
-		if (currentCaveGen != null) {
-			currentCaveGen.cancel();
-		} else {
+		if (commandGenerations.isEmpty()) {
 			p.sendMessage(ChatColor.DARK_RED + "No cave generation in progress");
+			return;
+		}
+		for (GenerationExecutor.Job<String> job : new ArrayList<>(commandGenerations)) {
+			job.cancel("Canceled manually");
 		}
 	}
 
@@ -313,25 +333,6 @@ public class CommandListener implements TabExecutor {
 
 		CaveTrackerManager caveTrackerManager = DescentIntoDarkness.instance.getCaveTrackerManager();
 
-		CaveTracker c;
-		try {
-			DyeColor color = DyeColor.valueOf(args[1].toUpperCase(Locale.ROOT));
-			c = caveTrackerManager.findFreeCave(color);
-			if (c == null) {
-				p.sendMessage(ChatColor.RED + "No free caves of that color");
-				return;
-			}
-		} catch (IllegalArgumentException e) {
-			OptionalInt caveId = parseInt(p, args[1]);
-			if (caveId.isEmpty()) return;
-
-			c = caveTrackerManager.getCaveById(caveId.getAsInt());
-			if (c == null) {
-				p.sendMessage(ChatColor.RED + "Cave " + caveId.getAsInt() + " not found");
-				return;
-			}
-		}
-
 		Player target;
 		if (args.length > 2) {
 			target = Bukkit.getPlayer(args[2]);
@@ -344,13 +345,47 @@ public class CommandListener implements TabExecutor {
 			if (target == null) return;
 		}
 
-		if (caveTrackerManager.teleportPlayerTo(target, c)) {
+		DyeColor color = ConfigUtil.tryParseEnum(DyeColor.class, args[1]);
+		if (color != null) {
+			CaveTrackerManager.JoinRequest request = caveTrackerManager.requestCave(target, color, cave -> joinCave(p, target, cave));
+			if (request != null) {
+				sendJoinQueueMessage(target, request);
+			}
+			return;
+		}
+
+		OptionalInt caveId = parseInt(p, args[1]);
+		if (caveId.isEmpty()) return;
+
+		CaveTracker c = caveTrackerManager.getCaveById(caveId.getAsInt());
+		if (c == null) {
+			p.sendMessage(ChatColor.RED + "Cave " + caveId.getAsInt() + " not found");
+			return;
+		}
+
+		joinCave(p, target, c);
+	}
+
+	private static void joinCave(CommandSender p, Player target, CaveTracker cave) {
+		if (DescentIntoDarkness.instance.getCaveTrackerManager().teleportPlayerTo(target, cave)) {
 			p.sendMessage(ChatColor.GREEN + "Teleported player successfully");
 		} else {
 			p.sendMessage(ChatColor.RED + "Failed to teleport player");
 		}
 	}
 
+	public static void sendJoinQueueMessage(Player player, CaveTrackerManager.JoinRequest request) {
+		CaveTrackerManager caveTrackerManager = DescentIntoDarkness.instance.getCaveTrackerManager();
+		String color = request.getColor().name().toLowerCase(Locale.ROOT);
+		int position = caveTrackerManager.getJoinQueuePosition(request);
+		long eta = caveTrackerManager.getJoinEtaMillis(request);
+		if (eta < 0) {
+			player.sendMessage(ChatColor.YELLOW + "No " + color + " caves are free. You are #" + position + " in the queue, and will be sent in once a cave is ready.");
+		} else {
+			player.sendMessage(ChatColor.YELLOW + "No " + color + " caves are free. You are #" + position + " in the queue, and your cave should be ready in " + Util.formatTime(eta / 50) + ".");
+		}
+	}
+
 	private void leave(CommandSender p, String[] args) {
 		Player target;
 		if (args.length > 1) {
@@ -403,6 +438,74 @@ public class CommandListener implements TabExecutor {
 
 	}
 
+	private void queue(CommandSender p) {
+		GenerationExecutor executor = DescentIntoDarkness.instance.getCaveTrackerManager().getGenerationExecutor();
+		Map<GenerationExecutor.Job<?>, Long> etas = executor.getEtas();
+		p.sendMessage(ChatColor.GREEN + String.format("%d running, %d queued on %d workers", executor.getRunningCount(), executor.getQueueDepth(), executor.getWorkerCount()));
+		TickMonitor tickMonitor = DescentIntoDarkness.instance.getCaveTrackerManager().getTickMonitor();
+		if (tickMonitor.isOverloaded()) {
+			p.sendMessage(ChatColor.RED + String.format("Throttled: ticks are taking %.1fms on average", tickMonitor.getAverageTickMillis()));
+		}
+		etas.forEach((job, eta) -> p.sendMessage(ChatColor.YELLOW + String.format("%s %s [%s]: done in ~%ds",
+				job.isStarted() ? "running" : "queued",
+				job.getDescription(),
+				job.getPriority().name().toLowerCase(Locale.ROOT),
+				(eta + 999) / 1000)));
+	}
+
+	private void schematics(CommandSender p) {
+		SchematicCache.Stats stats = DescentIntoDarkness.instance.getSchematicCache().getStats();
+		p.sendMessage(ChatColor.GREEN + String.format("%d schematics cached (%d/%d blocks)", stats.size, stats.cachedBlocks, stats.maxBlocks));
+		p.sendMessage(ChatColor.YELLOW + String.format("Hits: %d, misses: %d, hit rate: %.1f%%", stats.hits, stats.misses, stats.getHitRate() * 100));
+		p.sendMessage(ChatColor.YELLOW + String.format("Loads: %d (%d failed, %.1fms average), evictions: %d", stats.loads, stats.loadFailures, stats.getAverageLoadMillis(), stats.evictions));
+	}
+
+	private void stats(CommandSender p, String[] args) {
+		CaveTrackerManager caveTrackerManager = DescentIntoDarkness.instance.getCaveTrackerManager();
+		GenerationStats stats = caveTrackerManager.getGenerationStats();
+		if (caveTrackerManager.getWorkerPool().isEnabled()) {
+			p.sendMessage(ChatColor.YELLOW + "Caves generated by the worker process are not profiled");
+		}
+		if (args.length < 2) {
+			List<String> styles = stats.getStyles();
+			if (styles.isEmpty()) {
+				p.sendMessage(ChatColor.GREEN + "No caves generated since the server started");
+				return;
+			}
+			for (String style : styles) {
+				GenerationProfile total = stats.getTotal(style);
+				int caves = stats.getCaveCount(style);
+				if (total != null) {
+					p.sendMessage(ChatColor.GREEN + String.format("%s: %d caves, %dms average", style, caves, total.getTotalNanos() / 1000000 / caves));
+				}
+			}
+			return;
+		}
+
+		GenerationProfile total = stats.getTotal(args[1]);
+		int caves = stats.getCaveCount(args[1]);
+		if (total == null) {
+			p.sendMessage(ChatColor.RED + "No caves generated with style " + args[1]);
+			return;
+		}
+		p.sendMessage(ChatColor.GREEN + String.format("%s: %d caves, %dms (+%dms throttled), %d blocks touched, %dMB allocated on average", args[1], caves,
+				total.getTotalNanos() / 1000000 / caves, total.getTotalThrottledNanos() / 1000000 / caves, total.getTotalVoxelTouches() / caves,
+				(total.getTotalAllocatedBytes() >> 20) / caves));
+		for (GenerationProfile.Section phase : total.getPhases()) {
+			p.sendMessage(ChatColor.YELLOW + String.format("  %s: %dms (+%dms throttled), %d blocks touched, %dMB allocated", phase.getName(),
+					phase.getNanos() / 1000000 / caves, phase.getThrottledNanos() / 1000000 / caves, phase.getVoxelTouches() / caves,
+					(phase.getAllocatedBytes() >> 20) / caves));
+		}
+		List<GenerationProfile.Section> steps = total.getSlowestSteps();
+		if (!steps.isEmpty()) {
+			p.sendMessage(ChatColor.GREEN + "Slowest steps:");
+			for (GenerationProfile.Section step : steps.subList(0, Math.min(STATS_STEPS, steps.size()))) {
+				p.sendMessage(ChatColor.YELLOW + String.format("  %s: %dms, %d blocks touched, %dMB allocated", step.getName(),
+						step.getNanos() / 1000000 / caves, step.getVoxelTouches() / caves, (step.getAllocatedBytes() >> 20) / caves));
+			}
+		}
+	}
+
 	private void generateBlank(CommandSender p, Location pos, String[] args) {
 		BlockStateHolder<?> base = args.length <= 5 ? Util.requireDefaultState(BlockTypes.STONE) : ConfigUtil.parseBlock(args[5]);
 		OptionalInt radius = args.length <= 6 ? OptionalInt.of(200) : parseInt(p, args[6]);
@@ -434,11 +537,6 @@ public class CommandListener implements TabExecutor {
 		if (seed.isEmpty()) return;
 		boolean debug = args.length > 8 && Boolean.parseBoolean(args[8]);
 
-		if (currentCaveGen != null) {
-			p.sendMessage(ChatColor.DARK_RED + "Already generating cave");
-			return;
-		}
-
 		CaveStyle style = DescentIntoDarkness.instance.getCaveStyles().getCaveStylesByName().get(styleName);
 		if (style == null) {
 			p.sendMessage(ChatColor.DARK_RED + "No such cave style " + styleName);
@@ -454,17 +552,42 @@ public class CommandListener implements TabExecutor {
 		for(CaveTracker t : DescentIntoDarkness.instance.getCaveTrackerManager().getCaves()) {
 			Bukkit.getServer().getLogger().info("CaveTracker found, ID: " + t.getId() + " " + t.getJoinTime());
 		}
-		DescentIntoDarkness.instance.supplyAsync(() -> {
-			try (CaveGenContext ctx = CaveGenContext.create(BukkitAdapter.adapt(pos.getWorld()), style, seed.getAsLong()).setDebug(debug)) {
-				currentCaveGen = ctx;
-				return CaveGenerator.generateCave(ctx, BukkitAdapter.asVector(pos), size.getAsInt());
-			}
-		}).whenComplete((s, throwable) -> {
-			currentCaveGen = null;
+		CaveTrackerManager caveTrackerManager = DescentIntoDarkness.instance.getCaveTrackerManager();
+		GenerationExecutor.Job<String> job = caveTrackerManager.getGenerationExecutor().submit(
+				GenerationExecutor.Priority.PLAYER,
+				null,
+				style.getName() + " for " + p.getName(),
+				caveTrackerManager.getCostModel().getEstimatedMillis(style),
+				token -> {
+					String layout;
+					GenerationProfile profile;
+					try (CaveGenContext ctx = CaveGenContext.create(BukkitAdapter.adapt(pos.getWorld()), style, seed.getAsLong()).cancelWith(token).throttleWith(caveTrackerManager.getTickMonitor()).setDebug(debug);
+						 GenerationWatchdog.Watched ignored = caveTrackerManager.getWatchdog().watch(ctx)) {
+						layout = CaveGenerator.generateCave(ctx, BukkitAdapter.asVector(pos), size.getAsInt());
+						profile = ctx.getProfile();
+					} catch (WorldEditException e) {
+						throw new RuntimeException("Could not generate cave", e);
+					}
+					Bukkit.getLogger().log(Level.INFO, "Profile of cave with style " + style.getName() + ": " + profile.summarize());
+					if (!debug) {
+						caveTrackerManager.getGenerationStats().record(style, profile);
+					}
+					return layout;
+				}
+		);
+		if (!job.getFuture().isDone()) {
+			commandGenerations.add(job);
+			p.sendMessage(ChatColor.YELLOW + String.format("Queued, done in ~%ds", (caveTrackerManager.getGenerationExecutor().getEtaMillis(job) + 999) / 1000));
+		}
+		job.getFuture().whenComplete((s, throwable) -> {
+			DescentIntoDarkness.instance.runSyncLater(() -> commandGenerations.remove(job));
 			if (throwable != null) {
 				if (throwable instanceof FaweException && ((FaweException) throwable).getType() == FaweException.Type.MANUAL) {
 					p.sendMessage(ChatColor.GREEN + "Canceled cave generation");
 					Bukkit.getLogger().log(Level.INFO, "Canceled cave generation");
+				} else if (throwable instanceof GenerationCanceledException) {
+					DescentIntoDarkness.instance.runSyncLater(() -> p.sendMessage(ChatColor.GREEN + "Canceled cave generation: " + throwable.getMessage()));
+					Bukkit.getLogger().log(Level.INFO, "Canceled cave generation: " + throwable.getMessage());
 				} else {
 					DescentIntoDarkness.instance.runSyncLater(() -> p.sendMessage(ChatColor.DARK_RED + "Failed"));
 					Bukkit.getLogger().log(Level.SEVERE, "Failed to generate cave", throwable);
@@ -505,7 +628,7 @@ public class CommandListener implements TabExecutor {
 		if (args.length == 0) {
 			return Collections.emptyList();
 		} else if (args.length == 1) {
-			return StringUtil.copyPartialMatches(args[0], Arrays.asList("delete", "generate", "cancel", "join", "leave", "list", "reload", "spawnOre"), new ArrayList<>());
+			return StringUtil.copyPartialMatches(args[0], Arrays.asList("delete", "generate", "cancel", "join", "leave", "list", "queue", "reload", "schematics", "spawnOre", "stats"), new ArrayList<>());
 		} else {
 			switch (args[0]) {
 				case "generate":
@@ -559,6 +682,11 @@ public class CommandListener implements TabExecutor {
 						return args[args.length - 1].isEmpty() ? Collections.singletonList("~") : Collections.emptyList();
 					}
 					break;
+				case "stats":
+					if (args.length == 2) {
+						return StringUtil.copyPartialMatches(args[1], DescentIntoDarkness.instance.getCaveTrackerManager().getGenerationStats().getStyles(), new ArrayList<>());
+					}
+					break;
 			}
 		}
 
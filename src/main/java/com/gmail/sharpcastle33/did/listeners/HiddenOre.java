@@ -6,6 +6,7 @@ import com.gmail.sharpcastle33.did.Util;
 import com.gmail.sharpcastle33.did.config.CaveStyle;
 import com.gmail.sharpcastle33.did.config.ConfigUtil;
 import com.gmail.sharpcastle33.did.instancing.CaveTracker;
+import com.gmail.sharpcastle33.did.instancing.CaveTrackerManager;
 import net.md_5.bungee.api.ChatColor;
 import net.md_5.bungee.api.chat.BaseComponent;
 import net.md_5.bungee.api.chat.ClickEvent;
@@ -137,9 +138,7 @@ public class HiddenOre implements Listener {
 		if (caveId == null) {
 			CaveTracker cave = DescentIntoDarkness.instance.getCaveTrackerManager().findFreeCave(hiddenOreData.color);
 			if (cave == null) {
-				event.getPlayer().sendMessage(ChatColor.DARK_RED +
-						"No " + hiddenOreData.color.name().toLowerCase(Locale.ROOT) +
-						" caves are currently available. Please try again later.");
+				sendQueueCaveMessage(event.getPlayer(), clickedBlock.getLocation(), hiddenOreData.color);
 			} else {
 				sendEnterCaveMessage(event.getPlayer(), clickedBlock.getLocation(), cave.getStyle(),
 						"You have found a " + hiddenOreData.color.name().toLowerCase(Locale.ROOT) + " cave! ");
@@ -184,6 +183,23 @@ public class HiddenOre implements Listener {
 		player.spigot().sendMessage(message);
 	}
 
+	private static void sendQueueCaveMessage(Player player, Location oreLocation, DyeColor color) {
+		UUID actionId = CommandListener.setConfirmAction(
+				player,
+				600,
+				() -> joinCave(player, oreLocation)
+		);
+		BaseComponent message = new TextComponent("You have found a " + color.name().toLowerCase(Locale.ROOT) + " cave, but none are ready yet. ");
+		message.setColor(ChatColor.DARK_GREEN);
+		TextComponent button = new TextComponent("[Click to queue]");
+		button.setClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/did confirm " + actionId));
+		button.setColor(ChatColor.GOLD);
+		button.setUnderlined(true);
+		button.setBold(true);
+		message.addExtra(button);
+		player.spigot().sendMessage(message);
+	}
+
 	private static void joinCave(Player player, Location oreLocation) {
 		HiddenOreData data = getHiddenOreData(oreLocation);
 		if (data == null) {
@@ -191,23 +207,33 @@ public class HiddenOre implements Listener {
 			return;
 		}
 
-		CaveTracker cave;
-
 		if (data.caveId == null) {
-			cave = DescentIntoDarkness.instance.getCaveTrackerManager().findFreeCave(data.color);
-			if (cave == null) {
-				player.sendMessage(ChatColor.DARK_RED +
-						"No " + data.color.name().toLowerCase(Locale.ROOT) +
-						" caves are currently available. Please try again later.");
-				return;
+			CaveTrackerManager.JoinRequest request = DescentIntoDarkness.instance.getCaveTrackerManager().requestCave(player, data.color, cave -> {
+				HiddenOreData currentData = getHiddenOreData(oreLocation);
+				if (currentData == null) {
+					player.sendMessage(ChatColor.DARK_RED + "This cave has expired.");
+					return;
+				}
+				if (currentData.caveId != null) {
+					// someone else entered through this ore while we were waiting, follow them instead
+					joinCave(player, oreLocation);
+					return;
+				}
+				currentData.caveId = cave.getId();
+				hiddenOreLocationsByCaveId.put(currentData.caveId, oreLocation);
+				enterCave(player, currentData, cave);
+			});
+			if (request != null) {
+				CommandListener.sendJoinQueueMessage(player, request);
 			}
-			data.caveId = cave.getId();
-			hiddenOreLocationsByCaveId.put(data.caveId, oreLocation);
 		} else {
-			cave = DescentIntoDarkness.instance.getCaveTrackerManager().getCaveById(data.caveId);
+			CaveTracker cave = DescentIntoDarkness.instance.getCaveTrackerManager().getCaveById(data.caveId);
 			assert cave != null;
+			enterCave(player, data, cave);
 		}
+	}
 
+	private static void enterCave(Player player, HiddenOreData data, CaveTracker cave) {
 		DescentIntoDarkness.instance.getCaveTrackerManager().teleportPlayerTo(player, cave);
 		data.caveJoinTime = cave.getJoinTime();
 		saveHiddenOreData();
@@ -266,6 +292,7 @@ public class HiddenOre implements Listener {
 	}
 
 	public static void saveHiddenOreData() {
+		long startTime = System.nanoTime();
 		File runtimeFolder = new File(DescentIntoDarkness.instance.getDataFolder(), "runtime");
 		if (!runtimeFolder.exists() && !runtimeFolder.mkdirs()) {
 			Bukkit.getLogger().warning("Could not create runtime folder");
@@ -290,6 +317,7 @@ public class HiddenOre implements Listener {
 		config.set("hiddenOre", datas);
 
 		Util.saveSafely(new File(runtimeFolder, "hiddenOre.yml"), config::save);
+		DescentIntoDarkness.instance.getMetrics().saveDuration.labels("hidden_ore").recordSince(startTime);
 	}
 
 	public static void loadHiddenOreData() {
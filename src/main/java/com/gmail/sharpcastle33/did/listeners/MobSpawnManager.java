@@ -3,6 +3,8 @@ package com.gmail.sharpcastle33.did.listeners;
 import com.gmail.sharpcastle33.did.DescentIntoDarkness;
 import com.gmail.sharpcastle33.did.config.MobSpawnEntry;
 import com.gmail.sharpcastle33.did.instancing.CaveTracker;
+import com.gmail.sharpcastle33.did.metrics.MetricsRegistry;
+import com.gmail.sharpcastle33.did.metrics.PluginMetrics;
 import com.sk89q.worldedit.world.block.BlockStateHolder;
 import io.lumine.xikage.mythicmobs.MythicMobs;
 import io.lumine.xikage.mythicmobs.adapters.bukkit.BukkitAdapter;
@@ -25,9 +27,11 @@ import org.bukkit.util.Vector;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 import java.util.function.ToIntFunction;
@@ -39,6 +43,12 @@ public class MobSpawnManager implements Runnable, Listener {
 	private boolean spawningMob = false;
 	private MobSpawnEntry currentSpawnEntry;
 	private final List<MobInstance> allMobs = new ArrayList<>();
+	// looked up once per style, since labelling a metric allocates
+	private final Map<String, StyleMetrics> metricsByStyle = new HashMap<>();
+
+	private StyleMetrics getMetrics(CaveTracker cave) {
+		return metricsByStyle.computeIfAbsent(cave.getStyle().getName(), StyleMetrics::new);
+	}
 
 	private void spawnMobs(CaveTracker cave) {
 		if (cave.getPlayers().isEmpty()) {
@@ -61,8 +71,11 @@ public class MobSpawnManager implements Runnable, Listener {
 			}
 		}
 
+		StyleMetrics metrics = getMetrics(cave);
 		for (int i = 0; i < cave.getStyle().getSpawnAttemptsPerTick(); i++) {
+			metrics.spawnAttempts.inc();
 			if (spawnMob(cave)) {
+				metrics.spawnSuccesses.inc();
 				break;
 			}
 		}
@@ -198,6 +211,7 @@ public class MobSpawnManager implements Runnable, Listener {
 			mob.setRotation(rand.nextFloat() * 360, 0);
 		}
 
+		getMetrics(cave).mobsSpawned.inc();
 		return true;
 	}
 
@@ -367,6 +381,22 @@ public class MobSpawnManager implements Runnable, Listener {
 		mob.cave.getMobEntry(mob.spawnEntry).addPlayerPollution(victimPlayer, mob.spawnEntry.getSingleMobCost());
 		mob.remove();
 		mob.hasDespawned = true;
+		getMetrics(mob.cave).mobsDespawned.inc();
+	}
+
+	private static final class StyleMetrics {
+		private final MetricsRegistry.Counter.Child spawnAttempts;
+		private final MetricsRegistry.Counter.Child spawnSuccesses;
+		private final MetricsRegistry.Counter.Child mobsSpawned;
+		private final MetricsRegistry.Counter.Child mobsDespawned;
+
+		private StyleMetrics(String style) {
+			PluginMetrics metrics = DescentIntoDarkness.instance.getMetrics();
+			this.spawnAttempts = metrics.spawnAttempts.labels(style);
+			this.spawnSuccesses = metrics.spawnSuccesses.labels(style);
+			this.mobsSpawned = metrics.mobsSpawned.labels(style);
+			this.mobsDespawned = metrics.mobsDespawned.labels(style);
+		}
 	}
 
 	private static abstract class MobInstance {
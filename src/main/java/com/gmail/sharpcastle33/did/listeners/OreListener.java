@@ -52,6 +52,7 @@ public class OreListener implements Listener {
 				} else {
 					cave.setBlockBreakCount(pos, 0);
 				}
+				DescentIntoDarkness.instance.getMetrics().oreBreaks.labels(cave.getStyle().getName(), String.valueOf(blockBreakCount >= ore.getBreakAmount())).inc();
 
 				MobSpawnEntry spawnEntry = DescentIntoDarkness.instance.getMobSpawnManager().getRandomSpawnEntry(cave);
 				if (spawnEntry != null) {
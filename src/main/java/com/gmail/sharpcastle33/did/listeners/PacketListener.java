@@ -99,6 +99,7 @@ public class PacketListener {
 		protocolManager.addPacketListener(new PacketAdapter(PacketAdapter.params(DescentIntoDarkness.instance, PacketType.Play.Server.LOGIN)) {
 			@Override
 			public void onPacketSending(PacketEvent event) {
+				long startTime = System.nanoTime();
 				Biomes.addNotifiedPlayer(event.getPlayer().getUniqueId());
 				event.getPacket().getModifier().withType(DYNAMIC_REGISTRY_MANAGER_IMPL).modify(0, registryManager -> {
 					JsonObject json = registryManagerToJson(registryManager);
@@ -125,12 +126,14 @@ public class PacketListener {
 					}
 					return jsonToRegistryManager(json);
 				});
+				DescentIntoDarkness.instance.getMetrics().packetRewriteDuration.labels("registries").recordSince(startTime);
 			}
 		});
 
 		protocolManager.addPacketListener(new PacketAdapter(PacketAdapter.params(DescentIntoDarkness.instance, PacketType.Play.Server.MAP_CHUNK)) {
 			@Override
 			public void onPacketSending(PacketEvent event) {
+				long startTime = System.nanoTime();
 				event.getPacket().getIntegerArrays().modify(0, biomes -> {
 					if (biomes == null) {
 						return null;
@@ -145,12 +148,14 @@ public class PacketListener {
 					Arrays.fill(biomes, Biomes.getRawId(cave.getStyle().getBiome()));
 					return biomes;
 				});
+				DescentIntoDarkness.instance.getMetrics().packetRewriteDuration.labels("chunk_biomes").recordSince(startTime);
 			}
 		});
 
 		protocolManager.addPacketListener(new PacketAdapter(PacketAdapter.params(DescentIntoDarkness.instance, PacketType.Play.Server.RESPAWN, PacketType.Play.Server.LOGIN)) {
 			@Override
 			public void onPacketSending(PacketEvent event) {
+				long startTime = System.nanoTime();
 				event.getPacket().getModifier().withType(DIMENSION_TYPE).modify(0, dim -> {
 					CaveTracker cave = DescentIntoDarkness.instance.getCaveTrackerManager().getCaveForPlayer(event.getPlayer());
 					if (cave != null) {
@@ -159,6 +164,7 @@ public class PacketListener {
 						return dim;
 					}
 				});
+				DescentIntoDarkness.instance.getMetrics().packetRewriteDuration.labels("dimension").recordSince(startTime);
 			}
 		});
 	}
@@ -0,0 +1,123 @@
+package com.gmail.sharpcastle33.did.metrics;
+
+import com.gmail.sharpcastle33.did.Util;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+/**
+ * Periodically writes the metrics to a file, and optionally serves them over HTTP. The server only listens on the
+ * loopback address, so that the metrics are only visible to monitoring running on the same machine.
+ */
+public class MetricsExporter {
+	public static final boolean DEFAULT_FILE_ENABLED = true;
+	public static final int DEFAULT_FILE_INTERVAL_SECONDS = 60;
+	public static final boolean DEFAULT_HTTP_ENABLED = false;
+	public static final int DEFAULT_HTTP_PORT = 9465;
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final MetricsRegistry registry;
+	@Nullable
+	private BukkitTask fileTask;
+	@Nullable
+	private HttpServer httpServer;
+	@Nullable
+	private ExecutorService httpExecutor;
+
+	public MetricsExporter(MetricsRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Stops the running exporters and starts them again with the given config.
+	 */
+	public void reload(Plugin plugin, ConfigurationSection config, File file) {
+		stop();
+
+		if (config.getBoolean("metrics.file.enabled", DEFAULT_FILE_ENABLED)) {
+			long intervalTicks = Math.max(1, config.getInt("metrics.file.intervalSeconds", DEFAULT_FILE_INTERVAL_SECONDS)) * 20L;
+			fileTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, () -> writeFile(file), intervalTicks, intervalTicks);
+		}
+
+		if (config.getBoolean("metrics.http.enabled", DEFAULT_HTTP_ENABLED)) {
+			int port = config.getInt("metrics.http.port", DEFAULT_HTTP_PORT);
+			try {
+				HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+				server.createContext("/metrics", this::handleRequest);
+				httpExecutor = Executors.newSingleThreadExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "DID metrics server");
+					thread.setDaemon(true);
+					return thread;
+				});
+				server.setExecutor(httpExecutor);
+				server.start();
+				httpServer = server;
+				Bukkit.getLogger().log(Level.INFO, "Serving metrics on http://" + server.getAddress().getHostString() + ":" + port + "/metrics");
+			} catch (IOException e) {
+				Bukkit.getLogger().log(Level.SEVERE, "Could not start the metrics server on port " + port, e);
+				stop();
+			}
+		}
+	}
+
+	public void stop() {
+		if (fileTask != null) {
+			fileTask.cancel();
+			fileTask = null;
+		}
+		if (httpServer != null) {
+			httpServer.stop(0);
+			httpServer = null;
+		}
+		if (httpExecutor != null) {
+			httpExecutor.shutdownNow();
+			httpExecutor = null;
+		}
+	}
+
+	private void writeFile(File file) {
+		File folder = file.getParentFile();
+		if (!folder.exists() && !folder.mkdirs()) {
+			Bukkit.getLogger().warning("Could not create " + folder.getName() + " folder");
+			return;
+		}
+		byte[] metrics = registry.format().getBytes(StandardCharsets.UTF_8);
+		Util.saveSafely(file, swapFile -> Files.write(swapFile.toPath(), metrics));
+	}
+
+	private void handleRequest(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			byte[] metrics = registry.format().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			if ("HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(200, metrics.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(metrics);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package com.gmail.sharpcastle33.did.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+/**
+ * A set of named counters, timers and gauges, which can be written in the Prometheus text exposition format. Metrics may
+ * be updated from any thread.
+ */
+public class MetricsRegistry {
+	private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+	public synchronized Counter counter(String name, String help, String... labelNames) {
+		return register(new Counter(name, help, labelNames));
+	}
+
+	public synchronized Timer timer(String name, String help, String... labelNames) {
+		return register(new Timer(name, help, labelNames));
+	}
+
+	/**
+	 * Registers a gauge whose value is read from the given supplier whenever the metrics are written.
+	 */
+	public synchronized void gauge(String name, String help, DoubleSupplier value) {
+		register(new Gauge(name, help, value));
+	}
+
+	private <T extends Metric> T register(T metric) {
+		if (metrics.putIfAbsent(metric.name, metric) != null) {
+			throw new IllegalArgumentException("Duplicate metric " + metric.name);
+		}
+		return metric;
+	}
+
+	/**
+	 * Writes the current values of all metrics in the Prometheus text exposition format.
+	 */
+	public String format() {
+		List<Metric> metrics;
+		synchronized (this) {
+			metrics = new ArrayList<>(this.metrics.values());
+		}
+		StringBuilder out = new StringBuilder();
+		for (Metric metric : metrics) {
+			out.append("# HELP ").append(metric.name).append(' ').append(escapeHelp(metric.help)).append('\n');
+			out.append("# TYPE ").append(metric.name).append(' ').append(metric.type).append('\n');
+			metric.write(out);
+		}
+		return out.toString();
+	}
+
+	private static String escapeHelp(String help) {
+		return help.replace("\\", "\\\\").replace("\n", "\\n");
+	}
+
+	private static String escapeLabelValue(String value) {
+		return value.replace("\\", "\\\\").replace("\n", "\\n").replace("\"", "\\\"");
+	}
+
+	private static void writeSample(StringBuilder out, String name, String[] labelNames, List<String> labelValues, double value) {
+		out.append(name);
+		if (labelNames.length != 0) {
+			out.append('{');
+			for (int i = 0; i < labelNames.length; i++) {
+				if (i != 0) {
+					out.append(',');
+				}
+				out.append(labelNames[i]).append("=\"").append(escapeLabelValue(labelValues.get(i))).append('"');
+			}
+			out.append('}');
+		}
+		out.append(' ');
+		if (value == (long) value) {
+			out.append((long) value);
+		} else if (Double.isNaN(value)) {
+			out.append("NaN");
+		} else if (Double.isInfinite(value)) {
+			out.append(value > 0 ? "+Inf" : "-Inf");
+		} else {
+			out.append(value);
+		}
+		out.append('\n');
+	}
+
+	private static abstract class Metric {
+		protected final String name;
+		private final String help;
+		private final String type;
+
+		protected Metric(String name, String help, String type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+
+		protected abstract void write(StringBuilder out);
+	}
+
+	/**
+	 * A metric with a child per combination of label values. Children are created on first use and kept forever, so
+	 * labels must only take a bounded number of values.
+	 */
+	private static abstract class LabeledMetric<T> extends Metric {
+		private final String[] labelNames;
+		private final Map<List<String>, T> children = new ConcurrentHashMap<>();
+		private final Function<List<String>, T> childFactory;
+
+		protected LabeledMetric(String name, String help, String type, String[] labelNames, Function<List<String>, T> childFactory) {
+			super(name, help, type);
+			this.labelNames = labelNames;
+			this.childFactory = childFactory;
+		}
+
+		public T labels(String... labelValues) {
+			if (labelValues.length != labelNames.length) {
+				throw new IllegalArgumentException("Metric " + name + " has " + labelNames.length + " labels, got " + labelValues.length);
+			}
+			return children.computeIfAbsent(Arrays.asList(labelValues), childFactory);
+		}
+
+		protected Map<List<String>, T> getChildren() {
+			return children;
+		}
+
+		protected String[] getLabelNames() {
+			return labelNames;
+		}
+	}
+
+	public static final class Counter extends LabeledMetric<Counter.Child> {
+		private Counter(String name, String help, String[] labelNames) {
+			super(name, help, "counter", labelNames, k -> new Child());
+		}
+
+		/**
+		 * Increments the counter without labels.
+		 */
+		public void inc() {
+			labels().inc();
+		}
+
+		@Override
+		protected void write(StringBuilder out) {
+			getChildren().forEach((labelValues, child) -> writeSample(out, name, getLabelNames(), labelValues, child.value.sum()));
+		}
+
+		public static final class Child {
+			private final LongAdder value = new LongAdder();
+
+			private Child() {
+			}
+
+			public void inc() {
+				value.increment();
+			}
+
+			public void inc(long amount) {
+				value.add(amount);
+			}
+		}
+	}
+
+	/**
+	 * Records durations, written as a summary of their count and their sum in seconds.
+	 */
+	public static final class Timer extends LabeledMetric<Timer.Child> {
+		private Timer(String name, String help, String[] labelNames) {
+			super(name, help, "summary", labelNames, k -> new Child());
+		}
+
+		@Override
+		protected void write(StringBuilder out) {
+			getChildren().forEach((labelValues, child) -> {
+				writeSample(out, name + "_count", getLabelNames(), labelValues, child.count.sum());
+				writeSample(out, name + "_sum", getLabelNames(), labelValues, child.nanos.sum() / 1e9);
+			});
+		}
+
+		public static final class Child {
+			private final LongAdder count = new LongAdder();
+			private final LongAdder nanos = new LongAdder();
+
+			private Child() {
+			}
+
+			public void record(long nanos) {
+				this.count.increment();
+				this.nanos.add(nanos);
+			}
+
+			/**
+			 * Records the time since the given {@link System#nanoTime()}.
+			 */
+			public void recordSince(long startNanos) {
+				record(System.nanoTime() - startNanos);
+			}
+		}
+	}
+
+	private static final class Gauge extends Metric {
+		private final DoubleSupplier value;
+
+		private Gauge(String name, String help, DoubleSupplier value) {
+			super(name, help, "gauge");
+			this.value = value;
+		}
+
+		@Override
+		protected void write(StringBuilder out) {
+			double value;
+			try {
+				value = this.value.getAsDouble();
+			} catch (RuntimeException e) {
+				// the value may not be available yet, e.g. during startup
+				value = Double.NaN;
+			}
+			writeSample(out, name, new String[0], Collections.emptyList(), value);
+		}
+	}
+}
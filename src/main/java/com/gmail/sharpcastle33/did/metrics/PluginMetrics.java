@@ -0,0 +1,41 @@
+package com.gmail.sharpcastle33.did.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * The metrics the plugin exposes. Labels only take values with a bounded number of choices, such as cave styles.
+ */
+public class PluginMetrics {
+	private final MetricsRegistry registry = new MetricsRegistry();
+
+	public final MetricsRegistry.Timer generationDuration = registry.timer("did_generation_duration_seconds",
+			"Time taken to generate a cave, by what it was generated from", "style", "source");
+	public final MetricsRegistry.Counter generationsAborted = registry.counter("did_generations_aborted_total",
+			"Cave generations that were canceled or exceeded their budget", "style");
+	public final MetricsRegistry.Counter mobsSpawned = registry.counter("did_mobs_spawned_total",
+			"Mobs spawned", "style");
+	public final MetricsRegistry.Counter mobsDespawned = registry.counter("did_mobs_despawned_total",
+			"Mobs despawned because no player was near", "style");
+	public final MetricsRegistry.Counter spawnAttempts = registry.counter("did_mob_spawn_attempts_total",
+			"Attempts to spawn a mob", "style");
+	public final MetricsRegistry.Counter spawnSuccesses = registry.counter("did_mob_spawn_successes_total",
+			"Attempts to spawn a mob that spawned one", "style");
+	public final MetricsRegistry.Counter oreBreaks = registry.counter("did_ore_breaks_total",
+			"Hits on ore blocks, by whether they broke the ore", "style", "broken");
+	public final MetricsRegistry.Timer saveDuration = registry.timer("did_save_duration_seconds",
+			"Time taken to save a file, by kind of file", "file");
+	public final MetricsRegistry.Timer packetRewriteDuration = registry.timer("did_packet_rewrite_seconds",
+			"Time spent rewriting outgoing packets", "packet");
+
+	public void registerGenerationQueueDepth(DoubleSupplier queueDepth) {
+		registry.gauge("did_generation_queue_depth", "Cave generations waiting for a worker", queueDepth);
+	}
+
+	public void registerActiveInstances(DoubleSupplier activeInstances) {
+		registry.gauge("did_active_instances", "Generated cave instances", activeInstances);
+	}
+
+	public MetricsRegistry getRegistry() {
+		return registry;
+	}
+}
@@ -1,6 +1,7 @@
 package com.gmail.sharpcastle33.did.provider;
 
 import com.fastasyncworldedit.core.registry.state.PropertyKey;
+import com.gmail.sharpcastle33.did.AliasTable;
 import com.gmail.sharpcastle33.did.Util;
 import com.gmail.sharpcastle33.did.generator.CaveGenContext;
 import com.gmail.sharpcastle33.did.generator.Centroid;
@@ -51,27 +52,16 @@ public interface BlockProvider {
 
 	final class Weighted implements BlockProvider {
 		private final BlockStateHolder<?>[] blocks;
-		private final int[] weights;
+		private final AliasTable weights;
 
 		public Weighted(BlockStateHolder<?>[] blocks, int[] weights) {
 			this.blocks = blocks;
-			this.weights = weights;
+			this.weights = new AliasTable(weights);
 		}
 
 		@Override
 		public BlockStateHolder<?> get(CaveGenContext ctx, Centroid centroid) {
-			int total = 0;
-			for (int weight : weights) {
-				total += weight;
-			}
-			int choice = ctx.rand.nextInt(total);
-			for (int i = 0; i < blocks.length; i++) {
-				if (choice < weights[i]) {
-					return blocks[i];
-				}
-				choice -= weights[i];
-			}
-			return blocks[blocks.length - 1];
+			return blocks[weights.sample(ctx.rand)];
 		}
 
 		@Override
@@ -92,28 +82,22 @@ public interface BlockProvider {
 
 	final class RoomWeighted implements BlockProvider {
 		private final BlockProvider[] blocks;
-		private final int[] weights;
+		private final AliasTable weights;
 
 		public RoomWeighted(BlockProvider[] blocks, int[] weights) {
 			this.blocks = blocks;
-			this.weights = weights;
+			this.weights = new AliasTable(weights);
 		}
 
 		@Override
 		public BlockStateHolder<?> get(CaveGenContext ctx, Centroid centroid) {
-			int total = 0;
-			for (int weight : weights) {
-				total += weight;
-			}
-			long seed = ctx.caveSeed + 133742069L * centroid.roomIndex;
-			int choice = new Random(seed).nextInt(total);
-			for (int i = 0; i < blocks.length; i++) {
-				if (choice < weights[i]) {
-					return blocks[i].get(ctx, centroid);
-				}
-				choice -= weights[i];
-			}
-			return blocks[blocks.length - 1].get(ctx, centroid);
+			int choice = ctx.getRoomChoice(this, centroid.roomIndex, this::choose);
+			return blocks[choice].get(ctx, centroid);
+		}
+
+		private int choose(CaveGenContext ctx, int roomIndex) {
+			long seed = ctx.caveSeed + 133742069L * roomIndex;
+			return weights.indexOf(new Random(seed).nextInt(weights.getTotalWeight()));
 		}
 
 		@Override
@@ -0,0 +1,75 @@
+package com.gmail.sharpcastle33.did.provider;
+
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockStateHolder;
+import com.sk89q.worldedit.world.block.BlockTypesCache;
+
+import java.util.Collection;
+
+/**
+ * A block predicate stored as a bitset over block state ordinals, so that testing a block is a single bit test.
+ */
+public final class CompiledBlockPredicate implements BlockPredicate {
+	private final long[] bits;
+
+	private CompiledBlockPredicate(long[] bits) {
+		this.bits = bits;
+	}
+
+	private static long[] newBits() {
+		return new long[(BlockTypesCache.states.length + 63) >>> 6];
+	}
+
+	/**
+	 * Matches any block that {@link BlockStateHolder#equalsFuzzy} one of the given blocks. Fuzzy matches never cross
+	 * block types, so only the states of the given blocks' types need to be checked.
+	 */
+	public static CompiledBlockPredicate fuzzy(Collection<? extends BlockStateHolder<?>> blocks) {
+		long[] bits = newBits();
+		for (BlockStateHolder<?> wanted : blocks) {
+			for (BlockState state : wanted.getBlockType().getAllStates()) {
+				if (wanted.equalsFuzzy(state)) {
+					set(bits, state.getOrdinal());
+				}
+			}
+		}
+		return new CompiledBlockPredicate(bits);
+	}
+
+	/**
+	 * Compiles an arbitrary predicate by evaluating it once for every block state. The predicate must only depend on
+	 * the block state, not on any NBT data.
+	 */
+	public static CompiledBlockPredicate compile(BlockPredicate predicate) {
+		if (predicate instanceof CompiledBlockPredicate) {
+			return (CompiledBlockPredicate) predicate;
+		}
+		long[] bits = newBits();
+		BlockState[] states = BlockTypesCache.states;
+		for (int ordinal = 0; ordinal < states.length; ordinal++) {
+			if (states[ordinal] != null && predicate.test(states[ordinal])) {
+				set(bits, ordinal);
+			}
+		}
+		return new CompiledBlockPredicate(bits);
+	}
+
+	public CompiledBlockPredicate inverted() {
+		long[] inverted = new long[bits.length];
+		for (int i = 0; i < bits.length; i++) {
+			inverted[i] = ~bits[i];
+		}
+		return new CompiledBlockPredicate(inverted);
+	}
+
+	private static void set(long[] bits, int ordinal) {
+		bits[ordinal >>> 6] |= 1L << ordinal;
+	}
+
+	@Override
+	public boolean test(BlockStateHolder<?> block) {
+		int ordinal = block.getOrdinal();
+		int index = ordinal >>> 6;
+		return index < bits.length && (bits[index] & (1L << ordinal)) != 0;
+	}
+}
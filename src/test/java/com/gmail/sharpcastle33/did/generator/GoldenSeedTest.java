@@ -0,0 +1,147 @@
+package com.gmail.sharpcastle33.did.generator;
+
+import com.gmail.sharpcastle33.did.config.CaveStyle;
+import com.gmail.sharpcastle33.did.headless.HeadlessEnvironment;
+import com.sk89q.worldedit.math.Vector3;
+import org.bukkit.Bukkit;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.logging.Level;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Generates caves from the bundled cave styles with fixed seeds, and checks that they come out the same as when the
+ * golden values were recorded, and not much slower or more allocation heavy.
+ *
+ * <p>The test is tagged {@code golden}, which the default build leaves out until the golden values are committed,
+ * and runs with {@code mvn test -Pgolden}. Record the values with {@code mvn test -Pgolden -Ddid.golden.update=true} on a quiet machine, and commit the
+ * updated file. Caves without golden values fail. Timing and allocation are only checked with
+ * {@code -Ddid.golden.checkPerformance=true}, since they vary too much on shared machines, and the allowed slowdown is
+ * set with {@code -Ddid.golden.margin=<fraction>}.
+ */
+@Tag("golden")
+public class GoldenSeedTest {
+	private static final boolean UPDATE = Boolean.getBoolean("did.golden.update");
+	private static final double MARGIN = Double.parseDouble(System.getProperty("did.golden.margin", "0.5"));
+	private static final boolean CHECK_PERFORMANCE = Boolean.parseBoolean(System.getProperty("did.golden.checkPerformance", "false"));
+	private static final File GOLDEN_FILE = new File(System.getProperty("basedir", "."), "src/test/resources/golden/caves.properties");
+
+	private static HeadlessEnvironment environment;
+	private static final Properties golden = new Properties();
+
+	@BeforeAll
+	public static void setUp() throws IOException {
+		environment = HeadlessEnvironment.bootstrap(Collections.singletonList(HeadlessEnvironment.extractDefaultCaveStyles()), new File("schematics"));
+		Bukkit.getLogger().setLevel(Level.SEVERE);
+		if (GOLDEN_FILE.exists()) {
+			try (InputStream in = new FileInputStream(GOLDEN_FILE)) {
+				golden.load(in);
+			}
+		}
+		// warm up, so that the first cave isn't measured with class loading and an unoptimized generator
+		generate("default", 0);
+	}
+
+	@AfterAll
+	public static void tearDown() throws IOException {
+		if (UPDATE) {
+			//noinspection ResultOfMethodCallIgnored
+			GOLDEN_FILE.getParentFile().mkdirs();
+			try (OutputStream out = new FileOutputStream(GOLDEN_FILE)) {
+				golden.store(out, "Golden values for GoldenSeedTest, recorded with -Ddid.golden.update=true");
+			}
+		}
+	}
+
+	@ParameterizedTest(name = "{0} seed {1}")
+	@CsvSource({
+			"default, 1",
+			"default, 42",
+			"default, 1337",
+			"default, -8211298723945673581",
+			"debug, 7",
+	})
+	public void generatesGoldenCave(String styleName, long seed) {
+		Result result = generate(styleName, seed);
+		String key = styleName + "." + seed;
+		if (UPDATE) {
+			golden.setProperty(key + ".hash", Long.toHexString(result.hash));
+			golden.setProperty(key + ".blocksChanged", Long.toString(result.blocksChanged));
+			golden.setProperty(key + ".millis", Long.toString(result.millis));
+			golden.setProperty(key + ".allocatedBytes", Long.toString(result.allocatedBytes));
+			return;
+		}
+
+		String hash = golden.getProperty(key + ".hash");
+		assertNotNull(hash, "No golden values for " + key + ", record them with -Pgolden -Ddid.golden.update=true");
+		assertEquals(Long.parseUnsignedLong(hash, 16), result.hash, "Cave " + key + " differs from the golden cave");
+		assertEquals(Long.parseLong(golden.getProperty(key + ".blocksChanged")), result.blocksChanged, "Blocks changed by " + key);
+
+		if (CHECK_PERFORMANCE) {
+			long maxMillis = (long) (Long.parseLong(golden.getProperty(key + ".millis")) * (1 + MARGIN));
+			assertTrue(result.millis <= maxMillis, "Cave " + key + " took " + result.millis + "ms, the limit is " + maxMillis + "ms");
+			long baselineBytes = Long.parseLong(golden.getProperty(key + ".allocatedBytes"));
+			if (baselineBytes > 0 && result.allocatedBytes > 0) {
+				long maxBytes = (long) (baselineBytes * (1 + MARGIN));
+				assertTrue(result.allocatedBytes <= maxBytes, "Cave " + key + " allocated " + result.allocatedBytes + " bytes, the limit is " + maxBytes + " bytes");
+			}
+		}
+	}
+
+	private static Result generate(String styleName, long seed) {
+		CaveStyle style = environment.getCaveStyle(styleName);
+		assertNotNull(style, "Missing bundled cave style " + styleName);
+		MemoryWorldSink sink = new MemoryWorldSink();
+		long startBytes = getAllocatedBytes();
+		long startTime = System.nanoTime();
+		long blocksChanged;
+		try (CaveGenContext ctx = CaveGenContext.create(sink, style, seed)) {
+			CaveGenerator.generateCave(ctx, Vector3.at(0, style.getStartY(), 0));
+			blocksChanged = ctx.getBlocksChanged();
+		}
+		long millis = (System.nanoTime() - startTime) / 1000000;
+		long allocatedBytes = getAllocatedBytes() - startBytes;
+		return new Result(sink.getContentHash(), blocksChanged, millis, allocatedBytes);
+	}
+
+	/**
+	 * Gets the bytes allocated by the current thread so far, or a negative number if the JVM can't measure them.
+	 */
+	private static long getAllocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static class Result {
+		private final long hash;
+		private final long blocksChanged;
+		private final long millis;
+		private final long allocatedBytes;
+
+		private Result(long hash, long blocksChanged, long millis, long allocatedBytes) {
+			this.hash = hash;
+			this.blocksChanged = blocksChanged;
+			this.millis = millis;
+			this.allocatedBytes = allocatedBytes;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.gmail.sharpcastle33.did.headless;
+
+import com.gmail.sharpcastle33.did.config.CaveStyle;
+import com.gmail.sharpcastle33.did.generator.GenerationCheckpoint;
+import com.gmail.sharpcastle33.did.generator.PostProcessor;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Starts a generation worker process with the test class path, and checks that it generates a complete cave and exits
+ * once its input is closed.
+ *
+ * <p>The test is tagged {@code worker-process}, which the default build leaves out until it has been run against the
+ * server's jars, and runs with {@code mvn test -Pworker-process}.
+ */
+@Tag("worker-process")
+public class GenerationWorkerTest {
+	private static final long SEED = 42;
+
+	@Test
+	public void generatesCaveInWorkerProcess(@TempDir File dataFolder) throws Exception {
+		File caveStylesDir = new File(dataFolder, "caveStyles");
+		assertTrue(caveStylesDir.mkdirs());
+		Files.copy(HeadlessEnvironment.extractDefaultCaveStyles().toPath(), new File(caveStylesDir, "default.yml").toPath());
+		HeadlessEnvironment environment = HeadlessEnvironment.bootstrap(dataFolder);
+		CaveStyle style = environment.getCaveStyle("default");
+		assertNotNull(style, "Missing bundled cave style default");
+		String fingerprint = environment.getCaveStyles().getFingerprint("default");
+		assertNotNull(fingerprint);
+
+		String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), GenerationWorker.class.getName(), dataFolder.getAbsolutePath())
+				.redirectError(ProcessBuilder.Redirect.INHERIT)
+				.start();
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+			DataInputStream in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+			BlockVector3 startPos = BlockVector3.at(0, style.getStartY(), 0);
+			CuboidRegion limit = new CuboidRegion(BlockVector3.at(-1024, 0, -1024), BlockVector3.at(1024, 255, 1024));
+			new WorkerProtocol.Request("default", fingerprint, SEED, startPos, limit, 0).write(out);
+
+			byte[] response = assertTimeoutPreemptively(Duration.ofMinutes(2), () -> WorkerProtocol.readResponse(in));
+			GenerationCheckpoint checkpoint = GenerationCheckpoint.read(new ByteArrayInputStream(response));
+			assertEquals("default", checkpoint.getStyleName());
+			assertEquals(fingerprint, checkpoint.getStyleFingerprint());
+			assertEquals(SEED, checkpoint.getSeed());
+			assertEquals(PostProcessor.STEP_COUNT, checkpoint.getNextPostProcessStep(), "The worker returned an unfinished cave");
+			assertFalse(checkpoint.getCaveString().isEmpty());
+
+			out.close();
+			assertTrue(process.waitFor(30, TimeUnit.SECONDS), "The worker did not exit after its input was closed");
+			assertEquals(0, process.exitValue());
+		} finally {
+			process.destroyForcibly();
+		}
+	}
+}